@@ -1,6 +1,5 @@
 package io.vntr;
 
-import gnu.trove.iterator.TIntIterator;
 import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
 
@@ -32,16 +31,6 @@ public class RepUser extends User {
         this.replicaPids.addAll(replicaPid);
     }
 
-    public RepUser dupe() {
-        RepUser user = new RepUser(getId(), getBasePid());
-        user.addReplicaPids(replicaPids);
-        for(TIntIterator iter = getFriendIDs().iterator(); iter.hasNext(); ) {
-            user.befriend(iter.next());
-        }
-
-        return user;
-    }
-
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
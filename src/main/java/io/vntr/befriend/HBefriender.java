@@ -1,24 +1,18 @@
 package io.vntr.befriend;
 
-import gnu.trove.map.TIntObjectMap;
-import gnu.trove.set.TIntSet;
-import gnu.trove.set.hash.TIntHashSet;
-import io.vntr.repartition.HRepartitioner;
+import io.vntr.manager.NoRepManager;
 
 /**
  * Created by robertlindquist on 4/30/17.
  */
 public class HBefriender {
-    public static BEFRIEND_REBALANCE_STRATEGY determineBestBefriendingRebalanceStrategy(int smallUid, int largeUid, float gamma, TIntObjectMap<TIntSet> friendships, TIntObjectMap<TIntSet> partitions) {
-        TIntSet uids = new TIntHashSet();
-        uids.add(smallUid);
-        uids.add(largeUid);
-        TIntObjectMap<HRepartitioner.LogicalUser> lusers = HRepartitioner.initLogicalUsers(partitions, friendships, new TIntHashSet(uids), gamma);
-        HRepartitioner.LogicalUser smallUser = lusers.get(smallUid);
-        HRepartitioner.LogicalUser largeUser = lusers.get(largeUid);
+    public static BEFRIEND_REBALANCE_STRATEGY determineBestBefriendingRebalanceStrategy(int smallUid, int largeUid, float gamma, NoRepManager manager) {
+        int smallPid = manager.getPidForUser(smallUid);
+        int largePid = manager.getPidForUser(largeUid);
+        float averageWeight = ((float) manager.getNumUsers()) / manager.getNumPartitions();
 
-        int smallToLargeGain = calculateGain(smallUser, largeUser.getPid(), gamma);
-        int largeToSmallGain = calculateGain(largeUser, smallUser.getPid(), gamma);
+        int smallToLargeGain = calculateGain(smallUid, smallPid, largePid, gamma, averageWeight, manager);
+        int largeToSmallGain = calculateGain(largeUid, largePid, smallPid, gamma, averageWeight, manager);
 
         if(smallToLargeGain > largeToSmallGain && smallToLargeGain > 0) {
             return BEFRIEND_REBALANCE_STRATEGY.SMALL_TO_LARGE;
@@ -30,9 +24,10 @@ public class HBefriender {
         return BEFRIEND_REBALANCE_STRATEGY.NO_CHANGE;
     }
 
-    static int calculateGain(HRepartitioner.LogicalUser user, int pid, float gamma) {
-        int gain = user.getpToFriendCount().get(pid) - user.getpToFriendCount().get(user.getPid());
-        return (user.getImbalanceFactor(pid, 1) < gamma) ? gain : -1;
+    static int calculateGain(int uid, int pid, int targetPid, float gamma, float averageWeight, NoRepManager manager) {
+        int gain = manager.getNumFriendsOnPartition(uid, targetPid) - manager.getNumFriendsOnPartition(uid, pid);
+        float imbalanceFactor = (manager.getPartition(targetPid).size() + 1) / averageWeight;
+        return (imbalanceFactor < gamma) ? gain : -1;
     }
 
 }
@@ -1,35 +1,30 @@
 package io.vntr.befriend;
 
 import gnu.trove.iterator.TIntIterator;
-import gnu.trove.map.TIntIntMap;
-import gnu.trove.map.TIntObjectMap;
 import gnu.trove.set.TIntSet;
-import gnu.trove.set.hash.TIntHashSet;
-
-import static io.vntr.utils.TroveUtils.*;
+import io.vntr.manager.NoRepManager;
+import io.vntr.utils.PowerTable;
 
 /**
  * Created by robertlindquist on 4/25/17.
  */
 public class JBefriender {
 
-    public static Result rebalance(Integer smallerUid, Integer largerUid, int k, float alpha, TIntObjectMap<TIntSet> friendships, TIntObjectMap<TIntSet> partitions) {
-        TIntIntMap uidToPidMap = getUToMasterMap(partitions);
-
-        int smallerPid = uidToPidMap.get(smallerUid);
-        int largerPid = uidToPidMap.get(largerUid);
+    public static Result rebalance(Integer smallerUid, Integer largerUid, int k, PowerTable powers, NoRepManager manager) {
+        int smallerPid = manager.getPidForUser(smallerUid);
+        int largerPid = manager.getPidForUser(largerUid);
 
         if (smallerPid != largerPid) {
-            Integer smallerPartnerId = findPartnerOnPartition(smallerUid, partitions.get(largerPid), k, alpha, friendships, uidToPidMap);
-            Integer largerPartnerId = findPartnerOnPartition(largerUid, partitions.get(smallerPid), k, alpha, friendships, uidToPidMap);
+            Integer smallerPartnerId = findPartner(smallerUid, manager.sampleUsersOnPartition(largerPid, k), powers, manager);
+            Integer largerPartnerId = findPartner(largerUid, manager.sampleUsersOnPartition(smallerPid, k), powers, manager);
 
             if (smallerPartnerId != null && largerPartnerId == null) {
                 return new Result(smallerUid, smallerPartnerId);
             } else if (largerPartnerId != null && smallerPartnerId == null) {
                 return new Result(largerUid, largerPartnerId);
             } else if (smallerPartnerId != null && largerPartnerId != null) {
-                int gainSmallerToLarger = calculateGain(smallerPartnerId, largerPartnerId, friendships, uidToPidMap);
-                int gainLargerToSmaller = calculateGain(largerPartnerId, smallerPartnerId, friendships, uidToPidMap);
+                int gainSmallerToLarger = calculateGain(smallerPartnerId, largerPartnerId, manager);
+                int gainLargerToSmaller = calculateGain(largerPartnerId, smallerPartnerId, manager);
                 if (gainSmallerToLarger >= gainLargerToSmaller) {
                     return new Result(smallerUid, smallerPartnerId);
                 } else {
@@ -40,59 +35,38 @@ public class JBefriender {
         return new Result(null, null);
     }
 
-    static Integer findPartnerOnPartition(int uid, TIntSet partition, int k, float alpha, TIntObjectMap<TIntSet> friendships, TIntIntMap uidToPidMap) {
-        TIntSet candidates;
-        if (partition.size() <= k) {
-            candidates = new TIntHashSet(partition);
-        } else {
-            candidates = getKDistinctValuesFromArray(k, partition.toArray());
-        }
-        return findPartner(uid, candidates, alpha, friendships, uidToPidMap);
-    }
-
-    static int calculateGain(int uid1, int uid2, TIntObjectMap<TIntSet> friendships, TIntIntMap uidToPidMap) {
-        boolean u1AndU2AreFriends = friendships.get(uid1).contains(uid2);
-        TIntSet u1Friends = friendships.get(uid1);
-        TIntSet u2Friends = friendships.get(uid2);
-        int pid1 = uidToPidMap.get(uid1);
-        int pid2 = uidToPidMap.get(uid2);
-        int oldCut = getNeighborsOnPartition(u1Friends, pid2, uidToPidMap) + getNeighborsOnPartition(u2Friends, pid1, uidToPidMap);
-        int newCut = getNeighborsOnPartition(u1Friends, pid1, uidToPidMap) + getNeighborsOnPartition(u2Friends, pid2, uidToPidMap);
+    static int calculateGain(int uid1, int uid2, NoRepManager manager) {
+        boolean u1AndU2AreFriends = manager.getUser(uid1).getFriendIDs().contains(uid2);
+        int pid1 = manager.getPidForUser(uid1);
+        int pid2 = manager.getPidForUser(uid2);
+        int oldCut = manager.getNumFriendsOnPartition(uid1, pid2) + manager.getNumFriendsOnPartition(uid2, pid1);
+        int newCut = manager.getNumFriendsOnPartition(uid1, pid1) + manager.getNumFriendsOnPartition(uid2, pid2);
         return oldCut - newCut - (u1AndU2AreFriends ? 2 : 0);
     }
 
-    static int getNeighborsOnPartition(TIntSet friendIds, Integer pid, TIntIntMap uidToPidMap) {
-        int count = 0;
-        for(TIntIterator iter = friendIds.iterator(); iter.hasNext(); ) {
-            int friendId = iter.next();
-            count += uidToPidMap.get(friendId) == pid ? 1 : 0;
-        }
-
-        return count;
-    }
-
-    static Integer findPartner(int uid, TIntSet candidates, float alpha, TIntObjectMap<TIntSet> friendships, TIntIntMap uidToPidMap) {
+    static Integer findPartner(int uid, TIntSet candidates, PowerTable powers, NoRepManager manager) {
         Integer bestPartnerId = null;
         float bestScore = 0f;
 
-        Integer myPid = uidToPidMap.get(uid);
+        int myPid = manager.getPidForUser(uid);
+        TIntSet myFriendIds = manager.getUser(uid).getFriendIDs();
 
         for(TIntIterator iter = candidates.iterator(); iter.hasNext(); ) {
             int partnerId = iter.next();
-            Integer theirPid = uidToPidMap.get(partnerId);
-            if (theirPid.equals(myPid)) {
+            int theirPid = manager.getPidForUser(partnerId);
+            if (theirPid == myPid) {
                 continue;
             }
 
-            boolean uAndPartnerAreFriends = friendships.get(uid).contains(partnerId);
+            boolean uAndPartnerAreFriends = myFriendIds.contains(partnerId);
 
-            int myNeighborsOnMine = howManyFriendsHavePartition(friendships.get(uid), myPid, uidToPidMap);
-            int myNeighborsOnTheirs = howManyFriendsHavePartition(friendships.get(uid), theirPid, uidToPidMap) - (uAndPartnerAreFriends ? 1 : 0);
-            int theirNeighborsOnMine = howManyFriendsHavePartition(friendships.get(partnerId), myPid, uidToPidMap) - (uAndPartnerAreFriends ? 1 : 0);
-            int theirNeighborsOnTheirs = howManyFriendsHavePartition(friendships.get(partnerId), theirPid, uidToPidMap);
+            int myNeighborsOnMine = manager.getNumFriendsOnPartition(uid, myPid);
+            int myNeighborsOnTheirs = manager.getNumFriendsOnPartition(uid, theirPid) - (uAndPartnerAreFriends ? 1 : 0);
+            int theirNeighborsOnMine = manager.getNumFriendsOnPartition(partnerId, myPid) - (uAndPartnerAreFriends ? 1 : 0);
+            int theirNeighborsOnTheirs = manager.getNumFriendsOnPartition(partnerId, theirPid);
 
-            float oldScore = (float) (Math.pow(myNeighborsOnMine, alpha) + Math.pow(theirNeighborsOnTheirs, alpha));
-            float newScore = (float) (Math.pow(myNeighborsOnTheirs, alpha) + Math.pow(theirNeighborsOnMine, alpha));
+            float oldScore = (float) (powers.pow(myNeighborsOnMine) + powers.pow(theirNeighborsOnTheirs));
+            float newScore = (float) (powers.pow(myNeighborsOnTheirs) + powers.pow(theirNeighborsOnMine));
 
             if (newScore > bestScore && newScore > oldScore) {
                 bestPartnerId = partnerId;
@@ -103,15 +77,6 @@ public class JBefriender {
         return bestPartnerId;
     }
 
-    static int howManyFriendsHavePartition(TIntSet friendIds, Integer pid, TIntIntMap uidToPidMap) {
-        int count = 0;
-        for(TIntIterator iter = friendIds.iterator(); iter.hasNext(); ) {
-            int friendId = iter.next();
-            count += uidToPidMap.get(friendId) == pid ? 1 : 0;
-        }
-        return count;
-    }
-
     public static class Result {
         private final Integer uid1;
         private final Integer uid2;
@@ -1,32 +1,28 @@
 package io.vntr.befriend;
 
 import gnu.trove.iterator.TIntIterator;
-import gnu.trove.map.TIntIntMap;
-import gnu.trove.map.TIntObjectMap;
 import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
 import io.vntr.RepUser;
+import io.vntr.manager.RepManager;
 
-import static io.vntr.utils.TroveUtils.*;
 import static io.vntr.befriend.BEFRIEND_REBALANCE_STRATEGY.*;
 
 public class SBefriender {
-    public static BEFRIEND_REBALANCE_STRATEGY determineBestBefriendingRebalanceStrategy(RepUser smallerUser, RepUser largerUser, int minNumReplicas, TIntObjectMap<TIntSet> friendships, TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> replicas) {
+    public static BEFRIEND_REBALANCE_STRATEGY determineBestBefriendingRebalanceStrategy(RepUser smallerUser, RepUser largerUser, RepManager manager) {
         //calculate the number of replicas that would be generated for each of the three possible configurations:
         //  1) no movements of masters, which maintains the status-quo
         //	2) the master of smallerUserId goes to the partition containing the master of largerUserId
         //  3) the opposite of (3)
 
-        TIntIntMap uidToPidMap = getUToMasterMap(partitions);
-        TIntObjectMap<TIntSet> uidToReplicasMap = getUToReplicasMap(replicas, friendships.keySet());
+        int minNumReplicas = manager.getMinNumReplicas();
 
-        int stay      = calcNumReplicasStay(smallerUser, largerUser, replicas);
-        int toLarger  = calcNumReplicasMove(smallerUser, largerUser, replicas, minNumReplicas, uidToPidMap, uidToReplicasMap, friendships);
-        int toSmaller = calcNumReplicasMove(largerUser, smallerUser, replicas, minNumReplicas, uidToPidMap, uidToReplicasMap, friendships);
-
-        int smallerMasters = partitions.get(smallerUser.getBasePid()).size();
-        int largerMasters  = partitions.get(largerUser.getBasePid()).size();
+        int stay      = calcNumReplicasStay(smallerUser, largerUser, manager);
+        int toLarger  = calcNumReplicasMove(smallerUser, largerUser, minNumReplicas, manager);
+        int toSmaller = calcNumReplicasMove(largerUser, smallerUser, minNumReplicas, manager);
 
+        int smallerMasters = manager.getMastersOnPartition(smallerUser.getBasePid()).size();
+        int largerMasters  = manager.getMastersOnPartition(largerUser.getBasePid()).size();
 
         return determineStrategy(stay, toSmaller, toLarger, smallerMasters, largerMasters);
     }
@@ -63,27 +59,27 @@ public class SBefriender {
         return NO_CHANGE;
     }
 
-    static int calcNumReplicasStay(RepUser smallerUser, RepUser largerUser, TIntObjectMap<TIntSet> replicas) {
+    static int calcNumReplicasStay(RepUser smallerUser, RepUser largerUser, RepManager manager) {
         Integer smallerPid = smallerUser.getBasePid();
         Integer largerPid = largerUser.getBasePid();
         boolean largerReplicaExistsOnSmallerMaster = largerUser.getReplicaPids().contains(smallerPid);
         boolean smallerReplicaExistsOnLargerMaster = smallerUser.getReplicaPids().contains(largerPid);
         int deltaReplicas = (largerReplicaExistsOnSmallerMaster ? 0 : 1) + (smallerReplicaExistsOnLargerMaster ? 0 : 1);
-        int curReplicas = replicas.get(smallerPid).size() + replicas.get(largerPid).size();
+        int curReplicas = manager.getReplicasOnPartition(smallerPid).size() + manager.getReplicasOnPartition(largerPid).size();
         return curReplicas + deltaReplicas;
     }
 
-    static int calcNumReplicasMove(RepUser movingUser, RepUser stayingUser, TIntObjectMap<TIntSet> replicas, int minNumReplicas, TIntIntMap uidToPidMap, TIntObjectMap<TIntSet> uidToReplicasMap, TIntObjectMap<TIntSet> friendships) {
-        int curReplicas = replicas.get(movingUser.getBasePid()).size() + replicas.get(stayingUser.getBasePid()).size();
+    static int calcNumReplicasMove(RepUser movingUser, RepUser stayingUser, int minNumReplicas, RepManager manager) {
+        int curReplicas = manager.getReplicasOnPartition(movingUser.getBasePid()).size() + manager.getReplicasOnPartition(stayingUser.getBasePid()).size();
 
         //Find replicas that need to be added
-        boolean shouldWeAddAReplicaOfMovingUserInMovingPartition = shouldWeAddAReplicaOfMovingUserInMovingPartition(movingUser, uidToPidMap);
-        TIntSet replicasToAddInStayingPartition = findReplicasToAddToTargetPartition(movingUser, stayingUser.getBasePid(), uidToPidMap, uidToReplicasMap);
+        boolean shouldWeAddAReplicaOfMovingUserInMovingPartition = shouldWeAddAReplicaOfMovingUserInMovingPartition(movingUser, manager);
+        TIntSet replicasToAddInStayingPartition = findReplicasToAddToTargetPartition(movingUser, stayingUser.getBasePid(), manager);
 
         //Find replicas that should be deleted
-        boolean shouldWeDeleteReplicaOfMovingUserInStayingPartition = shouldWeDeleteReplicaOfMovingUserInStayingPartition(movingUser, stayingUser, minNumReplicas, uidToPidMap);
-        boolean shouldWeDeleteReplicaOfStayingUserInMovingPartition = shouldWeDeleteReplicaOfStayingUserInMovingPartition(movingUser, stayingUser, minNumReplicas, uidToPidMap);
-        TIntSet replicasInMovingPartitionToDelete = findReplicasInMovingPartitionToDelete(movingUser, replicasToAddInStayingPartition, minNumReplicas, uidToReplicasMap, uidToPidMap, friendships);
+        boolean shouldWeDeleteReplicaOfMovingUserInStayingPartition = shouldWeDeleteReplicaOfMovingUserInStayingPartition(movingUser, stayingUser, minNumReplicas, manager);
+        boolean shouldWeDeleteReplicaOfStayingUserInMovingPartition = shouldWeDeleteReplicaOfStayingUserInMovingPartition(movingUser, stayingUser, minNumReplicas, manager);
+        TIntSet replicasInMovingPartitionToDelete = findReplicasInMovingPartitionToDelete(movingUser, replicasToAddInStayingPartition, minNumReplicas, manager);
 
         //Calculate net change
         int numReplicasToAdd = replicasToAddInStayingPartition.size() + (shouldWeAddAReplicaOfMovingUserInMovingPartition ? 1 : 0);
@@ -94,13 +90,12 @@ public class SBefriender {
         return curReplicas + deltaReplicas;
     }
 
-    public static TIntSet findReplicasToAddToTargetPartition(RepUser movingUser, Integer targetPid, TIntIntMap uidToPidMap, TIntObjectMap<TIntSet> uidToReplicasMap) {
+    public static TIntSet findReplicasToAddToTargetPartition(RepUser movingUser, int targetPid, RepManager manager) {
         TIntSet replicasToAddInStayingPartition = new TIntHashSet();
         for(TIntIterator iter = movingUser.getFriendIDs().iterator(); iter.hasNext(); ) {
             int friendId = iter.next();
-            int pid = uidToPidMap.get(friendId);
-            TIntSet replicaPids = uidToReplicasMap.get(friendId);
-            if (targetPid != pid && !replicaPids.contains(targetPid)) {
+            RepUser friend = manager.getUserMaster(friendId);
+            if (targetPid != friend.getBasePid() && !friend.getReplicaPids().contains(targetPid)) {
                 replicasToAddInStayingPartition.add(friendId);
             }
         }
@@ -108,12 +103,12 @@ public class SBefriender {
         return replicasToAddInStayingPartition;
     }
 
-    public static TIntSet findReplicasInMovingPartitionToDelete(RepUser movingUser, TIntSet replicasToBeAdded, int minNumReplicas, TIntObjectMap<TIntSet> uidToReplicasMap, TIntIntMap uidToPidMap, TIntObjectMap<TIntSet> friendships) {
+    public static TIntSet findReplicasInMovingPartitionToDelete(RepUser movingUser, TIntSet replicasToBeAdded, int minNumReplicas, RepManager manager) {
         TIntSet replicasInMovingPartitionToDelete = new TIntHashSet();
 
-        for(TIntIterator iter = findReplicasInPartitionThatWereOnlyThereForThisUsersSake(movingUser, uidToPidMap, friendships).iterator(); iter.hasNext(); ) {
+        for(TIntIterator iter = findReplicasInPartitionThatWereOnlyThereForThisUsersSake(movingUser, manager).iterator(); iter.hasNext(); ) {
             int replicaId = iter.next();
-            int numExistingReplicas = uidToReplicasMap.get(replicaId).size();
+            int numExistingReplicas = manager.getUserMaster(replicaId).getReplicaPids().size();
             if (numExistingReplicas + (replicasToBeAdded.contains(replicaId) ? 1 : 0) > minNumReplicas) {
                 replicasInMovingPartitionToDelete.add(replicaId);
             }
@@ -122,22 +117,13 @@ public class SBefriender {
         return replicasInMovingPartitionToDelete;
     }
 
-    public static TIntSet findReplicasInPartitionThatWereOnlyThereForThisUsersSake(RepUser user, TIntIntMap uidToPidMap, TIntObjectMap<TIntSet> friendships) {
+    public static TIntSet findReplicasInPartitionThatWereOnlyThereForThisUsersSake(RepUser user, RepManager manager) {
+        int pid = user.getBasePid();
         TIntSet replicasThatWereJustThereForThisUsersSake = new TIntHashSet();
-        outer: for(TIntIterator iter = user.getFriendIDs().iterator(); iter.hasNext(); ) {
+        for(TIntIterator iter = user.getFriendIDs().iterator(); iter.hasNext(); ) {
             int friendId = iter.next();
-            if (uidToPidMap.get(friendId) != user.getBasePid()) {
-                for(TIntIterator iter2 = friendships.get(friendId).iterator(); iter2.hasNext(); ) {
-                    int friendOfFriendId = iter2.next();
-                    if (friendOfFriendId == user.getId()) {
-                        continue;
-                    }
-
-                    if (uidToPidMap.get(friendOfFriendId) == user.getBasePid()) {
-                        continue outer;
-                    }
-                }
-
+            //user is itself one of friendId's friends on pid, so a count of 1 means there are no others
+            if (manager.getUserMaster(friendId).getBasePid() != pid && manager.getNumFriendsOnPartition(friendId, pid) == 1) {
                 replicasThatWereJustThereForThisUsersSake.add(friendId);
             }
         }
@@ -145,9 +131,10 @@ public class SBefriender {
         return replicasThatWereJustThereForThisUsersSake;
     }
 
-    static boolean shouldWeAddAReplicaOfMovingUserInMovingPartition(RepUser movingUser, TIntIntMap uidToPidMap) {
+    static boolean shouldWeAddAReplicaOfMovingUserInMovingPartition(RepUser movingUser, RepManager manager) {
+        int pid = movingUser.getBasePid();
         for(TIntIterator iter = movingUser.getFriendIDs().iterator(); iter.hasNext(); ) {
-            if (movingUser.getBasePid().equals(uidToPidMap.get(iter.next()))) {
+            if (manager.getUserMaster(iter.next()).getBasePid() == pid) {
                 return true;
             }
         }
@@ -155,32 +142,32 @@ public class SBefriender {
         return false;
     }
 
-    static boolean shouldWeDeleteReplicaOfMovingUserInStayingPartition(RepUser movingUser, RepUser stayingUser, int minNumReplicas, TIntIntMap uidToPidMap) {
+    static boolean shouldWeDeleteReplicaOfMovingUserInStayingPartition(RepUser movingUser, RepUser stayingUser, int minNumReplicas, RepManager manager) {
         boolean couldWeDeleteReplicaOfMovingUserInStayingPartition = movingUser.getReplicaPids().contains(stayingUser.getBasePid());
         int numReplicas = movingUser.getReplicaPids().size();
-        boolean shouldWeAddAReplicaOfMovingUserInMovingPartition = shouldWeAddAReplicaOfMovingUserInMovingPartition(movingUser, uidToPidMap);
+        boolean shouldWeAddAReplicaOfMovingUserInMovingPartition = shouldWeAddAReplicaOfMovingUserInMovingPartition(movingUser, manager);
         int redundancyOfMovingUser = numReplicas + (shouldWeAddAReplicaOfMovingUserInMovingPartition ? 1 : 0);
         return couldWeDeleteReplicaOfMovingUserInStayingPartition && redundancyOfMovingUser > minNumReplicas;
     }
 
-    static boolean shouldWeDeleteReplicaOfStayingUserInMovingPartition(RepUser movingUser, RepUser stayingUser, int minNumReplicas, TIntIntMap uidToPidMap) {
-        boolean couldWeDeleteReplicaOfStayingUserInMovingPartition = couldWeDeleteReplicaOfStayingUserInMovingPartition(movingUser, stayingUser, uidToPidMap);
+    static boolean shouldWeDeleteReplicaOfStayingUserInMovingPartition(RepUser movingUser, RepUser stayingUser, int minNumReplicas, RepManager manager) {
+        boolean couldWeDeleteReplicaOfStayingUserInMovingPartition = couldWeDeleteReplicaOfStayingUserInMovingPartition(movingUser, stayingUser, manager);
         int redundancyOfStayingUser = stayingUser.getReplicaPids().size();
         return couldWeDeleteReplicaOfStayingUserInMovingPartition && redundancyOfStayingUser > minNumReplicas;
     }
 
-    static boolean couldWeDeleteReplicaOfStayingUserInMovingPartition(RepUser movingUser, RepUser stayingUser, TIntIntMap uidToPidMap) {
-        boolean movingPartitionHasStayingUserReplica = stayingUser.getReplicaPids().contains(movingUser.getBasePid());
-        boolean stayingUserHasNoOtherFriendMastersInMovingPartition = true; //deleting staying user replica is a possibility, if it exists, subject to balance constraints
+    static boolean couldWeDeleteReplicaOfStayingUserInMovingPartition(RepUser movingUser, RepUser stayingUser, RepManager manager) {
+        int movingPid = movingUser.getBasePid();
+        if (!stayingUser.getReplicaPids().contains(movingPid)) {
+            return false;
+        }
         for(TIntIterator iter = stayingUser.getFriendIDs().iterator(); iter.hasNext(); ) {
             int friendId = iter.next();
-            boolean friendIsNotMovingUser = friendId != movingUser.getId();
-            boolean friendsMasterIsOnPartition = uidToPidMap.get(friendId) == movingUser.getBasePid();
-            if (friendIsNotMovingUser && friendsMasterIsOnPartition) {
-                stayingUserHasNoOtherFriendMastersInMovingPartition = false;
+            if (friendId != movingUser.getId() && manager.getUserMaster(friendId).getBasePid() == movingPid) {
+                return false;
             }
         }
 
-        return movingPartitionHasStayingUserReplica && stayingUserHasNoOtherFriendMastersInMovingPartition;
+        return true;
     }
-}
\ No newline at end of file
+}
@@ -1,11 +1,20 @@
 package io.vntr.manager;
 
 import gnu.trove.iterator.TIntIterator;
+import gnu.trove.map.TIntIntMap;
 import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntIntHashMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
 import io.vntr.User;
+import io.vntr.utils.AdjacencySnapshot;
+import io.vntr.utils.AssortativityTracker;
+import io.vntr.utils.IndexedIntSet;
+import io.vntr.utils.ProbabilityUtils;
+import io.vntr.utils.RandomSource;
+
+import java.util.Arrays;
 
 import static io.vntr.utils.TroveUtils.getRandomElement;
 
@@ -15,17 +24,46 @@ import static io.vntr.utils.TroveUtils.getRandomElement;
 public class NoRepManager {
 
     private TIntObjectMap<User> uMap;
+    //only kept for dense uids; otherwise each User's basePid is the index
+    private final UidToPidMap uidToPid;
     private TIntObjectMap<TIntSet> pMap;
 
+    //the same users as pMap, packed so that sampling a partition doesn't copy it
+    private final TIntObjectMap<IndexedIntSet> pidToIndexedUids = new TIntObjectHashMap<>();
+
     private long migrationTally;
     private long logicalMigrationTally;
     private final double logicalMigrationRatio;
 
+    private int edgeCut;
+    private final AssortativityTracker assortativityTracker = new AssortativityTracker();
+
+    //uid -> (pid -> number of the user's friends whose master is in pid)
+    private final TIntObjectMap<TIntIntMap> uidToFriendPidCounts = new TIntObjectHashMap<>();
+
+    //number of distinct friend partitions -> number of users with that many
+    private int[] numUsersByDistinctFriendPids = new int[16];
+
+    //rebuilt lazily after the graph changes
+    private AdjacencySnapshot adjacencySnapshot;
+
     private int nextPid = 1;
     private int nextUid = 1;
 
+    private final RandomSource random;
+
     public NoRepManager(double logicalMigrationRatio) {
+        this(logicalMigrationRatio, false);
+    }
+
+    public NoRepManager(double logicalMigrationRatio, boolean denseUids) {
+        this(logicalMigrationRatio, denseUids, new RandomSource());
+    }
+
+    public NoRepManager(double logicalMigrationRatio, boolean denseUids, RandomSource random) {
         this.logicalMigrationRatio = logicalMigrationRatio;
+        this.random = random;
+        uidToPid = denseUids ? UidToPidMap.create(true) : null;
         uMap = new TIntObjectHashMap<>();
         pMap = new TIntObjectHashMap<>();
     }
@@ -42,6 +80,14 @@ public class NoRepManager {
         return pMap.get(pid);
     }
 
+    /**
+     * @return k distinct users whose master is in pid, chosen uniformly with {@link #getRandom()}, or all of them if
+     * there are no more than k
+     */
+    public TIntSet sampleUsersOnPartition(int pid, int k) {
+        return pidToIndexedUids.get(pid).sample(k, random);
+    }
+
     public int addUser() {
         int newUid = nextUid;
         addUser(new User(newUid));
@@ -53,7 +99,14 @@ public class NoRepManager {
             user.setBasePid(getInitialPid());
         }
         uMap.put(user.getId(), user);
+        if(uidToPid != null) {
+            uidToPid.put(user.getId(), user.getBasePid());
+        }
         pMap.get(user.getBasePid()).add(user.getId());
+        pidToIndexedUids.get(user.getBasePid()).add(user.getId());
+        uidToFriendPidCounts.put(user.getId(), new TIntIntHashMap());
+        numUsersByDistinctFriendPids[0]++;
+        adjacencySnapshot = null;
         if(user.getId() >= nextUid) {
             nextUid = user.getId() + 1;
         }
@@ -64,18 +117,53 @@ public class NoRepManager {
         for(TIntIterator iter = friendIds.iterator(); iter.hasNext(); ) {
             unfriend(uid, iter.next());
         }
-        getPartition(getPidForUser(uid)).remove(uid);
+        int pid = getPidForUser(uid);
+        getPartition(pid).remove(uid);
+        pidToIndexedUids.get(pid).remove(uid);
         uMap.remove(uid);
+        if(uidToPid != null) {
+            uidToPid.remove(uid);
+        }
+        assortativityTracker.removeUser(uid);
+        uidToFriendPidCounts.remove(uid);
+        numUsersByDistinctFriendPids[0]--;
+        adjacencySnapshot = null;
     }
 
     public void befriend(Integer id1, Integer id2) {
-        getUser(id1).befriend(id2);
-        getUser(id2).befriend(id1);
+        User user1 = getUser(id1);
+        User user2 = getUser(id2);
+        if(!user1.getFriendIDs().contains(id2)) {
+            int pid1 = getPid(id1);
+            int pid2 = getPid(id2);
+            if(pid1 != pid2) {
+                edgeCut++;
+            }
+            assortativityTracker.befriend(id1, user1.getFriendIDs(), id2, user2.getFriendIDs());
+            addFriendPid(id1, pid2);
+            addFriendPid(id2, pid1);
+            adjacencySnapshot = null;
+        }
+        user1.befriend(id2);
+        user2.befriend(id1);
     }
 
     public void unfriend(Integer id1, Integer id2) {
-        getUser(id1).unfriend(id2);
-        getUser(id2).unfriend(id1);
+        User user1 = getUser(id1);
+        User user2 = getUser(id2);
+        if(user1.getFriendIDs().contains(id2)) {
+            int pid1 = getPid(id1);
+            int pid2 = getPid(id2);
+            if(pid1 != pid2) {
+                edgeCut--;
+            }
+            assortativityTracker.unfriend(id1, user1.getFriendIDs(), id2, user2.getFriendIDs());
+            removeFriendPid(id1, pid2);
+            removeFriendPid(id2, pid1);
+            adjacencySnapshot = null;
+        }
+        user1.unfriend(id2);
+        user2.unfriend(id1);
     }
 
     Integer getInitialPid() {
@@ -98,6 +186,7 @@ public class NoRepManager {
 
     public void addPartition(Integer pid) {
         pMap.put(pid, new TIntHashSet());
+        pidToIndexedUids.put(pid, new IndexedIntSet());
         if(pid >= nextPid) {
             nextPid = pid + 1;
         }
@@ -105,6 +194,7 @@ public class NoRepManager {
 
     public void removePartition(Integer pid) {
         pMap.remove(pid);
+        pidToIndexedUids.remove(pid);
     }
 
     public Integer getNumUsers() {
@@ -115,11 +205,20 @@ public class NoRepManager {
         return pMap.size();
     }
 
+    public double getAssortativity() {
+        return assortativityTracker.getAssortativityCoefficient();
+    }
+
     public Integer getEdgeCut() {
+        return edgeCut;
+    }
+
+    Integer calculateEdgeCut() {
         int count = 0;
         for(User user : uMap.valueCollection()) {
+            int pid = user.getBasePid();
             for(TIntIterator iter = user.getFriendIDs().iterator(); iter.hasNext(); ) {
-                if(user.getBasePid() < getUser(iter.next()).getBasePid()) {
+                if(pid < getPid(iter.next())) {
                     count++;
                 }
             }
@@ -141,18 +240,86 @@ public class NoRepManager {
         int oldPid = user.getBasePid();
         if(pMap.containsKey(oldPid)) {
             pMap.get(user.getBasePid()).remove(uid);
+            pidToIndexedUids.get(oldPid).remove(uid);
         }
         getPartition(pid).add(uid);
+        pidToIndexedUids.get(pid).add(uid);
         user.setBasePid(pid);
+        if(uidToPid != null) {
+            uidToPid.put(uid, pid);
+        }
+        edgeCut += getEdgeCutDelta(user, oldPid, pid);
+        if(oldPid != pid) {
+            for(TIntIterator iter = user.getFriendIDs().iterator(); iter.hasNext(); ) {
+                int friendId = iter.next();
+                removeFriendPid(friendId, oldPid);
+                addFriendPid(friendId, pid);
+            }
+        }
         if(!omitFromTally) {
             increaseTally(1);
         }
     }
 
+    private int getEdgeCutDelta(User user, int oldPid, int newPid) {
+        int delta = 0;
+        for(TIntIterator iter = user.getFriendIDs().iterator(); iter.hasNext(); ) {
+            int friendPid = getPid(iter.next());
+            if(friendPid == oldPid) {
+                delta++;
+            }
+            if(friendPid == newPid) {
+                delta--;
+            }
+        }
+        return delta;
+    }
+
+    private void addFriendPid(int uid, int pid) {
+        TIntIntMap friendPidCounts = uidToFriendPidCounts.get(uid);
+        if(friendPidCounts.adjustOrPutValue(pid, 1, 1) == 1) {
+            shiftDistinctFriendPids(friendPidCounts.size() - 1, friendPidCounts.size());
+        }
+    }
+
+    private void removeFriendPid(int uid, int pid) {
+        TIntIntMap friendPidCounts = uidToFriendPidCounts.get(uid);
+        if(friendPidCounts.adjustOrPutValue(pid, -1, 0) == 0) {
+            friendPidCounts.remove(pid);
+            shiftDistinctFriendPids(friendPidCounts.size() + 1, friendPidCounts.size());
+        }
+    }
+
+    private void shiftDistinctFriendPids(int from, int to) {
+        if(to >= numUsersByDistinctFriendPids.length) {
+            numUsersByDistinctFriendPids = Arrays.copyOf(numUsersByDistinctFriendPids, to * 2);
+        }
+        numUsersByDistinctFriendPids[from]--;
+        numUsersByDistinctFriendPids[to]++;
+    }
+
+    public double getExpectedQueryDelay() {
+        double sum = 0;
+        for(int numDistinctPids = 1; numDistinctPids < numUsersByDistinctFriendPids.length; numDistinctPids++) {
+            int numUsers = numUsersByDistinctFriendPids[numDistinctPids];
+            if(numUsers > 0) {
+                sum += numUsers * ProbabilityUtils.getExpectedQueryDelay(numDistinctPids);
+            }
+        }
+        return sum / uMap.size();
+    }
+
     public TIntSet getPids() {
         return pMap.keySet();
     }
 
+    /**
+     * @return the stream every random choice made for this manager's users should draw from
+     */
+    public RandomSource getRandom() {
+        return random;
+    }
+
     public TIntObjectMap<TIntSet> getFriendships() {
         TIntObjectMap<TIntSet> friendships = new TIntObjectHashMap<>(getNumPartitions() + 1);
         for(Integer uid : uMap.keys()) {
@@ -161,6 +328,19 @@ public class NoRepManager {
         return friendships;
     }
 
+    public AdjacencySnapshot getAdjacencySnapshot() {
+        if(adjacencySnapshot == null) {
+            int[] uids = uMap.keys();
+            Arrays.sort(uids);
+            TIntSet[] friendSets = new TIntSet[uids.length];
+            for(int i = 0; i < uids.length; i++) {
+                friendSets[i] = uMap.get(uids[i]).getFriendIDs();
+            }
+            adjacencySnapshot = AdjacencySnapshot.fromSortedUids(uids, friendSets);
+        }
+        return adjacencySnapshot;
+    }
+
     public long getMigrationTally() {
         return migrationTally + (long) (logicalMigrationRatio * logicalMigrationTally);
     }
@@ -199,11 +379,44 @@ public class NoRepManager {
             if(!observedMasterPid.equals(uMap.get(uid).getBasePid())) {
                 throw new RuntimeException("Mismatch between user's PID and system's");
             }
+            if(uidToPid != null && observedMasterPid != uidToPid.get(uid)) {
+                throw new RuntimeException("Mismatch between user's PID and the uid->pid index");
+            }
+        }
+
+        for(int pid : pMap.keys()) {
+            IndexedIntSet indexedUids = pidToIndexedUids.get(pid);
+            if(indexedUids.size() != pMap.get(pid).size() || !pMap.get(pid).containsAll(indexedUids.toArray())) {
+                throw new RuntimeException("Mismatch between partition " + pid + " and its sampling index");
+            }
+        }
+
+        if(edgeCut != calculateEdgeCut()) {
+            throw new RuntimeException("Mismatch between tracked edge cut and actual edge cut");
+        }
+        if(!assortativityTracker.agreesWith(getFriendships())) {
+            throw new RuntimeException("Mismatch between tracked assortativity and actual assortativity");
+        }
+
+        double expectedDelay = ProbabilityUtils.calculateExpectedQueryDelay(getFriendships(), getPartitionToUsers());
+        if(Math.abs(getExpectedQueryDelay() - expectedDelay) > 1e-6 * Math.max(1, expectedDelay)) {
+            throw new RuntimeException("Mismatch between tracked query delay and actual query delay");
         }
     }
 
     public Integer getPidForUser(Integer uid) {
-        return uMap.get(uid).getBasePid();
+        return getPid(uid);
+    }
+
+    private int getPid(int uid) {
+        return uidToPid != null ? uidToPid.get(uid) : uMap.get(uid).getBasePid();
+    }
+
+    /**
+     * @return how many of uid's friends have their master in pid
+     */
+    public int getNumFriendsOnPartition(int uid, int pid) {
+        return uidToFriendPidCounts.get(uid).get(pid);
     }
 
 }
@@ -9,6 +9,11 @@ import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
 import io.vntr.RepUser;
 import io.vntr.User;
+import io.vntr.utils.AdjacencySnapshot;
+import io.vntr.utils.AssortativityTracker;
+import io.vntr.utils.RandomSource;
+
+import java.util.Arrays;
 
 import static io.vntr.utils.TroveUtils.*;
 
@@ -22,14 +27,42 @@ public class RepManager {
     private long logicalMigrationTally;
     private final double logicalMigrationRatio;
 
+    private int edgeCut;
+    private int replicationCount;
+    private final AssortativityTracker assortativityTracker = new AssortativityTracker();
+
+    //uid -> (pid -> number of the user's friends whose master is in pid)
+    private final TIntObjectMap<TIntIntMap> uidToFriendPidCounts = new TIntObjectHashMap<>();
+
+    //rebuilt lazily after the graph changes
+    private AdjacencySnapshot adjacencySnapshot;
+
     private TIntObjectMap<Partition> pMap;
-    private TIntIntMap uMap;
+    private UidToPidMap uMap;
+
+    private final RandomSource random;
 
     public RepManager(int minNumReplicas, double logicalMigrationRatio) {
+        this(minNumReplicas, logicalMigrationRatio, false);
+    }
+
+    public RepManager(int minNumReplicas, double logicalMigrationRatio, boolean denseUids) {
+        this(minNumReplicas, logicalMigrationRatio, denseUids, new RandomSource());
+    }
+
+    public RepManager(int minNumReplicas, double logicalMigrationRatio, boolean denseUids, RandomSource random) {
         this.minNumReplicas = minNumReplicas;
         this.logicalMigrationRatio = logicalMigrationRatio;
+        this.random = random;
         pMap = new TIntObjectHashMap<>();
-        uMap = new TIntIntHashMap();
+        uMap = UidToPidMap.create(denseUids);
+    }
+
+    /**
+     * @return the stream every random choice made for this manager's users should draw from
+     */
+    public RandomSource getRandom() {
+        return random;
     }
 
     public int getMinNumReplicas() {
@@ -82,6 +115,8 @@ public class RepManager {
         int uid = user.getId();
         getPartitionById(masterPid).addMaster(user);
         uMap.put(uid, masterPid);
+        uidToFriendPidCounts.put(uid, new TIntIntHashMap());
+        adjacencySnapshot = null;
         if(uid >= nextUid) {
             nextUid = uid + 1;
         }
@@ -93,24 +128,28 @@ public class RepManager {
         //Remove user from relevant partitions
         getPartitionById(user.getBasePid()).removeMaster(uid);
         for(TIntIterator iter = user.getReplicaPids().iterator(); iter.hasNext(); ) {
-            getPartitionById(iter.next()).removeReplica(uid);
+            removeReplicaFromPartition(getPartitionById(iter.next()), uid);
         }
 
         //Remove user from uMap
         uMap.remove(uid);
+        adjacencySnapshot = null;
 
         //Remove friendships
+        TIntSet remainingFriendIds = new TIntHashSet(user.getFriendIDs());
         for(TIntIterator iter = user.getFriendIDs().iterator(); iter.hasNext(); ) {
             int friendId = iter.next();
             RepUser friendMaster = getUserMaster(friendId);
             friendMaster.unfriend(uid);
-
-            for(TIntIterator iter2 = friendMaster.getReplicaPids().iterator(); iter2.hasNext(); ) {
-                int friendReplicaPid = iter2.next();
-                Partition friendReplicaPartition = getPartitionById(friendReplicaPid);
-                friendReplicaPartition.getReplicaById(friendId).unfriend(uid);
+            if(!friendMaster.getBasePid().equals(user.getBasePid())) {
+                edgeCut--;
             }
+            adjustFriendPidCount(friendId, user.getBasePid(), -1);
+            remainingFriendIds.remove(friendId);
+            assortativityTracker.unfriend(uid, remainingFriendIds, friendId, friendMaster.getFriendIDs());
         }
+        assortativityTracker.removeUser(uid);
+        uidToFriendPidCounts.remove(uid);
     }
 
     public Integer addPartition() {
@@ -127,39 +166,33 @@ public class RepManager {
     }
 
     public void removePartition(Integer id) {
-        pMap.remove(id);
+        Partition partition = pMap.remove(id);
+        if(partition != null) {
+            replicationCount -= partition.getNumReplicas();
+        }
     }
 
     public void addReplica(RepUser user, Integer destPid) {
-        RepUser replicaOfUser = addReplicaNoUpdates(user, destPid);
+        addReplicaNoUpdates(user, destPid);
 
         //Update the replicaPids to reflect this addition
-        replicaOfUser.addReplicaPids(destPid);
-        for(TIntIterator iter = user.getReplicaPids().iterator(); iter.hasNext(); ) {
-            pMap.get(iter.next()).getReplicaById(user.getId()).addReplicaPids(destPid);
-        }
         user.addReplicaPids(destPid);
     }
 
+    //Replicas are references to the master rather than copies, so they always see its friends, pid and replicaPids
     public RepUser addReplicaNoUpdates(RepUser user, Integer destPid) {
-        RepUser replica = user.dupe();
-        pMap.get(destPid).addReplica(replica);
-        return replica;
+        if(pMap.get(destPid).addReplica(user) == null) {
+            replicationCount++;
+        }
+        return user;
     }
 
     public void removeReplica(RepUser user, Integer removalPid) {
-        //Delete it from each replica's replicaPids
-        for(TIntIterator iter = user.getReplicaPids().iterator(); iter.hasNext(); ) {
-            Partition p = pMap.get(iter.next());
-            RepUser r = p.getReplicaById(user.getId());
-            r.removeReplicaPid(removalPid);
-        }
-
         //Delete it from the master's replicaPids
         user.removeReplicaPid(removalPid);
 
         //Actually remove the replica from the partition itself
-        pMap.get(removalPid).removeReplica(user.getId());
+        removeReplicaFromPartition(pMap.get(removalPid), user.getId());
     }
 
     public void moveUser(RepUser user, Integer toPid, TIntSet replicateInDestinationPartition, TIntSet replicasToDeleteInSourcePartition) {
@@ -212,51 +245,48 @@ public class RepManager {
         uMap.put(uid, toPid);
 
         user.setBasePid(toPid);
-
-        for(TIntIterator iter = user.getReplicaPids().iterator(); iter.hasNext(); ) {
-            pMap.get(iter.next()).getReplicaById(uid).setBasePid(toPid);
-        }
+        updateFriendsOfMovedMaster(user, fromPid, toPid);
     }
 
     public void befriend(RepUser smallerUser, RepUser largerUser) {
+        if(!smallerUser.getFriendIDs().contains(largerUser.getId())) {
+            if(!smallerUser.getBasePid().equals(largerUser.getBasePid())) {
+                edgeCut++;
+            }
+            assortativityTracker.befriend(smallerUser.getId(), smallerUser.getFriendIDs(), largerUser.getId(), largerUser.getFriendIDs());
+            adjustFriendPidCount(smallerUser.getId(), largerUser.getBasePid(), 1);
+            adjustFriendPidCount(largerUser.getId(), smallerUser.getBasePid(), 1);
+            adjacencySnapshot = null;
+        }
         smallerUser.befriend(largerUser.getId());
         largerUser.befriend(smallerUser.getId());
-
-        for(TIntIterator iter = smallerUser.getReplicaPids().iterator(); iter.hasNext(); ) {
-            pMap.get(iter.next()).getReplicaById(smallerUser.getId()).befriend(largerUser.getId());
-        }
-        for(TIntIterator iter = largerUser.getReplicaPids().iterator(); iter.hasNext(); ) {
-            pMap.get(iter.next()).getReplicaById(largerUser.getId()).befriend(smallerUser.getId());
-        }
     }
 
     public void unfriend(RepUser smallerUser, RepUser largerUser) {
+        if(smallerUser.getFriendIDs().contains(largerUser.getId())) {
+            if(!smallerUser.getBasePid().equals(largerUser.getBasePid())) {
+                edgeCut--;
+            }
+            assortativityTracker.unfriend(smallerUser.getId(), smallerUser.getFriendIDs(), largerUser.getId(), largerUser.getFriendIDs());
+            adjustFriendPidCount(smallerUser.getId(), largerUser.getBasePid(), -1);
+            adjustFriendPidCount(largerUser.getId(), smallerUser.getBasePid(), -1);
+            adjacencySnapshot = null;
+        }
         smallerUser.unfriend(largerUser.getId());
         largerUser.unfriend(smallerUser.getId());
-
-        for(TIntIterator iter = smallerUser.getReplicaPids().iterator(); iter.hasNext(); ) {
-            pMap.get(iter.next()).getReplicaById(smallerUser.getId()).unfriend(largerUser.getId());
-        }
-        for(TIntIterator iter = largerUser.getReplicaPids().iterator(); iter.hasNext(); ) {
-            pMap.get(iter.next()).getReplicaById(largerUser.getId()).unfriend(smallerUser.getId());
-        }
     }
 
     public void promoteReplicaToMaster(Integer uid, Integer pid) {
         Partition partition = pMap.get(pid);
         RepUser user = partition.getReplicaById(uid);
+        int oldPid = uMap.get(uid);
         user.setBasePid(pid);
         user.removeReplicaPid(pid);
         partition.addMaster(user);
-        partition.removeReplica(uid);
+        removeReplicaFromPartition(partition, uid);
 
         uMap.put(uid, pid);
-
-        for(TIntIterator iter = user.getReplicaPids().iterator(); iter.hasNext(); ) {
-            RepUser replica = pMap.get(iter.next()).getReplicaById(uid);
-            replica.setBasePid(pid);
-            replica.removeReplicaPid(pid);
-        }
+        updateFriendsOfMovedMaster(user, oldPid, pid);
 
         //Add replicas of friends in pid if they don't already exists
         for(TIntIterator iter = user.getFriendIDs().iterator(); iter.hasNext(); ) {
@@ -287,12 +317,12 @@ public class RepManager {
         potentialReplicaLocations.remove(user.getBasePid());
         potentialReplicaLocations.removeAll(user.getReplicaPids());
         int[] array = potentialReplicaLocations.toArray();
-        return array[(int)(array.length * Math.random())];
+        return array[random.nextInt(array.length)];
     }
 
     public TIntSet getPartitionsToAddInitialReplicas(Integer masterPid) {
         int[] pidsMinusMasterPid = removeUniqueElementFromNonEmptyArray(pMap.keySet().toArray(), masterPid);
-        return getKDistinctValuesFromArray(getMinNumReplicas(), pidsMinusMasterPid);
+        return getKDistinctValuesFromArray(getMinNumReplicas(), pidsMinusMasterPid, random);
     }
 
     public TIntObjectMap<TIntSet> getPartitionToUserMap() {
@@ -311,7 +341,54 @@ public class RepManager {
         return map;
     }
 
+    private void removeReplicaFromPartition(Partition partition, int uid) {
+        if(partition.removeReplica(uid) != null) {
+            replicationCount--;
+        }
+    }
+
+    private void updateFriendsOfMovedMaster(User user, int oldPid, int newPid) {
+        for(TIntIterator iter = user.getFriendIDs().iterator(); iter.hasNext(); ) {
+            int friendId = iter.next();
+            int friendPid = uMap.get(friendId);
+            if(friendPid == oldPid) {
+                edgeCut++;
+            }
+            if(friendPid == newPid) {
+                edgeCut--;
+            }
+            adjustFriendPidCount(friendId, oldPid, -1);
+            adjustFriendPidCount(friendId, newPid, 1);
+        }
+    }
+
+    private void adjustFriendPidCount(int uid, int pid, int delta) {
+        TIntIntMap friendPidCounts = uidToFriendPidCounts.get(uid);
+        if(friendPidCounts.adjustOrPutValue(pid, delta, delta) == 0) {
+            friendPidCounts.remove(pid);
+        }
+    }
+
+    /**
+     * @return how many of uid's friends have their master in pid
+     */
+    public int getNumFriendsOnPartition(int uid, int pid) {
+        return uidToFriendPidCounts.get(uid).get(pid);
+    }
+
+    public double getAssortativity() {
+        return assortativityTracker.getAssortativityCoefficient();
+    }
+
     public Integer getEdgeCut() {
+        return edgeCut;
+    }
+
+    public Integer getReplicationCount() {
+        return replicationCount;
+    }
+
+    Integer calculateEdgeCut() {
         int count = 0;
         for (Integer uid : uMap.keys()) {
             RepUser user = getUserMaster(uid);
@@ -325,7 +402,7 @@ public class RepManager {
         return count;
     }
 
-    public Integer getReplicationCount() {
+    Integer calculateReplicationCount() {
         int count = 0;
         for(TIntIterator iter = getPids().iterator(); iter.hasNext(); ) {
             count += getPartitionById(iter.next()).getNumReplicas();
@@ -341,6 +418,19 @@ public class RepManager {
         return friendships;
     }
 
+    public AdjacencySnapshot getAdjacencySnapshot() {
+        if(adjacencySnapshot == null) {
+            int[] uids = uMap.keys();
+            Arrays.sort(uids);
+            TIntSet[] friendSets = new TIntSet[uids.length];
+            for(int i = 0; i < uids.length; i++) {
+                friendSets[i] = getUserMaster(uids[i]).getFriendIDs();
+            }
+            adjacencySnapshot = AdjacencySnapshot.fromSortedUids(uids, friendSets);
+        }
+        return adjacencySnapshot;
+    }
+
     public long getMigrationTally() {
         return migrationTally + (long) (logicalMigrationRatio * logicalMigrationTally);
     }
@@ -406,6 +496,26 @@ public class RepManager {
         if(!checkLocalSemantics()) {
             throw new RuntimeException("local semantics issue!");
         }
+
+        //check tracked counters
+        if(edgeCut != calculateEdgeCut()) {
+            throw new RuntimeException("Mismatch between tracked edge cut and actual edge cut");
+        }
+        if(replicationCount != calculateReplicationCount()) {
+            throw new RuntimeException("Mismatch between tracked replication count and actual replication count");
+        }
+        if(!assortativityTracker.agreesWith(getFriendships())) {
+            throw new RuntimeException("Mismatch between tracked assortativity and actual assortativity");
+        }
+        for(Integer uid : uMap.keys()) {
+            TIntIntMap expectedCounts = new TIntIntHashMap();
+            for(TIntIterator iter = getUserMaster(uid).getFriendIDs().iterator(); iter.hasNext(); ) {
+                expectedCounts.adjustOrPutValue(uMap.get(iter.next()), 1, 1);
+            }
+            if(!expectedCounts.equals(uidToFriendPidCounts.get(uid))) {
+                throw new RuntimeException("Mismatch between tracked friend locations of " + uid + " and actual ones");
+            }
+        }
     }
 
     private boolean checkLocalSemantics() {
@@ -469,8 +579,8 @@ public class RepManager {
             return idToMasterMap.remove(id);
         }
 
-        void addReplica(RepUser user) {
-            idToReplicaMap.put(user.getId(), user);
+        RepUser addReplica(RepUser user) {
+            return idToReplicaMap.put(user.getId(), user);
         }
 
         User removeReplica(Integer id) {
@@ -0,0 +1,131 @@
+package io.vntr.manager;
+
+import gnu.trove.TCollections;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+
+import java.util.Arrays;
+
+/**
+ * Where each user's master lives.  Traces use contiguous uids (0..N-1), so the managers can swap the hash map
+ * for a flat, growable int[] indexed by uid; both report {@link #NO_PID} for unknown users.
+ */
+abstract class UidToPidMap {
+    static final int NO_PID = -1;
+
+    static UidToPidMap create(boolean dense) {
+        return dense ? new Dense() : new Hashed();
+    }
+
+    abstract int get(int uid);
+
+    abstract void put(int uid, int pid);
+
+    abstract void remove(int uid);
+
+    abstract boolean containsKey(int uid);
+
+    abstract int size();
+
+    abstract int[] keys();
+
+    abstract TIntSet keySet();
+
+    static class Hashed extends UidToPidMap {
+        private final TIntIntHashMap map = new TIntIntHashMap(16, 0.5f, NO_PID, NO_PID);
+
+        int get(int uid) {
+            return map.get(uid);
+        }
+
+        void put(int uid, int pid) {
+            map.put(uid, pid);
+        }
+
+        void remove(int uid) {
+            map.remove(uid);
+        }
+
+        boolean containsKey(int uid) {
+            return map.containsKey(uid);
+        }
+
+        int size() {
+            return map.size();
+        }
+
+        int[] keys() {
+            return map.keys();
+        }
+
+        TIntSet keySet() {
+            return map.keySet();
+        }
+    }
+
+    static class Dense extends UidToPidMap {
+        private int[] pids = new int[0];
+        private int size;
+
+        //built on the first keySet() call, then kept in step with pids
+        private TIntSet uids;
+        private TIntSet uidsView;
+
+        int get(int uid) {
+            return uid >= 0 && uid < pids.length ? pids[uid] : NO_PID;
+        }
+
+        void put(int uid, int pid) {
+            if(uid >= pids.length) {
+                int oldLength = pids.length;
+                pids = Arrays.copyOf(pids, Math.max(uid + 1, oldLength * 2));
+                Arrays.fill(pids, oldLength, pids.length, NO_PID);
+            }
+            if(pids[uid] == NO_PID) {
+                size++;
+                if(uids != null) {
+                    uids.add(uid);
+                }
+            }
+            pids[uid] = pid;
+        }
+
+        void remove(int uid) {
+            if(get(uid) != NO_PID) {
+                pids[uid] = NO_PID;
+                size--;
+                if(uids != null) {
+                    uids.remove(uid);
+                }
+            }
+        }
+
+        boolean containsKey(int uid) {
+            return get(uid) != NO_PID;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] keys() {
+            int[] keys = new int[size];
+            int i = 0;
+            for(int uid = 0; uid < pids.length; uid++) {
+                if(pids[uid] != NO_PID) {
+                    keys[i++] = uid;
+                }
+            }
+            return keys;
+        }
+
+        TIntSet keySet() {
+            if(uids == null) {
+                uids = new TIntHashSet(keys());
+                uidsView = TCollections.unmodifiableSet(uids);
+            }
+            return uidsView;
+        }
+    }
+}
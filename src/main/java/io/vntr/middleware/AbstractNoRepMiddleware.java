@@ -8,7 +8,6 @@ import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
 import io.vntr.User;
 import io.vntr.manager.NoRepManager;
-import io.vntr.utils.ProbabilityUtils;
 
 import static io.vntr.migration.NoRepWaterFillingMigrator.migrateOffPartition;
 
@@ -63,7 +62,7 @@ public abstract class AbstractNoRepMiddleware implements IMiddlewareAnalyzer {
 
     @Override
     public void removePartition(Integer pid) {
-        TIntIntMap strategy = migrateOffPartition(pid, getPartitionToUserMap());
+        TIntIntMap strategy = migrateOffPartition(pid, getPartitionToUserMap(), manager.getRandom());
         getManager().removePartition(pid);
         for(int uid : strategy.keys()) {
             int newPid = strategy.get(uid);
@@ -123,7 +122,7 @@ public abstract class AbstractNoRepMiddleware implements IMiddlewareAnalyzer {
 
     @Override
     public double calculateAssortivity() {
-        return ProbabilityUtils.calculateAssortivityCoefficient(getFriendships());
+        return manager.getAssortativity();
     }
 
     @Override
@@ -142,7 +141,7 @@ public abstract class AbstractNoRepMiddleware implements IMiddlewareAnalyzer {
 
     @Override
     public double calculateExpectedQueryDelay() {
-        return ProbabilityUtils.calculateExpectedQueryDelay(getFriendships(), getPartitionToUserMap());
+        return manager.getExpectedQueryDelay();
     }
 
     @Override
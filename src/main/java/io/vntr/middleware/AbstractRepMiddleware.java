@@ -9,11 +9,8 @@ import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
 import io.vntr.RepUser;
 import io.vntr.User;
-import io.vntr.befriend.SBefriender;
 import io.vntr.manager.RepManager;
-import io.vntr.utils.ProbabilityUtils;
 
-import static io.vntr.utils.TroveUtils.getUToMasterMap;
 import static io.vntr.utils.TroveUtils.singleton;
 
 /**
@@ -51,11 +48,10 @@ public abstract class AbstractRepMiddleware implements IMiddlewareAnalyzer {
         RepUser smallerUser = getManager().getUserMaster(smallerUid);
         RepUser largerUser = getManager().getUserMaster(largerUid);
 
-        if (!smallerUser.getBasePid().equals(largerUser.getBasePid())) {
-            TIntIntMap uidToPidMap = getUToMasterMap(getPartitionToUserMap());
-            TIntObjectMap<TIntSet> friendships = getFriendships();
-            boolean smallerReplicaWasOnlyThereForLarger = SBefriender.findReplicasInPartitionThatWereOnlyThereForThisUsersSake(largerUser, uidToPidMap, friendships).contains(smallerUid);
-            boolean largerReplicaWasOnlyThereForSmaller = SBefriender.findReplicasInPartitionThatWereOnlyThereForThisUsersSake(smallerUser, uidToPidMap, friendships).contains(largerUid);
+        if (!smallerUser.getBasePid().equals(largerUser.getBasePid()) && smallerUser.getFriendIDs().contains(largerUid)) {
+            //A replica is only there for its friend's sake if that friend is its only friend with a master there
+            boolean smallerReplicaWasOnlyThereForLarger = getManager().getNumFriendsOnPartition(smallerUid, largerUser.getBasePid()) == 1;
+            boolean largerReplicaWasOnlyThereForSmaller = getManager().getNumFriendsOnPartition(largerUid, smallerUser.getBasePid()) == 1;
 
             if (smallerReplicaWasOnlyThereForLarger && smallerUser.getReplicaPids().size() > getManager().getMinNumReplicas()) {
                 getManager().removeReplica(smallerUser, largerUser.getBasePid());
@@ -90,7 +86,7 @@ public abstract class AbstractRepMiddleware implements IMiddlewareAnalyzer {
         potentialReplicaLocations.remove(user.getBasePid());
         potentialReplicaLocations.removeAll(user.getReplicaPids());
         int[] array = potentialReplicaLocations.toArray();
-        return array[(int) (array.length * Math.random())];
+        return array[manager.getRandom().nextInt(array.length)];
     }
 
     @Override
@@ -144,7 +140,7 @@ public abstract class AbstractRepMiddleware implements IMiddlewareAnalyzer {
 
     @Override
     public double calculateAssortivity() {
-        return ProbabilityUtils.calculateAssortivityCoefficient(getFriendships());
+        return manager.getAssortativity();
     }
 
     @Override
@@ -235,14 +231,8 @@ public abstract class AbstractRepMiddleware implements IMiddlewareAnalyzer {
 
         //Fifth, remove references to replicas formerly on this partition
         for(TIntIterator iter = getManager().getReplicasOnPartition(pid).iterator(); iter.hasNext(); ) {
-            int uid = iter.next();
-            RepUser user = getManager().getUserMaster(uid);
-            for(TIntIterator iter2 = user.getReplicaPids().iterator(); iter2.hasNext(); ) {
-                getManager().getReplicaOnPartition(user.getId(), iter2.next()).removeReplicaPid(pid);
-            }
-
-            //Delete it from the master's replicaPids
-            user.removeReplicaPid(pid);
+            //Replicas share the master's record, so the master's replicaPids is the only place to update
+            getManager().getUserMaster(iter.next()).removeReplicaPid(pid);
         }
 
         //Finally, actually drop partition
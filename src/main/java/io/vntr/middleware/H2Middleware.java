@@ -19,7 +19,7 @@ public class H2Middleware extends HermarMiddleware {
     @Override
     public void removePartition(Integer pid) {
         NoRepManager manager = getManager();
-        TIntIntMap targets = HMigrator.migrateOffPartition(pid, gamma, manager.getPartitionToUsers(), manager.getFriendships());
+        TIntIntMap targets = HMigrator.migrateOffPartition(pid, gamma, manager.getPartitionToUsers(), manager.getFriendships(), manager.getRandom());
         for(Integer uid : targets.keys()) {
             manager.moveUser(uid, targets.get(uid), true);
         }
@@ -31,7 +31,7 @@ public class HejarMiddleware extends H2Middleware {
     }
 
     void jRepartition() {
-        NoRepResults noRepResults = JRepartitioner.repartition(alpha, initialT, deltaT, jaK, numRestarts, getManager().getPartitionToUsers(), getManager().getFriendships(), incremental);
+        NoRepResults noRepResults = JRepartitioner.repartition(alpha, initialT, deltaT, jaK, numRestarts, getManager().getPartitionToUsers(), getManager().getAdjacencySnapshot(), incremental, 1, getManager().getRandom());
         getManager().increaseTallyLogical(noRepResults.getLogicalMoves());
         if(noRepResults.getUidsToPids() != null) {
             physicallyMigrate(noRepResults.getUidsToPids());
@@ -20,6 +20,12 @@ public class HermarMiddleware extends HermesMiddleware {
         this.manager = manager;
     }
 
+    public HermarMiddleware(float gamma, int k, int maxIterations, int numThreads, NoRepManager manager) {
+        super(gamma, k, maxIterations, numThreads, manager);
+        this.gamma = gamma;
+        this.manager = manager;
+    }
+
     @Override
     public void befriend(Integer smallerUid, Integer largerUid) {
         super.befriend(smallerUid, largerUid);
@@ -30,7 +36,7 @@ public class HermarMiddleware extends HermesMiddleware {
         User smallerUser = manager.getUser(smallerUserId);
         User largerUser  = manager.getUser(largerUserId);
 
-        BEFRIEND_REBALANCE_STRATEGY strategy = HBefriender.determineBestBefriendingRebalanceStrategy(smallerUser.getId(), largerUser.getId(), gamma, manager.getFriendships(), manager.getPartitionToUsers());
+        BEFRIEND_REBALANCE_STRATEGY strategy = HBefriender.determineBestBefriendingRebalanceStrategy(smallerUser.getId(), largerUser.getId(), gamma, manager);
 
         if(strategy == SMALL_TO_LARGE) {
             manager.moveUser(smallerUserId, largerUser.getBasePid(), false);
@@ -14,6 +14,7 @@ public class HermesMiddleware extends AbstractNoRepMiddleware {
     private final float gamma;
     private final int k;
     private final int maxIterations;
+    private int numThreads = 1;
     private NoRepManager manager;
 
     public HermesMiddleware(float gamma, int k, int maxIterations, NoRepManager manager) {
@@ -24,6 +25,11 @@ public class HermesMiddleware extends AbstractNoRepMiddleware {
         this.manager = manager;
     }
 
+    public HermesMiddleware(float gamma, int k, int maxIterations, int numThreads, NoRepManager manager) {
+        this(gamma, k, maxIterations, manager);
+        this.numThreads = numThreads;
+    }
+
     @Override
     public void addUser(User user) {
         super.addUser(user);
@@ -36,7 +42,7 @@ public class HermesMiddleware extends AbstractNoRepMiddleware {
     }
 
     public void repartition() {
-        NoRepResults noRepResults = HRepartitioner.repartition(k, maxIterations, gamma, manager.getPartitionToUsers(), getManager().getFriendships());
+        NoRepResults noRepResults = HRepartitioner.repartition(k, maxIterations, gamma, manager.getPartitionToUsers(), getManager().getAdjacencySnapshot(), numThreads);
         int numMoves = noRepResults.getLogicalMoves();
         if(numMoves > 0) {
             manager.increaseTallyLogical(numMoves);
@@ -16,7 +16,7 @@ public class J2Middleware extends JabarMiddleware {
 
     @Override
     public void removePartition(Integer pid) {
-        TIntIntMap targets = HMigrator.migrateOffPartition(pid, 1f, getManager().getPartitionToUsers(), getManager().getFriendships());
+        TIntIntMap targets = HMigrator.migrateOffPartition(pid, 1f, getManager().getPartitionToUsers(), getManager().getFriendships(), getManager().getRandom());
         for(Integer uid : targets.keys()) {
             getManager().moveUser(uid, targets.get(uid), true);
         }
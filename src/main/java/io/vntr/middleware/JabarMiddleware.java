@@ -2,17 +2,18 @@ package io.vntr.middleware;
 
 import io.vntr.befriend.JBefriender;
 import io.vntr.manager.NoRepManager;
+import io.vntr.utils.PowerTable;
 
 /**
  * Created by robertlindquist on 4/12/17.
  */
 public class JabarMiddleware extends JabejaMiddleware {
-    private final float alpha;
+    private final PowerTable powers;
     private final int k;
 
     public JabarMiddleware(float alpha, float initialT, float deltaT, int k, NoRepManager manager) {
         super(alpha, initialT, deltaT, k, 1, true, manager);
-        this.alpha = alpha;
+        this.powers = new PowerTable(alpha);
         this.k = k;
     }
 
@@ -23,7 +24,7 @@ public class JabarMiddleware extends JabejaMiddleware {
     }
 
     void rebalance(Integer smallerUserId, Integer largerUserId) {
-        JBefriender.Result result = JBefriender.rebalance(smallerUserId, largerUserId, k, alpha, getManager().getFriendships(), getManager().getPartitionToUsers());
+        JBefriender.Result result = JBefriender.rebalance(smallerUserId, largerUserId, k, powers, getManager());
         Integer uid1 = result.getUid1();
         Integer uid2 = result.getUid2();
         if(uid1 != null && uid2 != null) {
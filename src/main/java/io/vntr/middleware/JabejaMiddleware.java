@@ -8,8 +8,6 @@ import io.vntr.manager.NoRepManager;
 import io.vntr.repartition.JRepartitioner;
 import io.vntr.repartition.NoRepResults;
 
-import static io.vntr.utils.TroveUtils.getRandomElement;
-
 /**
  * Created by robertlindquist on 4/12/17.
  */
@@ -20,6 +18,7 @@ public class JabejaMiddleware extends AbstractNoRepMiddleware {
     private final int k;
     private final int numRestarts;
     private boolean incremental = false;
+    private int numThreads = 1;
 
     public JabejaMiddleware(float alpha, float initialT, float deltaT, int k, int numRestarts, NoRepManager manager) {
         super(manager);
@@ -40,13 +39,18 @@ public class JabejaMiddleware extends AbstractNoRepMiddleware {
         this.incremental = incremental;
     }
 
+    public JabejaMiddleware(float alpha, float initialT, float deltaT, int k, int numRestarts, boolean incremental, int numThreads, NoRepManager manager) {
+        this(alpha, initialT, deltaT, k, numRestarts, incremental, manager);
+        this.numThreads = numThreads;
+    }
+
     @Override
     public void broadcastDowntime() {
         repartition();
     }
 
     void repartition() {
-        NoRepResults noRepResults = JRepartitioner.repartition(alpha, initialT, deltaT, k, numRestarts, getManager().getPartitionToUsers(), getManager().getFriendships(), incremental);
+        NoRepResults noRepResults = JRepartitioner.repartition(alpha, initialT, deltaT, k, numRestarts, getManager().getPartitionToUsers(), getManager().getAdjacencySnapshot(), incremental, numThreads, getManager().getRandom());
         getManager().increaseTallyLogical(noRepResults.getLogicalMoves());
         if(noRepResults.getUidsToPids() != null) {
             physicallyMigrate(noRepResults.getUidsToPids());
@@ -2,18 +2,19 @@ package io.vntr.middleware;
 
 import io.vntr.befriend.JBefriender;
 import io.vntr.manager.NoRepManager;
+import io.vntr.utils.PowerTable;
 
 /**
  * Created by robertlindquist on 6/27/17.
  */
 public class JarmesMiddleware extends HejarMiddleware {
     private int jaK;
-    private float alpha;
+    private final PowerTable powers;
 
     public JarmesMiddleware(float gamma, int k, int maxIterations, int jaK, float alpha, float initialT, float deltaT, NoRepManager manager) {
         super(gamma, k, maxIterations, jaK, alpha, initialT, deltaT, manager);
         this.jaK = jaK;
-        this.alpha = alpha;
+        this.powers = new PowerTable(alpha);
     }
 
     @Override
@@ -23,7 +24,7 @@ public class JarmesMiddleware extends HejarMiddleware {
     }
 
     void rebalance(Integer smallerUserId, Integer largerUserId) {
-        JBefriender.Result result = JBefriender.rebalance(smallerUserId, largerUserId, jaK, alpha, getManager().getFriendships(), getManager().getPartitionToUsers());
+        JBefriender.Result result = JBefriender.rebalance(smallerUserId, largerUserId, jaK, powers, getManager());
         Integer uid1 = result.getUid1();
         Integer uid2 = result.getUid2();
         if(uid1 != null && uid2 != null) {
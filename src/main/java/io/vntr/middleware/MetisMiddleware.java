@@ -1,6 +1,12 @@
 package io.vntr.middleware;
 
+import gnu.trove.iterator.TIntIterator;
 import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+import io.vntr.User;
 import io.vntr.manager.NoRepManager;
 import io.vntr.repartition.MetisRepartitioner;
 
@@ -12,30 +18,96 @@ public class MetisMiddleware extends AbstractNoRepMiddleware {
     private final String gpmetisLocation;
     private final String gpmetisTempdir;
 
+    //When set, refines the current placement around changedUids instead of partitioning from scratch
+    private final boolean incremental;
+    private final TIntSet changedUids = new TIntHashSet();
+    private final MetisRepartitioner.Refiner refiner = new MetisRepartitioner.Refiner();
+
     private NoRepManager manager;
 
     public MetisMiddleware(String gpmetisLocation, String gpmetisTempdir, NoRepManager manager) {
+        this(gpmetisLocation, gpmetisTempdir, manager, false);
+    }
+
+    public MetisMiddleware(String gpmetisLocation, String gpmetisTempdir, NoRepManager manager, boolean incremental) {
         super(manager);
         this.gpmetisLocation = gpmetisLocation;
         this.gpmetisTempdir = gpmetisTempdir;
         this.manager = manager;
+        this.incremental = incremental;
+    }
+
+    @Override
+    public int addUser() {
+        refiner.invalidate();
+        return super.addUser();
+    }
+
+    @Override
+    public void addUser(User user) {
+        refiner.invalidate();
+        super.addUser(user);
+    }
+
+    @Override
+    public void removeUser(Integer uid) {
+        refiner.invalidate();
+        changedUids.remove(uid);
+        super.removeUser(uid);
+    }
+
+    @Override
+    public int addPartition() {
+        refiner.invalidate();
+        return super.addPartition();
+    }
+
+    @Override
+    public void addPartition(Integer pid) {
+        refiner.invalidate();
+        super.addPartition(pid);
+    }
+
+    @Override
+    public void removePartition(Integer pid) {
+        refiner.invalidate();
+        super.removePartition(pid);
     }
 
     @Override
     public void befriend(Integer smallerUid, Integer largerUid) {
         super.befriend(smallerUid, largerUid);
-        if(Math.random() > .9) {
+        if(incremental) {
+            changedUids.add(smallerUid);
+            changedUids.add(largerUid);
+        }
+        if(manager.getRandom().nextDouble() > .9) {
             repartition();
         }
     }
 
+    @Override
+    public void unfriend(Integer smallerUid, Integer largerUid) {
+        super.unfriend(smallerUid, largerUid);
+        if(incremental) {
+            changedUids.add(smallerUid);
+            changedUids.add(largerUid);
+        }
+    }
+
     @Override
     public void broadcastDowntime() {
+        if(incremental) {
+            changedUids.addAll(getManager().getUids());
+        }
         repartition();
     }
 
     void repartition() {
-        TIntIntMap newPartitioning = MetisRepartitioner.partition(gpmetisLocation, gpmetisTempdir, getManager().getFriendships(), getManager().getPartitionToUsers().keySet());
+        TIntIntMap newPartitioning = incremental
+                ? refiner.refine(getManager().getAdjacencySnapshot(), getPartitionViews(), changedUids, manager.getRandom())
+                : MetisRepartitioner.partition(gpmetisLocation, gpmetisTempdir, getManager().getAdjacencySnapshot(), getManager().getPartitionToUsers().keySet(), manager.getRandom());
+        changedUids.clear();
         for(int uid : newPartitioning.keys()) {
             int newPid = newPartitioning.get(uid);
             if(newPid != manager.getUser(uid).getBasePid()) {
@@ -44,4 +116,14 @@ public class MetisMiddleware extends AbstractNoRepMiddleware {
         }
     }
 
+    //the manager's own sets rather than copies; the refiner only reads them
+    private TIntObjectMap<TIntSet> getPartitionViews() {
+        TIntObjectMap<TIntSet> partitions = new TIntObjectHashMap<>(manager.getNumPartitions()+1);
+        for(TIntIterator iter = manager.getPids().iterator(); iter.hasNext(); ) {
+            int pid = iter.next();
+            partitions.put(pid, manager.getPartition(pid));
+        }
+        return partitions;
+    }
+
 }
@@ -31,7 +31,7 @@ public class ReplicaMetisMiddleware extends SparMiddleware {
     @Override
     public void befriend(Integer smallerUid, Integer largerUid) {
         super.befriend(smallerUid, largerUid);
-        if(Math.random() > .9) {
+        if(getManager().getRandom().nextDouble() > .9) {
             repartition();
         }
     }
@@ -43,7 +43,7 @@ public class ReplicaMetisMiddleware extends SparMiddleware {
 
     void repartition() {
         clearReplicas();
-        RepResults repResults = ReplicaMetisRepartitioner.repartition(gpmetisLocation, gpmetisTempdir, getManager().getFriendships(), new TIntHashSet(getManager().getPids()), minNumReplicas);
+        RepResults repResults = ReplicaMetisRepartitioner.repartition(gpmetisLocation, gpmetisTempdir, getManager().getFriendships(), new TIntHashSet(getManager().getPids()), minNumReplicas, getManager().getRandom());
         getManager().increaseTallyLogical(repResults.getNumLogicalMoves());
         physicallyMigrate(repResults.getUidToPidMap(), repResults.getUidsToReplicaPids());
     }
@@ -32,7 +32,7 @@ public class SpajaMiddleware extends SparMiddleware {
     }
 
     void repartition() {
-        RepResults repResults = SpajaRepartitioner.repartition(minNumReplicas, alpha, initialT, deltaT, k, getManager().getFriendships(), getManager().getPartitionToUserMap(), getManager().getPartitionToReplicasMap());
+        RepResults repResults = SpajaRepartitioner.repartition(minNumReplicas, alpha, initialT, deltaT, k, getManager().getAdjacencySnapshot(), getManager().getPartitionToUserMap(), getManager().getPartitionToReplicasMap(), getManager().getRandom());
         getManager().increaseTallyLogical(repResults.getNumLogicalMoves());
         physicallyMigrate(repResults.getUidToPidMap(), repResults.getUidsToReplicaPids());
     }
@@ -1,7 +1,6 @@
 package io.vntr.middleware;
 
 import gnu.trove.map.TIntIntMap;
-import gnu.trove.map.TIntObjectMap;
 import gnu.trove.set.TIntSet;
 import io.vntr.RepUser;
 import io.vntr.befriend.BEFRIEND_REBALANCE_STRATEGY;
@@ -10,7 +9,6 @@ import io.vntr.manager.RepManager;
 import io.vntr.migration.SMigrator;
 
 import static io.vntr.befriend.BEFRIEND_REBALANCE_STRATEGY.*;
-import static io.vntr.utils.TroveUtils.*;
 
 public class SparMiddleware extends AbstractRepMiddleware {
 
@@ -29,7 +27,7 @@ public class SparMiddleware extends AbstractRepMiddleware {
         boolean colocatedMasters = smallerUserPid.equals(largerUserPid);
         boolean colocatedReplicas = smallerUser.getReplicaPids().contains(largerUserPid) && largerUser.getReplicaPids().contains(smallerUserPid);
         if(!colocatedMasters && !colocatedReplicas) {
-            BEFRIEND_REBALANCE_STRATEGY strategy = SBefriender.determineBestBefriendingRebalanceStrategy(smallerUser, largerUser, getManager().getMinNumReplicas(), getFriendships(), getPartitionToUserMap(), getPartitionToReplicasMap());
+            BEFRIEND_REBALANCE_STRATEGY strategy = SBefriender.determineBestBefriendingRebalanceStrategy(smallerUser, largerUser, getManager());
             performRebalance(strategy, smallerUid, largerUid);
         }
 
@@ -52,11 +50,8 @@ public class SparMiddleware extends AbstractRepMiddleware {
         } else {
             RepUser moving = (strategy == SMALL_TO_LARGE) ? smallerUser : largerUser;
             Integer targetPid = (strategy == SMALL_TO_LARGE) ? largerUserPid : smallerUserPid;
-            TIntIntMap uidToPidMap = getUToMasterMap(getPartitionToUserMap());
-            TIntObjectMap<TIntSet> uidToReplicasMap = getUToReplicasMap(getPartitionToReplicasMap(), getUserIds());
-
-            TIntSet replicasToAddInDestinationPartition = SBefriender.findReplicasToAddToTargetPartition(moving, targetPid, uidToPidMap, uidToReplicasMap);
-            TIntSet replicasToDeleteInSourcePartition = SBefriender.findReplicasInMovingPartitionToDelete(moving, replicasToAddInDestinationPartition, getManager().getMinNumReplicas(), uidToReplicasMap, uidToPidMap, getFriendships());
+            TIntSet replicasToAddInDestinationPartition = SBefriender.findReplicasToAddToTargetPartition(moving, targetPid, getManager());
+            TIntSet replicasToDeleteInSourcePartition = SBefriender.findReplicasInMovingPartitionToDelete(moving, replicasToAddInDestinationPartition, getManager().getMinNumReplicas(), getManager());
             getManager().moveUser(moving, targetPid, replicasToAddInDestinationPartition, replicasToDeleteInSourcePartition);
         }
     }
@@ -36,7 +36,7 @@ public class SparmesMiddleware extends SparMiddleware {
     }
 
     void repartition() {
-        RepResults repResults = SparmesRepartitioner.repartition(k, maxIterations, gamma, minNumReplicas, getManager().getPartitionToUserMap(), getManager().getPartitionToReplicasMap(), getManager().getFriendships());
+        RepResults repResults = SparmesRepartitioner.repartition(k, maxIterations, gamma, minNumReplicas, getManager().getPartitionToUserMap(), getManager().getPartitionToReplicasMap(), getManager().getAdjacencySnapshot(), getManager().getRandom());
         getManager().increaseTallyLogical(repResults.getNumLogicalMoves());
         physicallyMigrate(repResults);
     }
@@ -105,7 +105,7 @@ public class SparmesMiddleware extends SparMiddleware {
             TIntSet newLocations = new TIntHashSet(getPids());
             newLocations.removeAll(replicaLocations);
             newLocations.remove(user.getBasePid());
-            TIntSet newReplicaPids = getKDistinctValuesFromArray(deficit, newLocations.toArray());
+            TIntSet newReplicaPids = getKDistinctValuesFromArray(deficit, newLocations.toArray(), getManager().getRandom());
             for(TIntIterator iter = newReplicaPids.iterator(); iter.hasNext(); ) {
                 getManager().addReplica(user, iter.next());
             }
@@ -16,10 +16,10 @@ import static io.vntr.utils.TroveUtils.*;
  */
 public class HMigrator {
 
-    public static TIntIntMap migrateOffPartition(Integer pid, float gamma, TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> friendships) {
+    public static TIntIntMap migrateOffPartition(Integer pid, float gamma, TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> friendships, Random random) {
         TIntIntMap userCounts = getUserCounts(partitions);
         TIntIntMap uidToPidMap = getUToMasterMap(partitions);
-        NavigableSet<Target> preferredTargets = getPreferredTargets(pid, uidToPidMap, partitions, friendships);
+        NavigableSet<Target> preferredTargets = getPreferredTargets(pid, uidToPidMap, partitions, friendships, random);
         TIntIntMap strategy = new TIntIntHashMap(preferredTargets.size()+1);
 
         for(Iterator<Target> iter = preferredTargets.descendingIterator(); iter.hasNext(); ) {
@@ -31,7 +31,8 @@ public class HMigrator {
             }
         }
 
-        WaterFillingPriorityQueue priorityQueue = new WaterFillingPriorityQueue(partitions, new TIntIntHashMap(), pid);
+        //counts the users already placed above, so that the rest level out the partitions
+        WaterFillingPriorityQueue priorityQueue = new WaterFillingPriorityQueue(partitions, strategy, pid);
 
         for(Target target : preferredTargets) {
             int newPid = priorityQueue.getNextPid();
@@ -47,7 +48,7 @@ public class HMigrator {
         return userCounts.get(pid) > cutoff;
     }
 
-    static NavigableSet<Target> getPreferredTargets(Integer pid, TIntIntMap uidToPidMap, TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> friendships) {
+    static NavigableSet<Target> getPreferredTargets(Integer pid, TIntIntMap uidToPidMap, TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> friendships, Random random) {
         int[] options = removeUniqueElementFromNonEmptyArray(partitions.keys(), pid);
         NavigableSet<Target> preferredTargets = new TreeSet<>();
         for(TIntIterator iter = partitions.get(pid).iterator(); iter.hasNext(); ) {
@@ -64,7 +65,7 @@ public class HMigrator {
             }
 
             if(maxPid == null) {
-                maxPid = getKDistinctValuesFromArray(1, options).iterator().next();
+                maxPid = options[random.nextInt(options.length)];
             }
 
             Target target = new Target(uid, maxPid, pid, (float) maxFriends);
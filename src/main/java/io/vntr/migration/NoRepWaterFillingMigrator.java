@@ -5,21 +5,23 @@ import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.hash.TIntIntHashMap;
 import gnu.trove.set.TIntSet;
 
+import java.util.Random;
+
 import static io.vntr.utils.TroveUtils.*;
 
 /**
  * Created by robertlindquist on 6/27/17.
  */
 public class NoRepWaterFillingMigrator {
-    public static TIntIntMap migrateOffPartition(int pid, TIntObjectMap<TIntSet> partitions) {
+    public static TIntIntMap migrateOffPartition(int pid, TIntObjectMap<TIntSet> partitions, Random random) {
         int[] uids = partitions.get(pid).toArray();
-        shuffle(uids);
+        shuffle(uids, random);
         TIntIntMap strategy = new TIntIntHashMap(uids.length+1);
         WaterFillingPriorityQueue priorityQueue = new WaterFillingPriorityQueue(partitions, new TIntIntHashMap(), pid);
 
-        for(int uid : uids) {
-            int newPid = priorityQueue.getNextPid();
-            strategy.put(uid, newPid);
+        int[] newPids = priorityQueue.getNextPids(uids.length);
+        for(int i=0; i<uids.length; i++) {
+            strategy.put(uids[i], newPids[i]);
         }
 
         return strategy;
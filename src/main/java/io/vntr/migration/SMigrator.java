@@ -4,9 +4,9 @@ import gnu.trove.iterator.TIntIterator;
 import gnu.trove.map.TIntIntMap;
 import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
-import io.vntr.repartition.Target;
 import io.vntr.utils.TroveUtils;
 
 import java.util.*;
@@ -26,32 +26,62 @@ public class SMigrator {
         //Place the remaining nodes wherever they fit, following simple water-filling strategy.
 
         TIntIntMap pidToMasterCounts = getUserCounts(partitions);
-        TIntIntMap uidToPidMap = getUToMasterMap(partitions);
-        TIntObjectMap<TIntSet> uidToReplicasMap = getUToReplicasMap(replicas, friendships.keySet());
+        int numUsers = 0;
+        for(int count : pidToMasterCounts.values()) {
+            numUsers += count;
+        }
 
         TIntSet masterIds = partitions.get(pid);
-        TIntIntMap remainingSpotsInPartitions = getRemainingSpotsInPartitions(singleton(pid), uidToPidMap.size(), pidToMasterCounts);
+        TIntObjectMap<TIntSet> uidToReplicasMap = getReplicaLocations(masterIds, replicas);
+        TIntIntMap remainingSpotsInPartitions = getRemainingSpotsInPartitions(singleton(pid), numUsers, pidToMasterCounts);
         TIntIntMap strategy = new TIntIntHashMap(masterIds.size() + 1);
 
         //First, attempt to place vertices on partitions where they have a large proportion of their friends
         if(smartPlacement) {
-            NavigableSet<Target> targets = new TreeSet<>();
+            int numCandidates = 0;
+            for(TIntIterator iter = masterIds.iterator(); iter.hasNext(); ) {
+                numCandidates += uidToReplicasMap.get(iter.next()).size();
+            }
+
+            //candidate i is promoting uids[i]'s replica on pids[i]; the heap holds candidate indices, best first
+            int[] uids = new int[numCandidates];
+            int[] pids = new int[numCandidates];
+            float[] scores = new float[numCandidates];
+            int[] heap = new int[numCandidates];
+            int[] friendCounts = new int[0];
+            int i = 0;
             for(TIntIterator iter = masterIds.iterator(); iter.hasNext(); ) {
                 int uid = iter.next();
-                for(TIntIterator iter2 = uidToReplicasMap.get(uid).iterator(); iter2.hasNext(); ) {
-                    int replicaPid = iter2.next();
-                    float score = scoreReplicaPromotion(friendships.get(uid), partitions.get(replicaPid));
-                    Target target = new Target(uid, replicaPid, pid, score);
-                    targets.add(target);
+                int[] replicaPids = uidToReplicasMap.get(uid).toArray();
+                if(friendCounts.length < replicaPids.length) {
+                    friendCounts = new int[replicaPids.length];
                 }
+                TIntSet friendIds = friendships.get(uid);
+                countFriendsOnPartitions(friendIds, replicaPids, partitions, friendCounts);
+                for(int j = 0; j < replicaPids.length; j++) {
+                    uids[i] = uid;
+                    pids[i] = replicaPids[j];
+                    scores[i] = scoreReplicaPromotion(friendCounts[j], friendIds.size());
+                    heap[i] = i;
+                    i++;
+                }
+            }
+
+            for(int j = numCandidates / 2 - 1; j >= 0; j--) {
+                siftDown(heap, j, numCandidates, uids, pids, scores);
             }
 
-            for (Iterator<Target> iter = targets.descendingIterator(); iter.hasNext(); ) {
-                Target target = iter.next();
-                int remainingSpotsInPartition = remainingSpotsInPartitions.get(target.pid);
-                if (!strategy.containsKey(target.uid) && remainingSpotsInPartition > 0) {
-                    strategy.put(target.uid, target.pid);
-                    remainingSpotsInPartitions.put(target.pid, remainingSpotsInPartition - 1);
+            int numUnplaced = masterIds.size();
+            for(int size = numCandidates; size > 0 && numUnplaced > 0; size--) {
+                int best = heap[0];
+                heap[0] = heap[size - 1];
+                siftDown(heap, 0, size - 1, uids, pids, scores);
+
+                int remainingSpotsInPartition = remainingSpotsInPartitions.get(pids[best]);
+                if (!strategy.containsKey(uids[best]) && remainingSpotsInPartition > 0) {
+                    strategy.put(uids[best], pids[best]);
+                    remainingSpotsInPartitions.put(pids[best], remainingSpotsInPartition - 1);
+                    numUnplaced--;
                 }
             }
         }
@@ -128,11 +158,84 @@ public class SMigrator {
     }
 
     static float scoreReplicaPromotion(TIntSet friendIds, TIntSet usersOnPartition) {
+        int numFriendsOnPartition = 0;
+        for(TIntIterator iter = friendIds.iterator(); iter.hasNext(); ) {
+            if(usersOnPartition.contains(iter.next())) {
+                numFriendsOnPartition++;
+            }
+        }
+        return scoreReplicaPromotion(numFriendsOnPartition, friendIds.size());
+    }
+
+    static float scoreReplicaPromotion(int numFriendsOnPartition, int numFriendsTotal) {
         //based on what they've said, it seems like a decent scoring mechanism is numFriendsOnPartition^2 / numFriendsTotal
-        int numFriendsOnPartition = intersection(friendIds, usersOnPartition).size();
-        float numFriendsTotal = friendIds.size();
+        return ((float) (numFriendsOnPartition * numFriendsOnPartition)) / (float) numFriendsTotal;
+    }
+
+    /**
+     * Counts, in a single pass over friendIds, how many of them are mastered on each of pids.
+     */
+    static void countFriendsOnPartitions(TIntSet friendIds, int[] pids, TIntObjectMap<TIntSet> partitions, int[] counts) {
+        Arrays.fill(counts, 0, pids.length, 0);
+        for(TIntIterator iter = friendIds.iterator(); iter.hasNext(); ) {
+            int friendId = iter.next();
+            for(int j = 0; j < pids.length; j++) {
+                if(partitions.get(pids[j]).contains(friendId)) {
+                    counts[j]++;
+                    break;
+                }
+            }
+        }
+    }
+
+    static TIntObjectMap<TIntSet> getReplicaLocations(TIntSet uids, TIntObjectMap<TIntSet> replicas) {
+        TIntObjectMap<TIntSet> uidToReplicasMap = new TIntObjectHashMap<>(uids.size() + 1);
+        for(TIntIterator iter = uids.iterator(); iter.hasNext(); ) {
+            uidToReplicasMap.put(iter.next(), new TIntHashSet());
+        }
+        for(int replicaPid : replicas.keys()) {
+            TIntSet replicasOnPartition = replicas.get(replicaPid);
+            for(TIntIterator iter = uids.iterator(); iter.hasNext(); ) {
+                int uid = iter.next();
+                if(replicasOnPartition.contains(uid)) {
+                    uidToReplicasMap.get(uid).add(replicaPid);
+                }
+            }
+        }
+        return uidToReplicasMap;
+    }
 
-        return ((float) (numFriendsOnPartition * numFriendsOnPartition)) / numFriendsTotal;
+    //same order as a descending walk over a TreeSet<Target>: highest score, then highest pid, then highest uid
+    private static boolean isBetter(int a, int b, int[] uids, int[] pids, float[] scores) {
+        int scoreCompare = Float.compare(scores[a], scores[b]);
+        if(scoreCompare != 0) {
+            return scoreCompare > 0;
+        }
+        if(pids[a] != pids[b]) {
+            return pids[a] > pids[b];
+        }
+        return uids[a] > uids[b];
+    }
+
+    private static void siftDown(int[] heap, int position, int size, int[] uids, int[] pids, float[] scores) {
+        while(true) {
+            int best = position;
+            int left = 2 * position + 1;
+            int right = left + 1;
+            if(left < size && isBetter(heap[left], heap[best], uids, pids, scores)) {
+                best = left;
+            }
+            if(right < size && isBetter(heap[right], heap[best], uids, pids, scores)) {
+                best = right;
+            }
+            if(best == position) {
+                break;
+            }
+            int temp = heap[position];
+            heap[position] = heap[best];
+            heap[best] = temp;
+            position = best;
+        }
     }
 
     static TIntIntMap getRemainingSpotsInPartitions(TIntSet pidsToSkip, int numUsers, TIntIntMap pToMasterCounts) {
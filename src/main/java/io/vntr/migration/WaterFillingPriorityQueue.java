@@ -2,74 +2,126 @@ package io.vntr.migration;
 
 import gnu.trove.map.TIntIntMap;
 import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntIntHashMap;
 import gnu.trove.set.TIntSet;
-import gnu.trove.set.hash.TIntHashSet;
-
-import java.util.NavigableSet;
-import java.util.TreeSet;
 
 import static io.vntr.utils.TroveUtils.getUserCounts;
-import static io.vntr.utils.TroveUtils.invertTIntIntMap;
 
 /**
+ * Hands out the least-loaded partition (ties go to the lower pid), counting each user it places.  An indexed binary
+ * min-heap over the partitions, so each placement or re-keying costs O(log P), and placing N users one after another
+ * leaves the partitions as level as water-filling can.
+ *
  * Created by robertlindquist on 6/27/17.
  */
 public class WaterFillingPriorityQueue {
-    private final NavigableSet<Element> priorities;
+    private final int[] heap;               //heap position -> pid
+    private final int[] numUsers;           //heap position -> number of users on that pid
+    private final TIntIntMap pidToPosition;
 
+    /**
+     * @param strategy users already headed somewhere (uid -> pid); they count towards their destination
+     */
     public WaterFillingPriorityQueue(TIntObjectMap<TIntSet> partitions, TIntIntMap strategy, int pidToSkip) {
-        TIntIntMap pidToMasterCounts = getUserCounts(partitions);
-        pidToMasterCounts.remove(pidToSkip);
-        TIntObjectMap<TIntSet> invertedStrategy = invertTIntIntMap(strategy);
-        for(int pid : partitions.keys()) {
-            if(!invertedStrategy.containsKey(pid)) {
-                invertedStrategy.put(pid, new TIntHashSet());
-            }
+        TIntIntMap pidToNumUsers = getUserCounts(partitions);
+        pidToNumUsers.remove(pidToSkip);
+        for(int uid : strategy.keys()) {
+            pidToNumUsers.adjustValue(strategy.get(uid), 1);
+        }
+
+        int size = pidToNumUsers.size();
+        heap = new int[size];
+        numUsers = new int[size];
+        pidToPosition = new TIntIntHashMap(size + 1);
+        int position = 0;
+        for(int pid : pidToNumUsers.keys()) {
+            heap[position] = pid;
+            numUsers[position] = pidToNumUsers.get(pid);
+            pidToPosition.put(pid, position);
+            position++;
         }
-        invertedStrategy.remove(pidToSkip);
-        priorities = new TreeSet<>();
-        for(int pid : pidToMasterCounts.keys()) {
-            int numMasters = pidToMasterCounts.get(pid) + invertedStrategy.get(pid).size();
-            priorities.add(new Element(pid, numMasters));
+        for(int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(i);
         }
     }
 
     public int getNextPid() {
-        Element next = priorities.iterator().next();
-        next.numUsers++;
-        return next.pid;
+        int pid = heap[0];
+        numUsers[0]++;
+        siftDown(0);
+        return pid;
     }
 
-    private static class Element implements Comparable<Element> {
-        private int pid;
-        private int numUsers;
-
-        public Element(int pid, int numUsers) {
-            this.pid = pid;
-            this.numUsers = numUsers;
+    /**
+     * @return the pids for the next numToPlace users, in order
+     */
+    public int[] getNextPids(int numToPlace) {
+        int[] pids = new int[numToPlace];
+        for(int i = 0; i < numToPlace; i++) {
+            pids[i] = getNextPid();
         }
+        return pids;
+    }
 
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (!(o instanceof Element)) return false;
+    public int getNumUsers(int pid) {
+        return numUsers[pidToPosition.get(pid)];
+    }
 
-            Element element = (Element) o;
-            return pid == element.pid && numUsers == element.numUsers;
+    /**
+     * Records that delta users were placed on (or, if negative, taken off) pid by some other means.
+     */
+    public void adjustNumUsers(int pid, int delta) {
+        int position = pidToPosition.get(pid);
+        numUsers[position] += delta;
+        if(delta < 0) {
+            siftUp(position);
+        } else {
+            siftDown(position);
         }
+    }
 
-        @Override
-        public int hashCode() {
-            return 31 * pid + numUsers;
+    private void siftUp(int position) {
+        while(position > 0) {
+            int parent = (position - 1) / 2;
+            if(!less(position, parent)) {
+                break;
+            }
+            swap(position, parent);
+            position = parent;
         }
+    }
 
-        @Override
-        public int compareTo(Element o) {
-            int userDelta = o.numUsers - this.numUsers;
-            if(userDelta != 0) {
-                return userDelta;
+    private void siftDown(int position) {
+        while(true) {
+            int smallest = position;
+            int left = 2 * position + 1;
+            int right = left + 1;
+            if(left < heap.length && less(left, smallest)) {
+                smallest = left;
+            }
+            if(right < heap.length && less(right, smallest)) {
+                smallest = right;
+            }
+            if(smallest == position) {
+                break;
             }
-            return this.pid - o.pid;
+            swap(position, smallest);
+            position = smallest;
         }
     }
+
+    private boolean less(int i, int j) {
+        return numUsers[i] < numUsers[j] || (numUsers[i] == numUsers[j] && heap[i] < heap[j]);
+    }
+
+    private void swap(int i, int j) {
+        int pid = heap[i];
+        heap[i] = heap[j];
+        heap[j] = pid;
+        int count = numUsers[i];
+        numUsers[i] = numUsers[j];
+        numUsers[j] = count;
+        pidToPosition.put(heap[i], i);
+        pidToPosition.put(heap[j], j);
+    }
 }
@@ -7,8 +7,10 @@ import gnu.trove.map.hash.TIntIntHashMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
+import io.vntr.utils.AdjacencySnapshot;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 import static io.vntr.utils.TroveUtils.*;
 
@@ -17,31 +19,60 @@ import static io.vntr.utils.TroveUtils.*;
  */
 public class HRepartitioner {
     public static NoRepResults repartition(int k, int maxIterations, float gamma, TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> friendships) {
-        int moves = 0;
-        State state = initState(partitions, friendships, gamma);
-        for(int i=0; i<maxIterations; i++) {
-            int movesBeforeIteration = moves;
+        return repartition(k, maxIterations, gamma, partitions, AdjacencySnapshot.fromFriendships(friendships));
+    }
 
-            Set<Target> firstStageTargets = performStage(true, k, state);
-            moves += firstStageTargets.size();
-            state.updateLogicalUsers(firstStageTargets, friendships);
+    public static NoRepResults repartition(int k, int maxIterations, float gamma, TIntObjectMap<TIntSet> partitions, AdjacencySnapshot graph) {
+        return repartition(k, maxIterations, gamma, partitions, graph, 1);
+    }
 
-            Set<Target> secondStageTargets = performStage(false, k, state);
-            moves += secondStageTargets.size();
-            state.updateLogicalUsers(secondStageTargets, friendships);
+    /**
+     * Candidate selection only reads the state, so with numThreads > 1 each partition's top-k is computed on a
+     * pool; the per-partition sets are the same as the serial ones, so the moves do not depend on numThreads.
+     */
+    public static NoRepResults repartition(int k, int maxIterations, float gamma, TIntObjectMap<TIntSet> partitions, AdjacencySnapshot graph, int numThreads) {
+        ExecutorService executor = numThreads > 1 && partitions.size() > 1 ? Executors.newFixedThreadPool(Math.min(numThreads, partitions.size())) : null;
+        try {
+            int moves = 0;
+            State state = initState(partitions, graph, gamma);
+            for(int i=0; i<maxIterations; i++) {
+                int movesBeforeIteration = moves;
+
+                Set<Target> firstStageTargets = performStage(true, k, state, executor);
+                moves += firstStageTargets.size();
+                state.updateLogicalUsers(firstStageTargets, graph);
+
+                Set<Target> secondStageTargets = performStage(false, k, state, executor);
+                moves += secondStageTargets.size();
+                state.updateLogicalUsers(secondStageTargets, graph);
+
+                if(moves == movesBeforeIteration) {
+                    break;
+                }
+            }
 
-            if(moves == movesBeforeIteration) {
-                break;
+            return new NoRepResults(getUToMasterMap(state.getLogicalPartitions()), moves);
+        } finally {
+            if(executor != null) {
+                executor.shutdownNow();
             }
         }
-
-        return new NoRepResults(getUToMasterMap(state.getLogicalPartitions()), moves);
     }
 
     static Set<Target> performStage(boolean firstStage, int k, State state) {
+        return performStage(firstStage, k, state, null);
+    }
+
+    static Set<Target> performStage(boolean firstStage, int k, State state, ExecutorService executor) {
         Set<Target> targets = new HashSet<>();
-        for(int pid : state.getLogicalPartitions().keys()) {
-            targets.addAll(getCandidates(pid, firstStage, k, state));
+        if(executor == null) {
+            for(int pid : state.getLogicalPartitions().keys()) {
+                targets.addAll(getCandidates(pid, firstStage, k, state));
+            }
+        } else {
+            for(Set<Target> candidates : getCandidatesInParallel(firstStage, k, state, executor)) {
+                targets.addAll(candidates);
+            }
         }
 
         logicallyMigrate(targets, state);
@@ -49,6 +80,28 @@ public class HRepartitioner {
         return targets;
     }
 
+    private static List<Set<Target>> getCandidatesInParallel(final boolean firstStage, final int k, final State state, ExecutorService executor) {
+        List<Callable<Set<Target>>> tasks = new ArrayList<>(state.getLogicalPartitions().size());
+        for(final int pid : state.getLogicalPartitions().keys()) {
+            tasks.add(new Callable<Set<Target>>() {
+                @Override
+                public Set<Target> call() {
+                    return getCandidates(pid, firstStage, k, state);
+                }
+            });
+        }
+
+        List<Set<Target>> results = new ArrayList<>(tasks.size());
+        try {
+            for(Future<Set<Target>> future : executor.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch(InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+        return results;
+    }
+
     static Set<Target> getCandidates(int pid, boolean firstIteration, int k, State state) {
         NavigableSet<Target> candidates = new TreeSet<>();
         for(TIntIterator iter = state.getLogicalPartitions().get(pid).iterator(); iter.hasNext(); ) {
@@ -76,6 +129,10 @@ public class HRepartitioner {
     }
 
     static State initState(TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> friendships, float gamma) {
+        return initState(partitions, AdjacencySnapshot.fromFriendships(friendships), gamma);
+    }
+
+    static State initState(TIntObjectMap<TIntSet> partitions, AdjacencySnapshot graph, float gamma) {
         State state = new State();
         TIntObjectMap<TIntSet> logicalPartitions = new TIntObjectHashMap<>(partitions.size() + 1);
 
@@ -85,46 +142,80 @@ public class HRepartitioner {
         }
 
         state.setLogicalPartitions(logicalPartitions);
-        state.updateLogicalUsers(friendships, gamma);
+        state.updateLogicalUsers(graph, gamma);
 
         return state;
     }
 
     public static TIntObjectMap<LogicalUser> initLogicalUsers(TIntObjectMap<TIntSet> logicalPids, TIntObjectMap<TIntSet> friendships, TIntSet uidsToInclude, float gamma) {
         TIntIntMap uidToPidMap = getUToMasterMap(logicalPids);
-
-        TIntIntMap pToWeight = new TIntIntHashMap(logicalPids.size() + 1);
-        int totalWeight = 0;
-        for(int pid : logicalPids.keys()) {
-            int numUsersOnPartition = logicalPids.get(pid).size();
-            pToWeight.put(pid, numUsersOnPartition);
-            totalWeight += numUsersOnPartition;
-        }
+        TIntIntMap pToWeight = getUserCounts(logicalPids);
+        int totalWeight = getTotalWeight(pToWeight);
 
         TIntObjectMap<LogicalUser> logicalUsers = new TIntObjectHashMap<>();
         for(TIntIterator iter = uidsToInclude.iterator(); iter.hasNext(); ) {
             int uid = iter.next();
-            TIntIntMap pToFriendCount = new TIntIntHashMap(logicalPids.size() + 1);
-            for(int pid : logicalPids.keys()) {
-                pToFriendCount.put(pid, 0);
-            }
+            TIntIntMap pToFriendCount = initFriendCounts(logicalPids);
             for(TIntIterator iter2 = friendships.get(uid).iterator(); iter2.hasNext(); ) {
-                int friendId = iter2.next();
-                int pid = uidToPidMap.get(friendId);
+                int pid = uidToPidMap.get(iter2.next());
                 pToFriendCount.put(pid, pToFriendCount.get(pid) + 1);
             }
 
             int pid = uidToPidMap.get(uid);
-            logicalUsers.put(uid, new LogicalUser(uid, pid, gamma, pToFriendCount, new TIntIntHashMap(pToWeight), totalWeight));
+            logicalUsers.put(uid, new LogicalUser(uid, pid, gamma, pToFriendCount, pToWeight, totalWeight));
         }
 
         return logicalUsers;
     }
 
+    /**
+     * Every LogicalUser shares pToWeight, so moving a user only has to adjust that one map.
+     */
+    static TIntObjectMap<LogicalUser> initLogicalUsers(TIntObjectMap<TIntSet> logicalPids, TIntIntMap pToWeight, AdjacencySnapshot graph, float gamma) {
+        TIntIntMap uidToPidMap = getUToMasterMap(logicalPids);
+        int totalWeight = getTotalWeight(pToWeight);
+
+        int[] uids = graph.getUids();
+        int[] offsets = graph.getOffsets();
+        int[] neighbors = graph.getNeighbors();
+
+        TIntObjectMap<LogicalUser> logicalUsers = new TIntObjectHashMap<>(uids.length + 1);
+        for(int i = 0; i < uids.length; i++) {
+            int uid = uids[i];
+            TIntIntMap pToFriendCount = initFriendCounts(logicalPids);
+            for(int j = offsets[i]; j < offsets[i + 1]; j++) {
+                int pid = uidToPidMap.get(neighbors[j]);
+                pToFriendCount.put(pid, pToFriendCount.get(pid) + 1);
+            }
+
+            int pid = uidToPidMap.get(uid);
+            logicalUsers.put(uid, new LogicalUser(uid, pid, gamma, pToFriendCount, pToWeight, totalWeight));
+        }
+
+        return logicalUsers;
+    }
+
+    private static TIntIntMap initFriendCounts(TIntObjectMap<TIntSet> logicalPids) {
+        TIntIntMap pToFriendCount = new TIntIntHashMap(logicalPids.size() + 1);
+        for(int pid : logicalPids.keys()) {
+            pToFriendCount.put(pid, 0);
+        }
+        return pToFriendCount;
+    }
+
+    private static int getTotalWeight(TIntIntMap pToWeight) {
+        int totalWeight = 0;
+        for(int pid : pToWeight.keys()) {
+            totalWeight += pToWeight.get(pid);
+        }
+        return totalWeight;
+    }
+
     static class State {
 
         private TIntObjectMap<TIntSet> logicalPartitions;
         private TIntObjectMap<LogicalUser> logicalUsers;
+        private TIntIntMap pToWeight;
         public State() {
         }
 
@@ -141,20 +232,25 @@ public class HRepartitioner {
         }
 
         public void updateLogicalUsers(TIntObjectMap<TIntSet> friendships, float gamma) {
-            setLogicalUsers(initLogicalUsers(logicalPartitions, friendships, friendships.keySet(), gamma));
+            updateLogicalUsers(AdjacencySnapshot.fromFriendships(friendships), gamma);
         }
 
-        public void updateLogicalUsers(Set<Target> targets, TIntObjectMap<TIntSet> friendships) {
-            TIntIntMap pToWeight = getUserCounts(logicalPartitions);
-            for(int uid : logicalUsers.keys()) {
-                logicalUsers.get(uid).pToWeight = new TIntIntHashMap(pToWeight);
-            }
+        public void updateLogicalUsers(AdjacencySnapshot graph, float gamma) {
+            pToWeight = getUserCounts(logicalPartitions);
+            setLogicalUsers(initLogicalUsers(logicalPartitions, pToWeight, graph, gamma));
+        }
+
+        public void updateLogicalUsers(Set<Target> targets, AdjacencySnapshot graph) {
+            int[] offsets = graph.getOffsets();
+            int[] neighbors = graph.getNeighbors();
             for(Target target : targets) {
                 getLogicalUsers().get(target.uid).pid = target.pid;
+                pToWeight.adjustValue(target.oldPid, -1);
+                pToWeight.adjustValue(target.pid, 1);
 
-                for(TIntIterator iter = friendships.get(target.uid).iterator(); iter.hasNext(); ) {
-                    int friendId = iter.next();
-                    TIntIntMap pToFriendCount = logicalUsers.get(friendId).pToFriendCount;
+                int index = graph.indexOf(target.uid);
+                for(int j = offsets[index]; j < offsets[index + 1]; j++) {
+                    TIntIntMap pToFriendCount = logicalUsers.get(neighbors[j]).pToFriendCount;
                     pToFriendCount.put(target.oldPid, pToFriendCount.get(target.oldPid) - 1);
                     pToFriendCount.put(target.pid, pToFriendCount.get(target.pid) + 1);
                 }
@@ -172,7 +268,7 @@ public class HRepartitioner {
         private Integer pid;
         private float gamma;
         private TIntIntMap pToFriendCount;
-        private TIntIntMap pToWeight;
+        private final TIntIntMap pToWeight;
         private final Integer totalWeight;
 
         public LogicalUser(Integer id, Integer pid, float gamma, TIntIntMap pToFriendCount, TIntIntMap pToWeight, Integer totalWeight) {
@@ -250,7 +346,7 @@ public class HRepartitioner {
 
         public float getImbalanceFactor(Integer pId, Integer offset) {
             float partitionWeight = pToWeight.get(pId) + offset;
-            float averageWeight = ((float) totalWeight) / pToWeight.keySet().size();
+            float averageWeight = ((float) totalWeight) / pToWeight.size();
             return partitionWeight / averageWeight;
         }
 
@@ -3,12 +3,19 @@ package io.vntr.repartition;
 import gnu.trove.iterator.TIntIterator;
 import gnu.trove.map.TIntIntMap;
 import gnu.trove.map.TIntObjectMap;
-import gnu.trove.map.hash.TIntIntHashMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
+import io.vntr.utils.AdjacencySnapshot;
+import io.vntr.utils.IndexedIntSet;
+import io.vntr.utils.PowerTable;
+import io.vntr.utils.RandomSource;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
 
 import static io.vntr.utils.TroveUtils.*;
 
@@ -17,69 +24,133 @@ import static io.vntr.utils.TroveUtils.*;
  */
 public class JRepartitioner {
 
-    public static NoRepResults repartition(float alpha, float initialT, float deltaT, int k, int numRestarts, TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> friendships, boolean incremental) {
-        TIntIntMap uidToPidMap = getUToMasterMap(partitions);
-        int bestEdgeCut = getEdgeCut(uidToPidMap, friendships);
+    public static NoRepResults repartition(float alpha, float initialT, float deltaT, int k, int numRestarts, TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> friendships, boolean incremental, Random random) {
+        return repartition(alpha, initialT, deltaT, k, numRestarts, partitions, AdjacencySnapshot.fromFriendships(friendships), incremental, 1, random);
+    }
+
+    /**
+     * Runs the restarts on up to numThreads threads.  Each restart gets its own State and its own generator, seeded
+     * up front from random, and the best restart is picked in restart order; so for a given seed the answer does not
+     * depend on numThreads.
+     */
+    public static NoRepResults repartition(final float alpha, final float initialT, final float deltaT, final int k, int numRestarts, final TIntObjectMap<TIntSet> partitions, final AdjacencySnapshot graph, final boolean incremental, int numThreads, Random random) {
+        final TIntIntMap uidToPidMap = getUToMasterMap(partitions);
+
+        List<Callable<RestartResult>> restarts = new ArrayList<>(numRestarts);
+        for (int i = 0; i < numRestarts; i++) {
+            final long seed = random.nextLong();
+            restarts.add(new Callable<RestartResult>() {
+                public RestartResult call() {
+                    return restart(alpha, initialT, deltaT, k, partitions, uidToPidMap, graph, incremental, new RandomSource(seed));
+                }
+            });
+        }
+
+        List<RestartResult> results = runAll(restarts, numThreads);
+
+        int bestEdgeCut = getEdgeCut(uidToPidMap, graph);
         TIntIntMap bestLogicalPids = null;
+        int logicalMoves = 0;
+        for(RestartResult result : results) {
+            logicalMoves += result.logicalMoves;
+            if(result.edgeCut < bestEdgeCut) {
+                bestEdgeCut = result.edgeCut;
+                bestLogicalPids = result.logicalPids;
+            }
+        }
+
+        return new NoRepResults(bestLogicalPids, logicalMoves);
+    }
 
+    static RestartResult restart(float alpha, float initialT, float deltaT, int k, TIntObjectMap<TIntSet> partitions, TIntIntMap uidToPidMap, AdjacencySnapshot graph, boolean incremental, Random random) {
+        int[] uids = graph.getUids();
         int logicalMoves = 0;
-        for (int i = 0; i < numRestarts; i++) {
-            State state = initState(alpha, friendships);
-            TIntObjectMap<TIntSet> logicalPartitions = incremental ? partitions : getRandomLogicalPartitions(friendships.keySet(), partitions.keySet());
-            state.setLogicalPids(getUToMasterMap(logicalPartitions));
-            state.initUidToPidToFriendCount(logicalPartitions);
-
-            for(float t = initialT; t >= 1; t -= deltaT) {
-                int[] randomUserArray = friendships.keys();
-                shuffle(randomUserArray);
-                for(Integer uid : randomUserArray) {
-                    Integer partnerId = null;
-                    if(!incremental) {
-                        partnerId = findPartner(uid, sample(k, partitions.get(uidToPidMap.get(uid))), t, state);
-                    }
-                    if(partnerId == null) {
-                        partnerId = findPartner(uid, sample(k, friendships.keySet()), t, state);
-                    }
-                    if(partnerId != null) {
-                        boolean localSwap = uidToPidMap.get(uid) == uidToPidMap.get(partnerId);
-                        logicalSwap(uid, partnerId, state);
-                        if(!localSwap) {
-                            logicalMoves += 2;
-                        }
+
+        State state = new State(alpha, graph);
+        TIntObjectMap<TIntSet> logicalPartitions = incremental ? partitions : getRandomLogicalPartitions(uids, partitions.keySet(), random);
+        state.setLogicalPids(getUToMasterMap(logicalPartitions));
+        state.initFriendCounts(logicalPartitions);
+        TIntObjectMap<IndexedIntSet> candidatePools = incremental ? null : getCandidatePools(partitions);
+
+        for(float t = initialT; t >= 1; t -= deltaT) {
+            int[] randomUserArray = uids.clone();
+            shuffle(randomUserArray, random);
+            for(int uid : randomUserArray) {
+                Integer partnerId = null;
+                if(!incremental) {
+                    partnerId = findPartner(uid, candidatePools.get(uidToPidMap.get(uid)).sample(k, random), t, state);
+                }
+                if(partnerId == null) {
+                    partnerId = findPartner(uid, sample(k, uids, random), t, state);
+                }
+                if(partnerId != null) {
+                    boolean localSwap = uidToPidMap.get(uid) == uidToPidMap.get(partnerId);
+                    logicalSwap(uid, partnerId, state);
+                    if(!localSwap) {
+                        logicalMoves += 2;
                     }
                 }
             }
+        }
 
-            int edgeCut = getEdgeCut(state.getLogicalPids(), state.getFriendships());
-            if(edgeCut < bestEdgeCut) {
-                bestEdgeCut = edgeCut;
-                bestLogicalPids = new TIntIntHashMap(state.getLogicalPids());
+        return new RestartResult(getEdgeCut(state.getLogicalPids(), graph), state.getLogicalPids(), logicalMoves);
+    }
+
+    private static List<RestartResult> runAll(List<Callable<RestartResult>> restarts, int numThreads) {
+        List<RestartResult> results = new ArrayList<>(restarts.size());
+        if(numThreads <= 1 || restarts.size() <= 1) {
+            for(Callable<RestartResult> restart : restarts) {
+                try {
+                    results.add(restart.call());
+                } catch(Exception e) {
+                    throw new RuntimeException(e);
+                }
             }
+            return results;
         }
 
-        return new NoRepResults(bestLogicalPids, logicalMoves);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, restarts.size()));
+        try {
+            for(Future<RestartResult> future : executor.invokeAll(restarts)) {
+                results.add(future.get());
+            }
+        } catch(InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
     }
 
-    static Integer findPartner(Integer uid, TIntSet candidates, float t, State state) {
+    static Integer findPartner(int uid, TIntSet candidates, float t, State state) {
         Integer bestPartner = null;
         float bestScore = 0f;
 
-        Integer logicalPid = state.getLogicalPids().get(uid);
+        AdjacencySnapshot graph = state.getGraph();
+        int[] friendCounts = state.getFriendCounts();
+        int[] logicalColumns = state.getLogicalColumns();
+        int numColumns = state.getNumColumns();
+        PowerTable powers = state.getPowers();
+
+        int row = graph.indexOf(uid) * numColumns;
+        int column = logicalColumns[graph.indexOf(uid)];
 
         for(TIntIterator iter = candidates.iterator(); iter.hasNext(); ) {
             int partnerId = iter.next();
-            Integer theirLogicalPid = state.getLogicalPids().get(partnerId);
-            if(theirLogicalPid.equals(logicalPid)) {
+            int partnerIndex = graph.indexOf(partnerId);
+            int theirColumn = logicalColumns[partnerIndex];
+            if(theirColumn == column) {
                 continue;
             }
 
-            int myNeighborsOnMine      = state.getUidToPidToFriendCounts().get(uid).get(logicalPid);
-            int myNeighborsOnTheirs    = state.getUidToPidToFriendCounts().get(uid).get(theirLogicalPid);
-            int theirNeighborsOnMine   = state.getUidToPidToFriendCounts().get(partnerId).get(logicalPid);
-            int theirNeighborsOnTheirs = state.getUidToPidToFriendCounts().get(partnerId).get(theirLogicalPid);
+            int theirRow = partnerIndex * numColumns;
+            int myNeighborsOnMine      = friendCounts[row + column];
+            int myNeighborsOnTheirs    = friendCounts[row + theirColumn];
+            int theirNeighborsOnMine   = friendCounts[theirRow + column];
+            int theirNeighborsOnTheirs = friendCounts[theirRow + theirColumn];
 
-            float oldScore = (float) (Math.pow(myNeighborsOnMine, state.getAlpha()) + Math.pow(theirNeighborsOnTheirs, state.getAlpha()));
-            float newScore = (float) (Math.pow(myNeighborsOnTheirs, state.getAlpha()) + Math.pow(theirNeighborsOnMine, state.getAlpha()));
+            float oldScore = (float) (powers.pow(myNeighborsOnMine) + powers.pow(theirNeighborsOnTheirs));
+            float newScore = (float) (powers.pow(myNeighborsOnTheirs) + powers.pow(theirNeighborsOnMine));
 
             if(newScore > bestScore && (newScore * t) > oldScore) {
                 bestPartner = partnerId;
@@ -92,9 +163,11 @@ public class JRepartitioner {
 
     static int[] howManyFriendsHaveLogicalPartitions(int uid, int[] pids, State state) {
         int[] counts = new int[pids.length];
-        for(TIntIterator iter = state.getFriendships().get(uid).iterator(); iter.hasNext(); ) {
-            int friendId = iter.next();
-            int friendPid = state.getLogicalPids().get(friendId);
+        AdjacencySnapshot graph = state.getGraph();
+        int[] neighbors = graph.getNeighbors();
+        int index = graph.indexOf(uid);
+        for(int j = graph.getOffsets()[index]; j < graph.getOffsets()[index + 1]; j++) {
+            int friendPid = state.getLogicalPids().get(neighbors[j]);
             for(int i=0; i<pids.length; i++) {
                 if(pids[i] == friendPid) {
                     counts[i]++;
@@ -104,50 +177,61 @@ public class JRepartitioner {
         return counts;
     }
 
-    static TIntSet sample(int n, TIntSet uids) {
-        return uids.size() > n ? getKDistinctValuesFromArray(n, uids.toArray()) : new TIntHashSet(uids);
+    //the physical partitions don't change during a restart, so index them once instead of copying one per user per step
+    static TIntObjectMap<IndexedIntSet> getCandidatePools(TIntObjectMap<TIntSet> partitions) {
+        TIntObjectMap<IndexedIntSet> candidatePools = new TIntObjectHashMap<>(partitions.size() + 1);
+        for(int pid : partitions.keys()) {
+            candidatePools.put(pid, new IndexedIntSet(partitions.get(pid)));
+        }
+        return candidatePools;
+    }
+
+    static TIntSet sample(int n, int[] uids, Random random) {
+        return getKDistinctValuesFromArray(n, uids, random);
     }
 
-    static void logicalSwap(Integer uid1, Integer uid2, State state) {
-        Integer pid1 = state.getLogicalPids().get(uid1);
-        Integer pid2 = state.getLogicalPids().get(uid2);
+    static void logicalSwap(int uid1, int uid2, State state) {
+        int pid1 = state.getLogicalPids().get(uid1);
+        int pid2 = state.getLogicalPids().get(uid2);
 
         state.getLogicalPids().put(uid1, pid2);
         state.getLogicalPids().put(uid2, pid1);
 
-        for(TIntIterator iter = state.getFriendships().get(uid1).iterator(); iter.hasNext(); ) {
-            int friendId = iter.next();
-            TIntIntMap counts = state.getUidToPidToFriendCounts().get(friendId);
-            counts.put(pid1, counts.get(pid1) - 1);
-            counts.put(pid2, counts.get(pid2) + 1);
-        }
-
-        for(TIntIterator iter = state.getFriendships().get(uid2).iterator(); iter.hasNext(); ) {
-            int friendId = iter.next();
-            TIntIntMap counts = state.getUidToPidToFriendCounts().get(friendId);
-            counts.put(pid2, counts.get(pid2) - 1);
-            counts.put(pid1, counts.get(pid1) + 1);
-        }
-
+        AdjacencySnapshot graph = state.getGraph();
+        int index1 = graph.indexOf(uid1);
+        int index2 = graph.indexOf(uid2);
+        int[] logicalColumns = state.getLogicalColumns();
+        int column1 = logicalColumns[index1];
+        int column2 = logicalColumns[index2];
+        logicalColumns[index1] = column2;
+        logicalColumns[index2] = column1;
+
+        moveFriendCounts(index1, column1, column2, state);
+        moveFriendCounts(index2, column2, column1, state);
     }
 
-    static State initState(float alpha, TIntObjectMap<TIntSet> friendships) {
-        TIntObjectMap<TIntSet> friendshipsCopy = new TIntObjectHashMap<>(friendships.size()+1);
-        for(Integer uid : friendships.keys()) {
-            friendshipsCopy.put(uid, new TIntHashSet(friendships.get(uid)));
+    private static void moveFriendCounts(int index, int fromColumn, int toColumn, State state) {
+        AdjacencySnapshot graph = state.getGraph();
+        int[] offsets = graph.getOffsets();
+        int[] neighborIndices = graph.getNeighborIndices();
+        int[] friendCounts = state.getFriendCounts();
+        int numColumns = state.getNumColumns();
+        for(int j = offsets[index]; j < offsets[index + 1]; j++) {
+            int row = neighborIndices[j] * numColumns;
+            friendCounts[row + fromColumn]--;
+            friendCounts[row + toColumn]++;
         }
-        return new State(alpha, friendshipsCopy);
     }
 
-    static int getEdgeCut(TIntIntMap uidToPidMap, TIntObjectMap<TIntSet> friendships) {
+    static int getEdgeCut(TIntIntMap uidToPidMap, AdjacencySnapshot graph) {
+        int[] uids = graph.getUids();
+        int[] offsets = graph.getOffsets();
+        int[] neighbors = graph.getNeighbors();
         int count = 0;
-        for(Integer uid : uidToPidMap.keys()) {
-            Integer pid = uidToPidMap.get(uid);
-
-            for(TIntIterator iter = friendships.get(uid).iterator(); iter.hasNext(); ) {
-                int friendId = iter.next();
-                Integer friendPid = uidToPidMap.get(friendId);
-                if(pid < friendPid) {
+        for(int i = 0; i < uids.length; i++) {
+            int pid = uidToPidMap.get(uids[i]);
+            for(int j = offsets[i]; j < offsets[i + 1]; j++) {
+                if(pid < uidToPidMap.get(neighbors[j])) {
                     count++;
                 }
             }
@@ -155,9 +239,9 @@ public class JRepartitioner {
         return count;
     }
 
-    static TIntObjectMap<TIntSet> getRandomLogicalPartitions(TIntSet uids, TIntSet pids) {
-        int[] pidArray = getPidsToAssign(uids.size(), pids);
-        shuffle(pidArray);
+    static TIntObjectMap<TIntSet> getRandomLogicalPartitions(int[] uids, TIntSet pids, Random random) {
+        int[] pidArray = getPidsToAssign(uids.length, pids, random);
+        shuffle(pidArray, random);
 
         TIntObjectMap<TIntSet> logicalPartitions = new TIntObjectHashMap<>(pids.size()+1);
         for(TIntIterator iter = pids.iterator(); iter.hasNext(); ) {
@@ -165,17 +249,14 @@ public class JRepartitioner {
             logicalPartitions.put(pid, new TIntHashSet());
         }
 
-        int index = 0;
-        for(TIntIterator iter = uids.iterator(); iter.hasNext(); ) {
-            int uid = iter.next();
-            logicalPartitions.get(pidArray[index]).add(uid);
-            index++;
+        for(int i = 0; i < uids.length; i++) {
+            logicalPartitions.get(pidArray[i]).add(uids[i]);
         }
 
         return logicalPartitions;
     }
 
-    static int[] getPidsToAssign(int numUsers, TIntSet pids) {
+    static int[] getPidsToAssign(int numUsers, TIntSet pids, Random random) {
         //Fill array with pids such that:
         //(1) array.length = numUsers
         //(2) no pid occurs more than ceiling(numUsers/numPartitions) times
@@ -195,7 +276,7 @@ public class JRepartitioner {
 
         //Step 2: fill the remainder (if any) with randomly-selected pids (no more than once each)
         int[] remainingPidArray = pids.toArray();
-        shuffle(remainingPidArray);
+        shuffle(remainingPidArray, random);
         int nextPidIndex = 0;
         while(index < replicatedPids.length) {
             replicatedPids[index] = remainingPidArray[nextPidIndex++];
@@ -205,24 +286,52 @@ public class JRepartitioner {
         return replicatedPids;
     }
 
+    static class RestartResult {
+        final int edgeCut;
+        final TIntIntMap logicalPids;
+        final int logicalMoves;
+
+        RestartResult(int edgeCut, TIntIntMap logicalPids, int logicalMoves) {
+            this.edgeCut = edgeCut;
+            this.logicalPids = logicalPids;
+            this.logicalMoves = logicalMoves;
+        }
+    }
+
+    /**
+     * Friend counts live in a flat matrix: friendCounts[row * numColumns + column] is how many friends the user in
+     * graph row `row` has on the partition in column `column`, and logicalColumns[row] is that user's own column.
+     */
     static class State {
         private final float alpha;
-        private final TIntObjectMap<TIntSet> friendships;
-        private TIntObjectMap<TIntIntMap> uidToPidToFriendCounts;
+        private final PowerTable powers;
+        private final AdjacencySnapshot graph;
+        private int[] pidsByColumn;
+        private int[] friendCounts;
+        private int[] logicalColumns;
 
         private TIntIntMap logicalPids;
 
         public State(float alpha, TIntObjectMap<TIntSet> friendships) {
+            this(alpha, AdjacencySnapshot.fromFriendships(friendships));
+        }
+
+        public State(float alpha, AdjacencySnapshot graph) {
             this.alpha = alpha;
-            this.friendships = friendships;
+            this.powers = new PowerTable(alpha);
+            this.graph = graph;
         }
 
         public float getAlpha() {
             return alpha;
         }
 
-        public TIntObjectMap<TIntSet> getFriendships() {
-            return friendships;
+        public PowerTable getPowers() {
+            return powers;
+        }
+
+        public AdjacencySnapshot getGraph() {
+            return graph;
         }
 
         public TIntIntMap getLogicalPids() {
@@ -233,19 +342,47 @@ public class JRepartitioner {
             this.logicalPids = logicalPids;
         }
 
-        public TIntObjectMap<TIntIntMap> getUidToPidToFriendCounts() {
-            return uidToPidToFriendCounts;
+        int[] getFriendCounts() {
+            return friendCounts;
+        }
+
+        int[] getLogicalColumns() {
+            return logicalColumns;
         }
 
-        public void initUidToPidToFriendCount(TIntObjectMap<TIntSet> partitions) {
-            uidToPidToFriendCounts = new TIntObjectHashMap<>(friendships.size()+1);
-            for(int uid : friendships.keys()) {
-                TIntIntMap counts = new TIntIntHashMap(partitions.size()+1);
-                for(int pid : partitions.keys()) {
+        int getNumColumns() {
+            return pidsByColumn.length;
+        }
+
+        public int getFriendCount(int uid, int pid) {
+            int column = Arrays.binarySearch(pidsByColumn, pid);
+            return column >= 0 ? friendCounts[graph.indexOf(uid) * pidsByColumn.length + column] : 0;
+        }
+
+        public void initFriendCounts(TIntObjectMap<TIntSet> partitions) {
+            pidsByColumn = partitions.keys();
+            Arrays.sort(pidsByColumn);
+
+            int[] uids = graph.getUids();
+            logicalColumns = new int[uids.length];
+            for(int column = 0; column < pidsByColumn.length; column++) {
+                for(TIntIterator iter = partitions.get(pidsByColumn[column]).iterator(); iter.hasNext(); ) {
+                    int index = graph.indexOf(iter.next());
+                    if(index != AdjacencySnapshot.NOT_PRESENT) {
+                        logicalColumns[index] = column;
+                    }
+                }
+            }
 
-                    counts.put(pid, intersection(partitions.get(pid), friendships.get(uid)).size());
+            int numColumns = pidsByColumn.length;
+            int[] offsets = graph.getOffsets();
+            int[] neighborIndices = graph.getNeighborIndices();
+            friendCounts = new int[uids.length * numColumns];
+            for(int i = 0; i < uids.length; i++) {
+                int row = i * numColumns;
+                for(int j = offsets[i]; j < offsets[i + 1]; j++) {
+                    friendCounts[row + logicalColumns[neighborIndices[j]]]++;
                 }
-                uidToPidToFriendCounts.put(uid, counts);
             }
         }
     }
@@ -1,17 +1,26 @@
 package io.vntr.repartition;
 
 import gnu.trove.iterator.TIntIterator;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.TIntIntMap;
 import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.hash.TIntIntHashMap;
-import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.set.TIntSet;
-import gnu.trove.set.hash.TIntHashSet;
+import io.vntr.utils.AdjacencySnapshot;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
-import java.util.Scanner;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
 
 import static java.util.Arrays.sort;
 
@@ -19,26 +28,100 @@ import static java.util.Arrays.sort;
  * Created by robertlindquist on 4/24/17.
  */
 public class MetisRepartitioner {
-    public static TIntIntMap partition(String commandLiteral, String tempDir, TIntObjectMap<TIntSet> tFriendships, TIntSet tPids) {
+    /** Pass as the command (or set gpmetis.location to it) to partition with {@link MultilevelPartitioner} instead of gpmetis. */
+    public static final String BUILTIN_COMMAND = "builtin";
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_INT_CHARS = 11;
+
+    //temp dir -> the gpmetis input file reused for every call
+    private static final Map<String, Path> tempFiles = new HashMap<>();
+
+    public static TIntIntMap partition(String commandLiteral, String tempDir, TIntObjectMap<TIntSet> tFriendships, TIntSet tPids, Random random) {
+        return partition(commandLiteral, tempDir, AdjacencySnapshot.fromFriendships(tFriendships), tPids, random);
+    }
+
+    /**
+     * @param random only used by the builtin partitioner; gpmetis seeds itself
+     */
+    public static TIntIntMap partition(String commandLiteral, String tempDir, AdjacencySnapshot graph, TIntSet tPids, Random random) {
         int numPartitions = tPids.size();
+        if(BUILTIN_COMMAND.equals(commandLiteral)) {
+            int[] results = MultilevelPartitioner.partition(graph, numPartitions, random);
+            return translatePartitioningFromZNBased(results, graph.getUids(), getReversePidMap(tPids));
+        }
         try {
-            String inputFile = tempDir + File.separator + "e_pluribus_unum__" + System.nanoTime() + ".txt";
-            String outputFile = inputFile + ".part." + numPartitions;
+            return translatePartitioningFromZNBased(runGpmetis(commandLiteral, tempDir, graph, numPartitions), graph.getUids(), getReversePidMap(tPids));
+        } catch(Exception e) {
+            return null;
+        }
+    }
 
-            TIntIntMap reverseUidMap = new TIntIntHashMap(tFriendships.size()+1);
-            TIntIntMap mapping = getTranslationToZN(tFriendships.keys(), reverseUidMap);
+    /**
+     * Warm-started alternative to {@link #partition}: improves the current placement rather than replacing it,
+     * starting from the changed users and spreading only as far as moves make necessary.  Each row's part is kept
+     * between calls, so as long as the users and pids stay the same, a call costs about as much as the rows it
+     * visits.  This always runs in process, whatever gpmetis.location says, since gpmetis can't start from an
+     * existing partitioning.
+     */
+    public static class Refiner {
+        private int[] uids = new int[0];
+        private int[] sortedPids = new int[0];
+        private int[] part = new int[0];
+        private int[] partWeights = new int[0];
+        private boolean valid;
 
-            TIntObjectMap<TIntSet> translatedFriendships = translateFriendshipsToZNBased(tFriendships, mapping);
-            writeAdjacencyGraphMetisStyle(translatedFriendships, inputFile);
+        /**
+         * Assumes users have only moved as told by earlier calls since the last {@link #invalidate}.
+         *
+         * @param partitions the current placement; only read after {@link #invalidate} or when the users or pids
+         *                   have changed
+         * @return the new pid of every user that moved; the caller is expected to move them
+         */
+        public TIntIntMap refine(AdjacencySnapshot graph, TIntObjectMap<TIntSet> partitions, TIntSet changedUids, Random random) {
+            int[] pids = partitions.keys();
+            sort(pids);
+            if(!valid || !Arrays.equals(pids, sortedPids) || !Arrays.equals(graph.getUids(), uids)) {
+                reset(graph, partitions, pids);
+            }
 
-            TIntIntMap results = innerPartition(commandLiteral, outputFile, inputFile, numPartitions, tFriendships.size());
+            TIntList startRows = new TIntArrayList(changedUids.size()+1);
+            for(TIntIterator iter = changedUids.iterator(); iter.hasNext(); ) {
+                int index = graph.indexOf(iter.next());
+                if(index != AdjacencySnapshot.NOT_PRESENT) {
+                    startRows.add(index);
+                }
+            }
 
-            TIntIntMap reversePidMap = getReversePidMap(tPids);
-            TIntIntMap translatedResults = translatePartitioningFromZNBased(results, reverseUidMap, reversePidMap);
+            int[] movedRows = MultilevelPartitioner.refineFrom(MultilevelPartitioner.Graph.fromSnapshot(graph), part, partWeights, startRows.toArray(), random);
 
-            return translatedResults;
-        } catch(Exception e) {
-            return null;
+            TIntIntMap moves = new TIntIntHashMap(movedRows.length+1);
+            for(int row : movedRows) {
+                moves.put(uids[row], sortedPids[part[row]]);
+            }
+            return moves;
+        }
+
+        /**
+         * Call whenever users join, leave or move other than as told by {@link #refine}, or partitions come and go;
+         * the next call then reads the placement afresh.
+         */
+        public void invalidate() {
+            valid = false;
+        }
+
+        private void reset(AdjacencySnapshot graph, TIntObjectMap<TIntSet> partitions, int[] pids) {
+            valid = true;
+            uids = graph.getUids();
+            sortedPids = pids;
+            part = new int[graph.getNumUsers()];
+            partWeights = new int[pids.length];
+            for(int column=0; column<pids.length; column++) {
+                for(TIntIterator iter = partitions.get(pids[column]).iterator(); iter.hasNext(); ) {
+                    part[graph.indexOf(iter.next())] = column;
+                    partWeights[column]++;
+                }
+            }
         }
     }
 
@@ -55,92 +138,142 @@ public class MetisRepartitioner {
         return reversePidMap;
     }
 
-    private static TIntIntMap innerPartition(String commandLiteral, String outputFile, String inputFile, int numPartitions, int numUsers) throws Exception {
-        ProcessBuilder pb = new ProcessBuilder(commandLiteral, inputFile, "" + numPartitions);
-        Process p = pb.start();
-        p.waitFor();
-        Scanner scanner = new Scanner(new File(outputFile));
-        TIntIntMap results = new TIntIntHashMap(numUsers+1);
-        int count = 1;
-        while(scanner.hasNextLine()) {
-            results.put(count++, Integer.parseInt(scanner.nextLine()));
-        }
-        scanner.close();
-        return results;
-    }
-
-    private static void writeAdjacencyGraphMetisStyle(TIntObjectMap<TIntSet> friendships, String filename) throws FileNotFoundException {
-        int[] sortedUids = friendships.keys();
-        sort(sortedUids);
-        PrintWriter pw = new PrintWriter(filename);
+    /**
+     * Writes the graph where gpmetis can read it, runs gpmetis, and reads back the part (0..numPartitions-1) of each
+     * row of the snapshot.  The snapshot's rows are already sorted by uid, so row i is METIS vertex i+1.  Each temp
+     * directory gets one input file, which is overwritten on every call, so callers are serialized.
+     */
+    static synchronized int[] runGpmetis(String commandLiteral, String tempDir, AdjacencySnapshot graph, int numPartitions) throws IOException, InterruptedException {
+        Path inputFile = getTempFile(tempDir);
+        Path outputFile = Paths.get(inputFile + ".part." + numPartitions);
+        Files.deleteIfExists(outputFile);
 
-        pw.println(friendships.size() + " " + getNumEdges(friendships));
+        writeAdjacencyGraphMetisStyle(graph, inputFile);
 
-        for(int i=0; i<sortedUids.length; i++) {
-            int next = sortedUids[i];
-            TIntSet friends = friendships.get(next);
-            String line = formatLine(friends);
-            pw.println(line);
+        ProcessBuilder pb = new ProcessBuilder(commandLiteral, inputFile.toString(), "" + numPartitions);
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(new File(inputFile + ".log"));
+        int exitCode = pb.start().waitFor();
+        if(exitCode != 0) {
+            throw new RuntimeException(commandLiteral + " exited with " + exitCode);
         }
-        pw.close();
+
+        return readPartitioning(outputFile, graph.getNumUsers());
     }
 
-    private static TIntIntMap getTranslationToZN(int[] uids, TIntIntMap reverseMap) {
-        sort(uids);
-        TIntIntMap dict = new TIntIntHashMap(uids.length+1);
-        int index = 1;
-        for(int i=0; i<uids.length; i++) {
-            int nextUid = uids[i];
-            dict.put(nextUid, index);
-            reverseMap.put(index, nextUid);
-            index++;
-        }
-        return dict;
+    private static Path getTempFile(String tempDir) throws IOException {
+        Path tempFile = tempFiles.get(tempDir);
+        if(tempFile == null) {
+            tempFile = Files.createTempFile(Paths.get(tempDir), "e_pluribus_unum__", ".txt");
+            tempFile.toFile().deleteOnExit();
+            tempFiles.put(tempDir, tempFile);
+        }
+        return tempFile;
     }
 
-    private static TIntObjectMap<TIntSet> translateFriendshipsToZNBased(TIntObjectMap<TIntSet> originalFriendships, TIntIntMap mapping) {
-        TIntObjectMap<TIntSet> translated = new TIntObjectHashMap<>();
-        for(int i : originalFriendships.keys()) {
-            TIntSet translatedFriends = new TIntHashSet(originalFriendships.get(i).size()+1);
-            for(TIntIterator iter = originalFriendships.get(i).iterator(); iter.hasNext(); ) {
-                translatedFriends.add(mapping.get(iter.next()));
+    /**
+     * Streams the METIS graph format (a header line, then one line of 1-based neighbor numbers per vertex) straight
+     * from the snapshot's arrays into the file, without building any intermediate strings.
+     */
+    static void writeAdjacencyGraphMetisStyle(AdjacencySnapshot graph, Path path) throws IOException {
+        int[] offsets = graph.getOffsets();
+        int[] neighborIndices = graph.getNeighborIndices();
+
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int position = putInt(buffer, 0, graph.getNumUsers());
+            buffer[position++] = ' ';
+            position = putInt(buffer, position, graph.getNumEdges());
+            buffer[position++] = '\n';
+
+            for(int i=0; i<graph.getNumUsers(); i++) {
+                //neighbors are sorted by uid, so their rows are sorted too
+                for(int j=offsets[i]; j<offsets[i+1]; j++) {
+                    if(position > BUFFER_SIZE - MAX_INT_CHARS - 2) {
+                        drain(channel, buffer, position);
+                        position = 0;
+                    }
+                    if(j > offsets[i]) {
+                        buffer[position++] = ' ';
+                    }
+                    position = putInt(buffer, position, neighborIndices[j] + 1);
+                }
+                if(position == BUFFER_SIZE) {
+                    drain(channel, buffer, position);
+                    position = 0;
+                }
+                buffer[position++] = '\n';
             }
-            translated.put(mapping.get(i), translatedFriends);
+            drain(channel, buffer, position);
         }
-        return translated;
     }
 
-    private static TIntIntMap translatePartitioningFromZNBased(TIntIntMap zNBasedPartitioning, TIntIntMap reverseUidMap, TIntIntMap reversePidMap) {
-        TIntIntMap translatedPartitioning = new TIntIntHashMap(zNBasedPartitioning.size()+1);
-        for(int i : zNBasedPartitioning.keys()) {
-            int rawPid = zNBasedPartitioning.get(i);
-            int translatedUid = reverseUidMap.get(i);
-            int translatedPid = reversePidMap.get(rawPid);
-            translatedPartitioning.put(translatedUid, translatedPid);
+    /**
+     * Writes the decimal digits of a non-negative value at buffer[position] and returns the position after them.
+     */
+    private static int putInt(byte[] buffer, int position, int value) {
+        int length = 1;
+        for(int rest = value / 10; rest > 0; rest /= 10) {
+            length++;
         }
-        return translatedPartitioning;
+        for(int i = position + length - 1; i >= position; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return position + length;
     }
 
-    static int getNumEdges(TIntObjectMap<TIntSet> friendships) {
-        int count = 0;
-        for(int uid : friendships.keys()) {
-            count += friendships.get(uid).size();
+    private static void drain(FileChannel channel, byte[] buffer, int length) throws IOException {
+        ByteBuffer wrapped = ByteBuffer.wrap(buffer, 0, length);
+        while(wrapped.hasRemaining()) {
+            channel.write(wrapped);
         }
-        return count >> 1;
     }
 
-    static String formatLine(TIntSet friends) {
-        int[] sortedFriendIds = friends.toArray();
-        sort(sortedFriendIds);
-        StringBuilder builder = new StringBuilder();
+    /**
+     * Reads gpmetis's output, one non-negative part number per line, into an array indexed by vertex - 1.
+     */
+    static int[] readPartitioning(Path path, int numVertices) throws IOException {
+        int[] results = new int[numVertices];
+        int count = 0;
+        int value = 0;
+        boolean inNumber = false;
 
-        for(int i=0; i<sortedFriendIds.length; i++) {
-            int friendId = sortedFriendIds[i];
-            builder.append(friendId);
-            if(i < sortedFriendIds.length-1) {
-                builder.append(' ');
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while(channel.read(buffer) != -1) {
+                buffer.flip();
+                while(buffer.hasRemaining()) {
+                    byte b = buffer.get();
+                    if(b >= '0' && b <= '9') {
+                        value = value * 10 + (b - '0');
+                        inNumber = true;
+                    } else if(inNumber) {
+                        results[count++] = value;
+                        value = 0;
+                        inNumber = false;
+                    }
+                }
+                buffer.clear();
             }
         }
-        return builder.toString();
+        if(inNumber) {
+            results[count++] = value;
+        }
+        if(count != numVertices) {
+            throw new RuntimeException("Expected " + numVertices + " parts in " + path + " but found " + count);
+        }
+        return results;
+    }
+
+    private static TIntIntMap translatePartitioningFromZNBased(int[] zNBasedPartitioning, int[] sortedUids, TIntIntMap reversePidMap) {
+        TIntIntMap translatedPartitioning = new TIntIntHashMap(zNBasedPartitioning.length+1);
+        for(int i=0; i<zNBasedPartitioning.length; i++) {
+            int rawPid = zNBasedPartitioning[i];
+            int translatedUid = sortedUids[i];
+            int translatedPid = reversePidMap.get(rawPid);
+            translatedPartitioning.put(translatedUid, translatedPid);
+        }
+        return translatedPartitioning;
     }
 }
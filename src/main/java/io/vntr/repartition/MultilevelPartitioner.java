@@ -0,0 +1,635 @@
+package io.vntr.repartition;
+
+import gnu.trove.iterator.TIntIntIterator;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+import io.vntr.utils.AdjacencySnapshot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static io.vntr.utils.TroveUtils.shuffle;
+
+/**
+ * In-process stand-in for gpmetis: a multilevel k-way partitioner after Karypis and Kumar.  The graph is coarsened
+ * by heavy-edge matching until it has a few dozen vertices per part, split by greedy region growing, and projected
+ * back one level at a time, with greedy and then Fiduccia-Mattheyses boundary refinement at each level.  Parts are kept within
+ * {@link #IMBALANCE_TOLERANCE} of the average weight, as with gpmetis's default -ufactor.
+ */
+public class MultilevelPartitioner {
+    static final float IMBALANCE_TOLERANCE = 1.03f;
+
+    private static final int COARSEST_VERTICES_PER_PART = 20;
+    private static final float MIN_COARSENING_RATIO = 0.95f;
+    private static final int NUM_INITIAL_TRIES = 4;
+    private static final int MAX_REFINEMENT_PASSES = 10;
+    private static final int MAX_FM_PASSES = 4;
+    private static final int MAX_FM_MOVES_WITHOUT_IMPROVEMENT = 50;
+
+    /**
+     * @return the part (0..numPartitions-1) of each row of the snapshot
+     */
+    public static int[] partition(AdjacencySnapshot snapshot, int numPartitions, Random random) {
+        int numVertices = snapshot.getNumUsers();
+        int[] part = new int[numVertices];
+        if(numPartitions <= 1) {
+            return part;
+        }
+        if(numVertices <= numPartitions) {
+            for(int i = 0; i < numVertices; i++) {
+                part[i] = i;
+            }
+            return part;
+        }
+
+        Graph graph = Graph.fromSnapshot(snapshot);
+
+        List<Graph> levels = new ArrayList<>();
+        levels.add(graph);
+        int coarsestSize = COARSEST_VERTICES_PER_PART * numPartitions;
+        while(graph.numVertices > coarsestSize) {
+            Graph coarser = coarsen(graph, coarsestSize, random);
+            if(coarser.numVertices > MIN_COARSENING_RATIO * graph.numVertices) {
+                graph.coarseMap = null;
+                break;
+            }
+            levels.add(coarser);
+            graph = coarser;
+        }
+
+        part = initialPartition(graph, numPartitions, random);
+
+        for(int level = levels.size() - 2; level >= 0; level--) {
+            Graph finer = levels.get(level);
+            int[] finerPart = new int[finer.numVertices];
+            for(int v = 0; v < finer.numVertices; v++) {
+                finerPart[v] = part[finer.coarseMap[v]];
+            }
+            part = finerPart;
+            refine(finer, part, numPartitions, random);
+        }
+
+        return part;
+    }
+
+    /**
+     * Contracts a heavy-edge matching of graph, visiting vertices in random order and leaving a vertex unmatched if
+     * all of its neighbors are taken.  Sets graph.coarseMap.
+     */
+    static Graph coarsen(Graph graph, int coarsestSize, Random random) {
+        int n = graph.numVertices;
+        int maxVertexWeight = (int) Math.ceil(1.5 * graph.totalVertexWeight / coarsestSize);
+
+        int[] match = new int[n];
+        Arrays.fill(match, -1);
+        int[] coarseMap = new int[n];
+        int numCoarse = 0;
+
+        for(int v : getRandomOrder(n, random)) {
+            if(match[v] != -1) {
+                continue;
+            }
+            int best = v;
+            int bestWeight = 0;
+            for(int j = graph.offsets[v]; j < graph.offsets[v + 1]; j++) {
+                int u = graph.neighbors[j];
+                if(match[u] == -1 && graph.edgeWeights[j] > bestWeight && graph.vertexWeights[v] + graph.vertexWeights[u] <= maxVertexWeight) {
+                    best = u;
+                    bestWeight = graph.edgeWeights[j];
+                }
+            }
+            match[v] = best;
+            match[best] = v;
+            coarseMap[v] = numCoarse;
+            coarseMap[best] = numCoarse;
+            numCoarse++;
+        }
+
+        //members of coarse vertex c are first[c] and match[first[c]], which may be the same vertex
+        int[] first = new int[numCoarse];
+        Arrays.fill(first, -1);
+        for(int v = 0; v < n; v++) {
+            if(first[coarseMap[v]] == -1) {
+                first[coarseMap[v]] = v;
+            }
+        }
+
+        int[] offsets = new int[numCoarse + 1];
+        int[] neighbors = new int[graph.neighbors.length];
+        int[] edgeWeights = new int[graph.neighbors.length];
+        int[] vertexWeights = new int[numCoarse];
+        int[] slot = new int[numCoarse];
+        Arrays.fill(slot, -1);
+        int count = 0;
+        for(int c = 0; c < numCoarse; c++) {
+            int rowStart = count;
+            int v = first[c];
+            int[] members = match[v] == v ? new int[]{v} : new int[]{v, match[v]};
+            for(int member : members) {
+                vertexWeights[c] += graph.vertexWeights[member];
+                for(int j = graph.offsets[member]; j < graph.offsets[member + 1]; j++) {
+                    int cu = coarseMap[graph.neighbors[j]];
+                    if(cu == c) {
+                        continue;
+                    }
+                    if(slot[cu] < rowStart) {
+                        slot[cu] = count;
+                        neighbors[count] = cu;
+                        edgeWeights[count] = graph.edgeWeights[j];
+                        count++;
+                    } else {
+                        edgeWeights[slot[cu]] += graph.edgeWeights[j];
+                    }
+                }
+            }
+            offsets[c + 1] = count;
+        }
+
+        graph.coarseMap = coarseMap;
+        return new Graph(offsets, Arrays.copyOf(neighbors, count), Arrays.copyOf(edgeWeights, count), vertexWeights);
+    }
+
+    /**
+     * Grows the parts one at a time from random seeds, several times over, and keeps the refined result with the
+     * smallest cut.
+     */
+    static int[] initialPartition(Graph graph, int numPartitions, Random random) {
+        int[] best = null;
+        int bestCut = Integer.MAX_VALUE;
+        for(int i = 0; i < NUM_INITIAL_TRIES; i++) {
+            int[] part = growRegions(graph, numPartitions, random);
+            refine(graph, part, numPartitions, random);
+            int cut = getEdgeCut(graph, part);
+            if(cut < bestCut) {
+                best = part;
+                bestCut = cut;
+            }
+        }
+        return best;
+    }
+
+    static int[] growRegions(Graph graph, int numPartitions, Random random) {
+        int n = graph.numVertices;
+        int[] part = new int[n];
+        Arrays.fill(part, -1);
+        int[] connectivity = new int[n];
+        int remainingWeight = graph.totalVertexWeight;
+
+        for(int p = 0; p < numPartitions - 1; p++) {
+            int target = remainingWeight / (numPartitions - p);
+            int weight = 0;
+            Arrays.fill(connectivity, 0);
+            while(weight < target) {
+                int v = -1;
+                for(int u = 0; u < n; u++) {
+                    if(part[u] == -1 && connectivity[u] > 0 && (v == -1 || connectivity[u] > connectivity[v])) {
+                        v = u;
+                    }
+                }
+                if(v == -1) {
+                    v = getRandomUnassigned(part, random);
+                    if(v == -1) {
+                        break;
+                    }
+                }
+                part[v] = p;
+                weight += graph.vertexWeights[v];
+                for(int j = graph.offsets[v]; j < graph.offsets[v + 1]; j++) {
+                    connectivity[graph.neighbors[j]] += graph.edgeWeights[j];
+                }
+            }
+            remainingWeight -= weight;
+        }
+
+        for(int v = 0; v < n; v++) {
+            if(part[v] == -1) {
+                part[v] = numPartitions - 1;
+            }
+        }
+        return part;
+    }
+
+    private static int getRandomUnassigned(int[] part, Random random) {
+        int start = random.nextInt(part.length);
+        for(int i = 0; i < part.length; i++) {
+            int v = (start + i) % part.length;
+            if(part[v] == -1) {
+                return v;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * First moves vertices off any overweight part, then makes greedy passes over the boundary vertices, moving each
+     * to the adjacent part that most reduces the cut (or, at equal cut, evens out the weights) without overfilling it.
+     * Once that converges, FM passes climb out of the local minimum it leaves behind.
+     */
+    static void refine(Graph graph, int[] part, int numPartitions, Random random) {
+        int[] partWeights = getPartWeights(graph, part, numPartitions);
+        int maxPartWeight = getMaxPartWeight(graph, numPartitions);
+        int[] connectivity = new int[numPartitions];
+        int[] order = getRandomOrder(graph.numVertices, random);
+
+        drainOverweightParts(graph, part, partWeights, maxPartWeight, order, connectivity, null);
+
+        for(int pass = 0; pass < MAX_REFINEMENT_PASSES; pass++) {
+            int moves = 0;
+            for(int v : order) {
+                int best = getBestMove(graph, part, partWeights, maxPartWeight, v, connectivity);
+                if(best != -1) {
+                    move(graph, part, partWeights, v, best);
+                    moves++;
+                }
+            }
+            if(moves == 0) {
+                break;
+            }
+        }
+
+        fmPasses(graph, part, partWeights, maxPartWeight, order, connectivity, null);
+    }
+
+    /**
+     * Runs FM passes over the given vertices until one stops lowering the cut.  Only these vertices ever move.
+     *
+     * @param originalParts if not null, records the part each vertex had before its first move
+     */
+    private static void fmPasses(Graph graph, int[] part, int[] partWeights, int maxPartWeight, int[] order, int[] connectivity, TIntIntMap originalParts) {
+        TIntIntMap rank = new TIntIntHashMap(order.length + 1);
+        for(int i = 0; i < order.length; i++) {
+            rank.put(order[i], i);
+        }
+        TIntSet locked = new TIntHashSet();
+        for(int pass = 0; pass < MAX_FM_PASSES; pass++) {
+            if(fmPass(graph, part, partWeights, maxPartWeight, order, rank, locked, connectivity, originalParts) <= 0) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * One k-way Fiduccia-Mattheyses pass: repeatedly moves the unlocked boundary vertex with the highest gain, even
+     * when that gain is negative, and locks it.  The pass gives up after {@link #MAX_FM_MOVES_WITHOUT_IMPROVEMENT}
+     * moves without a new best cut, then undoes every move after the best prefix.  Only vertices in order are
+     * considered, and ties between equal gains go to the vertex earlier in it.
+     *
+     * @param rank each vertex of order -> its position there
+     * @return how much the pass lowered the cut
+     */
+    private static int fmPass(Graph graph, int[] part, int[] partWeights, int maxPartWeight, int[] order, TIntIntMap rank, TIntSet locked, int[] connectivity, TIntIntMap originalParts) {
+        //keys sort by descending gain, then by rank
+        PriorityQueue<Long> queue = new PriorityQueue<>();
+        int[] gain = new int[1];
+        for(int i = 0; i < order.length; i++) {
+            if(getFmMove(graph, part, partWeights, maxPartWeight, order[i], connectivity, gain) != -1) {
+                queue.add(getFmKey(gain[0], i));
+            }
+        }
+
+        TIntArrayList moved = new TIntArrayList();
+        TIntArrayList movedFrom = new TIntArrayList();
+        int totalGain = 0;
+        int bestGain = 0;
+        int bestLength = 0;
+        while(!queue.isEmpty() && moved.size() - bestLength < MAX_FM_MOVES_WITHOUT_IMPROVEMENT) {
+            long key = queue.poll();
+            int v = order[(int) key];
+            if(locked.contains(v)) {
+                continue;
+            }
+            int to = getFmMove(graph, part, partWeights, maxPartWeight, v, connectivity, gain);
+            if(to == -1) {
+                continue;
+            }
+            if(gain[0] != -(int) (key >> 32)) {
+                //stale: a neighbor moved since this key was queued
+                queue.add(getFmKey(gain[0], (int) key));
+                continue;
+            }
+
+            locked.add(v);
+            moved.add(v);
+            movedFrom.add(part[v]);
+            if(originalParts != null) {
+                originalParts.putIfAbsent(v, part[v]);
+            }
+            move(graph, part, partWeights, v, to);
+            totalGain += gain[0];
+            if(totalGain > bestGain) {
+                bestGain = totalGain;
+                bestLength = moved.size();
+            }
+
+            for(int j = graph.offsets[v]; j < graph.offsets[v + 1]; j++) {
+                int u = graph.neighbors[j];
+                if(rank.containsKey(u) && !locked.contains(u) && getFmMove(graph, part, partWeights, maxPartWeight, u, connectivity, gain) != -1) {
+                    queue.add(getFmKey(gain[0], rank.get(u)));
+                }
+            }
+        }
+
+        for(int i = moved.size() - 1; i >= bestLength; i--) {
+            move(graph, part, partWeights, moved.getQuick(i), movedFrom.getQuick(i));
+        }
+        locked.clear();
+        return bestGain;
+    }
+
+    private static long getFmKey(int gain, int rank) {
+        return ((long) -gain << 32) | rank;
+    }
+
+    /**
+     * @return the adjacent part with room for v that v gains the most (possibly a negative amount) by moving to,
+     * preferring the lighter part at equal gain, or -1 if v has no such neighbor; the gain is left in gain[0]
+     */
+    private static int getFmMove(Graph graph, int[] part, int[] partWeights, int maxPartWeight, int v, int[] connectivity, int[] gain) {
+        int from = part[v];
+        int vertexWeight = graph.vertexWeights[v];
+        computeConnectivity(graph, part, v, connectivity);
+        int internal = connectivity[from];
+
+        int best = -1;
+        for(int j = graph.offsets[v]; j < graph.offsets[v + 1]; j++) {
+            int p = part[graph.neighbors[j]];
+            if(p == from || p == best || partWeights[p] + vertexWeight > maxPartWeight) {
+                continue;
+            }
+            if(best == -1 || connectivity[p] > connectivity[best] || (connectivity[p] == connectivity[best] && partWeights[p] < partWeights[best])) {
+                best = p;
+            }
+        }
+        if(best != -1) {
+            gain[0] = connectivity[best] - internal;
+        }
+        clearConnectivity(graph, part, v, connectivity);
+        return best;
+    }
+
+    /**
+     * Warm-started refinement of an existing assignment, with no coarsening.  Only the given rows are examined at
+     * first; whenever a vertex moves, its neighbors are queued for another look, so the work stays local to the
+     * changed part of the graph.  Every move lowers the cut or evens out the weights, so this terminates.  Once
+     * the queue drains, FM passes run over the rows it examined; only those rows can move, and each pass rolls back
+     * to its best prefix.
+     *
+     * @param part the part (0..numPartitions-1) of each row of the snapshot; updated in place
+     * @return the rows whose part changed
+     */
+    public static int[] refineFrom(AdjacencySnapshot snapshot, int[] part, int numPartitions, int[] startRows, Random random) {
+        if(numPartitions <= 1) {
+            return new int[0];
+        }
+        Graph graph = Graph.fromSnapshot(snapshot);
+        return refineFrom(graph, part, getPartWeights(graph, part, numPartitions), startRows, random);
+    }
+
+    /**
+     * Same as above, but with the part weights kept up to date by the caller.  Unless a part is overweight, the
+     * work is proportional to the rows visited, not to the size of the graph.
+     */
+    static int[] refineFrom(Graph graph, int[] part, int[] partWeights, int[] startRows, Random random) {
+        int numPartitions = partWeights.length;
+        int maxPartWeight = getMaxPartWeight(graph, numPartitions);
+        int[] connectivity = new int[numPartitions];
+
+        //row -> its part before this call, for every row that has moved
+        TIntIntMap originalParts = new TIntIntHashMap();
+        for(int weight : partWeights) {
+            if(weight > maxPartWeight) {
+                drainOverweightParts(graph, part, partWeights, maxPartWeight, getRandomOrder(graph.numVertices, random), connectivity, originalParts);
+                break;
+            }
+        }
+
+        int[] startOrder = startRows.clone();
+        shuffle(startOrder, random);
+        TIntSet queued = new TIntHashSet(startOrder.length + 1);
+        TIntArrayList queue = new TIntArrayList(startOrder.length + 1);
+        for(int v : startOrder) {
+            if(queued.add(v)) {
+                queue.add(v);
+            }
+        }
+
+        for(int i = 0; i < queue.size(); i++) {
+            int v = queue.getQuick(i);
+            queued.remove(v);
+            int best = getBestMove(graph, part, partWeights, maxPartWeight, v, connectivity);
+            if(best == -1) {
+                continue;
+            }
+            originalParts.putIfAbsent(v, part[v]);
+            move(graph, part, partWeights, v, best);
+            for(int j = graph.offsets[v]; j < graph.offsets[v + 1]; j++) {
+                int u = graph.neighbors[j];
+                if(queued.add(u)) {
+                    queue.add(u);
+                }
+            }
+        }
+
+        //then climb out of the local minimum the greedy moves leave, without leaving the rows they looked at
+        TIntSet inRegion = new TIntHashSet(queue.size() + originalParts.size() + 1);
+        TIntArrayList region = new TIntArrayList(queue.size() + originalParts.size() + 1);
+        for(int i = 0; i < queue.size(); i++) {
+            if(inRegion.add(queue.getQuick(i))) {
+                region.add(queue.getQuick(i));
+            }
+        }
+        for(int v : originalParts.keys()) {
+            if(inRegion.add(v)) {
+                region.add(v);
+            }
+        }
+        fmPasses(graph, part, partWeights, maxPartWeight, region.toArray(), connectivity, originalParts);
+
+        TIntArrayList movedRows = new TIntArrayList(originalParts.size() + 1);
+        for(TIntIntIterator iter = originalParts.iterator(); iter.hasNext(); ) {
+            iter.advance();
+            if(part[iter.key()] != iter.value()) {
+                movedRows.add(iter.key());
+            }
+        }
+        return movedRows.toArray();
+    }
+
+    /**
+     * @param originalParts if not null, records the part each vertex had before its first move
+     */
+    private static void drainOverweightParts(Graph graph, int[] part, int[] partWeights, int maxPartWeight, int[] order, int[] connectivity, TIntIntMap originalParts) {
+        int numPartitions = partWeights.length;
+        for(int v : order) {
+            int from = part[v];
+            if(partWeights[from] <= maxPartWeight) {
+                continue;
+            }
+            computeConnectivity(graph, part, v, connectivity);
+            int best = -1;
+            for(int p = 0; p < numPartitions; p++) {
+                if(p != from && partWeights[p] + graph.vertexWeights[v] <= maxPartWeight
+                        && (best == -1 || connectivity[p] > connectivity[best] || (connectivity[p] == connectivity[best] && partWeights[p] < partWeights[best]))) {
+                    best = p;
+                }
+            }
+            clearConnectivity(graph, part, v, connectivity);
+            if(best != -1) {
+                if(originalParts != null) {
+                    originalParts.putIfAbsent(v, part[v]);
+                }
+                move(graph, part, partWeights, v, best);
+            }
+        }
+    }
+
+    /**
+     * @return the adjacent part that v should move to, or -1 if no move lowers the cut or, at equal cut, evens out
+     * the weights without overfilling the destination
+     */
+    private static int getBestMove(Graph graph, int[] part, int[] partWeights, int maxPartWeight, int v, int[] connectivity) {
+        int from = part[v];
+        int vertexWeight = graph.vertexWeights[v];
+        computeConnectivity(graph, part, v, connectivity);
+        int internal = connectivity[from];
+
+        int best = -1;
+        int bestGain = 0;
+        for(int j = graph.offsets[v]; j < graph.offsets[v + 1]; j++) {
+            int p = part[graph.neighbors[j]];
+            if(p == from || p == best || partWeights[p] + vertexWeight > maxPartWeight) {
+                continue;
+            }
+            int gain = connectivity[p] - internal;
+            boolean acceptable = gain > 0 || (gain == 0 && partWeights[p] + vertexWeight < partWeights[from]);
+            if(acceptable && (best == -1 || gain > bestGain || (gain == bestGain && partWeights[p] < partWeights[best]))) {
+                best = p;
+                bestGain = gain;
+            }
+        }
+        clearConnectivity(graph, part, v, connectivity);
+        return best;
+    }
+
+    private static int[] getPartWeights(Graph graph, int[] part, int numPartitions) {
+        int[] partWeights = new int[numPartitions];
+        for(int v = 0; v < graph.numVertices; v++) {
+            partWeights[part[v]] += graph.vertexWeights[v];
+        }
+        return partWeights;
+    }
+
+    private static int getMaxPartWeight(Graph graph, int numPartitions) {
+        int totalWeight = graph.totalVertexWeight;
+        return Math.max((int) Math.ceil(IMBALANCE_TOLERANCE * totalWeight / numPartitions), totalWeight / numPartitions + graph.maxVertexWeight);
+    }
+
+    private static void computeConnectivity(Graph graph, int[] part, int v, int[] connectivity) {
+        for(int j = graph.offsets[v]; j < graph.offsets[v + 1]; j++) {
+            connectivity[part[graph.neighbors[j]]] += graph.edgeWeights[j];
+        }
+    }
+
+    private static void clearConnectivity(Graph graph, int[] part, int v, int[] connectivity) {
+        for(int j = graph.offsets[v]; j < graph.offsets[v + 1]; j++) {
+            connectivity[part[graph.neighbors[j]]] = 0;
+        }
+        connectivity[part[v]] = 0;
+    }
+
+    private static void move(Graph graph, int[] part, int[] partWeights, int v, int to) {
+        partWeights[part[v]] -= graph.vertexWeights[v];
+        partWeights[to] += graph.vertexWeights[v];
+        part[v] = to;
+    }
+
+    static int getEdgeCut(Graph graph, int[] part) {
+        int cut = 0;
+        for(int v = 0; v < graph.numVertices; v++) {
+            for(int j = graph.offsets[v]; j < graph.offsets[v + 1]; j++) {
+                if(part[v] != part[graph.neighbors[j]]) {
+                    cut += graph.edgeWeights[j];
+                }
+            }
+        }
+        return cut / 2;
+    }
+
+    private static int[] getRandomOrder(int n, Random random) {
+        int[] order = new int[n];
+        for(int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        shuffle(order, random);
+        return order;
+    }
+
+    /**
+     * Weighted CSR graph for one level of the hierarchy; coarseMap, once set, maps each vertex to its vertex on the
+     * next coarser level.
+     */
+    static class Graph {
+        //all ones, shared by every unit-weight graph and only ever grown
+        private static volatile int[] ones = new int[0];
+
+        final int numVertices;
+        final int[] offsets;
+        final int[] neighbors;
+        final int[] edgeWeights;
+        final int[] vertexWeights;
+        final int totalVertexWeight;
+        final int maxVertexWeight;
+        int[] coarseMap;
+
+        Graph(int[] offsets, int[] neighbors, int[] edgeWeights, int[] vertexWeights) {
+            this.numVertices = vertexWeights.length;
+            this.offsets = offsets;
+            this.neighbors = neighbors;
+            this.edgeWeights = edgeWeights;
+            this.vertexWeights = vertexWeights;
+            int total = 0;
+            int max = 0;
+            for(int weight : vertexWeights) {
+                total += weight;
+                max = Math.max(max, weight);
+            }
+            this.totalVertexWeight = total;
+            this.maxVertexWeight = max;
+        }
+
+        private Graph(int numVertices, int[] offsets, int[] neighbors, int[] ones) {
+            this.numVertices = numVertices;
+            this.offsets = offsets;
+            this.neighbors = neighbors;
+            this.edgeWeights = ones;
+            this.vertexWeights = ones;
+            this.totalVertexWeight = numVertices;
+            this.maxVertexWeight = numVertices > 0 ? 1 : 0;
+        }
+
+        /**
+         * Wraps the snapshot's arrays with unit weights.  The weights are shared between calls (and may be longer
+         * than the graph), so this allocates nothing once they have grown to the size of the graph.
+         */
+        static Graph fromSnapshot(AdjacencySnapshot snapshot) {
+            int[] neighborIndices = snapshot.getNeighborIndices();
+            return new Graph(snapshot.getNumUsers(), snapshot.getOffsets(), neighborIndices, getOnes(Math.max(snapshot.getNumUsers(), neighborIndices.length)));
+        }
+
+        private static int[] getOnes(int length) {
+            int[] current = ones;
+            if(current.length < length) {
+                current = new int[Math.max(length, 2 * current.length)];
+                Arrays.fill(current, 1);
+                ones = current;
+            }
+            return current;
+        }
+    }
+}
@@ -6,6 +6,9 @@ import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
+import io.vntr.utils.AdjacencySnapshot;
+
+import java.util.Random;
 
 import static io.vntr.utils.TroveUtils.*;
 
@@ -13,9 +16,9 @@ import static io.vntr.utils.TroveUtils.*;
  * Created by robertlindquist on 6/4/17.
  */
 public class ReplicaMetisRepartitioner {
-    public static RepResults repartition(String commandLiteral, String tempDir, TIntObjectMap<TIntSet> friendships, TIntSet pids, int minNumReplicas) {
+    public static RepResults repartition(String commandLiteral, String tempDir, TIntObjectMap<TIntSet> friendships, TIntSet pids, int minNumReplicas, Random random) {
 
-        TIntIntMap uidToPidMap = MetisRepartitioner.partition(commandLiteral, tempDir, friendships, pids);
+        TIntIntMap uidToPidMap = MetisRepartitioner.partition(commandLiteral, tempDir, AdjacencySnapshot.fromFriendships(friendships), pids, random);
 
         TIntObjectMap<TIntSet> partitions = new TIntObjectHashMap<>(pids.size()+1);
         for(TIntIterator iter = pids.iterator(); iter.hasNext(); ) {
@@ -26,7 +29,7 @@ public class ReplicaMetisRepartitioner {
             partitions.get(pid).add(uid);
         }
 
-        TIntObjectMap<TIntSet> replicas = getInitialReplicasObeyingKReplication(minNumReplicas, partitions, friendships);
+        TIntObjectMap<TIntSet> replicas = getInitialReplicasObeyingKReplication(minNumReplicas, partitions, friendships, random);
 
         TIntObjectMap<TIntSet> uidToReplicasMap = getUToReplicasMap(replicas, friendships.keySet());
 
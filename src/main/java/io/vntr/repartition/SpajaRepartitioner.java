@@ -7,6 +7,11 @@ import gnu.trove.map.hash.TIntIntHashMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
+import io.vntr.utils.AdjacencySnapshot;
+import io.vntr.utils.PowerTable;
+
+import java.util.Arrays;
+import java.util.Random;
 
 import static io.vntr.utils.TroveUtils.*;
 
@@ -15,20 +20,24 @@ import static io.vntr.utils.TroveUtils.*;
  */
 public class SpajaRepartitioner {
 
-    public static RepResults repartition(int minNumReplicas, float alpha, float initialT, float deltaT, int k, TIntObjectMap<TIntSet> friendships, TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> replicas) {
+    public static RepResults repartition(int minNumReplicas, float alpha, float initialT, float deltaT, int k, TIntObjectMap<TIntSet> friendships, TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> replicas, Random random) {
+        return repartition(minNumReplicas, alpha, initialT, deltaT, k, AdjacencySnapshot.fromFriendships(friendships), partitions, replicas, random);
+    }
+
+    public static RepResults repartition(int minNumReplicas, float alpha, float initialT, float deltaT, int k, AdjacencySnapshot graph, TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> replicas, Random random) {
         int logicalMoves = 0;
         int initialNumReplicas = getLogicalReplicationCount(replicas);
 
         TIntIntMap bestLogicalPids = new TIntIntHashMap(partitions.size()+1);
         TIntObjectMap<TIntSet> bestLogicalReplicaPids = new TIntObjectHashMap<>(partitions.size()+1);
-        State state = getState(minNumReplicas, alpha, initialT, deltaT, k, friendships, partitions, replicas);
+        State state = getState(minNumReplicas, alpha, initialT, deltaT, k, graph, partitions, replicas);
 
+        int[] uids = graph.getUids();
         for(float t = initialT; t >= 1; t -= deltaT) {
-            int[] randomUserIdArray = new int[friendships.size()];
-            System.arraycopy(friendships.keys(), 0, randomUserIdArray, 0, friendships.size());
-            shuffle(randomUserIdArray);
+            int[] randomUserIdArray = uids.clone();
+            shuffle(randomUserIdArray, random);
             for (Integer uid : randomUserIdArray) {
-                TIntSet swapCandidates = getKDistinctValuesFromArray(k, friendships.keys());
+                TIntSet swapCandidates = getKDistinctValuesFromArray(k, uids, random);
 
                 Integer partnerId = findPartner(uid, swapCandidates, t, state);
                 if(partnerId != null) {
@@ -65,13 +74,12 @@ public class SpajaRepartitioner {
                 int mine = state.getLogicalReplicaPartitions().get(logicalPid).size();
                 int theirs = state.getLogicalReplicaPartitions().get(partnerLogicalPid).size();
 
-                SwapChanges swapChanges = getSwapChanges(uid, partnerId, state);
-
-                int deltaMine   = swapChanges.getAddToP1().size() - swapChanges.getRemoveFromP1().size();
-                int deltaTheirs = swapChanges.getAddToP2().size() - swapChanges.getRemoveFromP2().size();
+                boolean friends = state.getGraph().areFriends(uid, partnerId);
+                int deltaMine   = getSwapDelta(uid, partnerId, logicalPid, partnerLogicalPid, friends, state);
+                int deltaTheirs = getSwapDelta(partnerId, uid, partnerLogicalPid, logicalPid, friends, state);
 
-                float oldScore = calcScore(mine,             theirs,               state.getAlpha());
-                float newScore = calcScore(mine + deltaMine, theirs + deltaTheirs, state.getAlpha());
+                float oldScore = calcScore(mine,             theirs,               state.getPowers());
+                float newScore = calcScore(mine + deltaMine, theirs + deltaTheirs, state.getPowers());
 
                 if(newScore < bestScore && (newScore / t) < oldScore) {
                     bestPartnerId = partnerId;
@@ -95,11 +103,11 @@ public class SpajaRepartitioner {
         return count;
     }
 
-    static State getState(int minNumReplicas, float alpha, float initialT, float deltaT, int k, TIntObjectMap<TIntSet> friendships, TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> replicas) {
-        State state = new State(minNumReplicas, alpha, initialT, deltaT, k, friendships);
+    static State getState(int minNumReplicas, float alpha, float initialT, float deltaT, int k, AdjacencySnapshot graph, TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> replicas) {
+        State state = new State(minNumReplicas, alpha, initialT, deltaT, k, graph);
 
         state.setLogicalPids(getUToMasterMap(partitions));
-        state.setLogicalReplicaPids(getUToReplicasMap(replicas, friendships.keySet()));
+        state.setLogicalReplicaPids(getUToReplicasMap(replicas, graph.getUidSet()));
 
         TIntObjectMap<TIntSet> logicalReplicaPartitions = new TIntObjectHashMap<>(partitions.size()+1);
         for(Integer pid : partitions.keys()) {
@@ -110,8 +118,8 @@ public class SpajaRepartitioner {
         return state;
     }
 
-    static float calcScore(int replicasInP1, int replicasInP2, float alpha) {
-        return (float)(Math.pow(replicasInP1, alpha) + Math.pow(replicasInP2, alpha));
+    static float calcScore(int replicasInP1, int replicasInP2, PowerTable powers) {
+        return (float)(powers.pow(replicasInP1) + powers.pow(replicasInP2));
     }
 
     static void swap(Integer uid1, Integer uid2, State state) {
@@ -122,6 +130,8 @@ public class SpajaRepartitioner {
 
         state.getLogicalPids().put(uid1, pid2);
         state.getLogicalPids().put(uid2, pid1);
+        state.recordMove(uid1, pid1, pid2);
+        state.recordMove(uid2, pid2, pid1);
 
         for(TIntIterator iter = swapChanges.getAddToP1().iterator(); iter.hasNext(); ) {
             state.getLogicalReplicaPids().get(iter.next()).add(pid1);
@@ -144,16 +154,12 @@ public class SpajaRepartitioner {
     }
 
     static SwapChanges getSwapChanges(Integer uid1, Integer uid2, State state) {
-        TIntSet u1Friends = state.getFriendships().get(uid1);
-        TIntSet u2Friends = state.getFriendships().get(uid2);
-
         Integer pid1 = state.getLogicalPids().get(uid1);
         Integer pid2 = state.getLogicalPids().get(uid2);
 
-        boolean u1AndU2AreFriends = u1Friends.contains(uid2);
+        boolean u1AndU2AreFriends = state.getGraph().areFriends(uid1, uid2);
 
-        TIntSet mutualFriends = new TIntHashSet(u1Friends);
-        mutualFriends.retainAll(u2Friends);
+        TIntSet mutualFriends = getMutualFriends(uid1, uid2, state.getGraph());
 
         SwapChanges swapChanges = new SwapChanges();
         swapChanges.setPid1(pid1);
@@ -188,10 +194,102 @@ public class SpajaRepartitioner {
         return swapChanges;
     }
 
+    /**
+     * Counts what getSwapChanges would build for one side of a swap, without building it: for outUid leaving pid and
+     * inUid arriving from otherPid, returns |addToP| - |removeFromP|.  The friend-of-friend and "has a friend there"
+     * scans of the set-building version become lookups in the state's friend-count matrix.
+     */
+    static int getSwapDelta(int outUid, int inUid, int pid, int otherPid, boolean friends, State state) {
+        AdjacencySnapshot graph = state.getGraph();
+        int[] offsets = graph.getOffsets();
+        int[] neighbors = graph.getNeighbors();
+        int[] neighborIndices = graph.getNeighborIndices();
+        int[] friendCounts = state.getFriendCounts();
+        int[] logicalColumns = state.getLogicalColumns();
+        int numColumns = state.getNumColumns();
+        int column = state.getColumn(pid);
+        int otherColumn = state.getColumn(otherPid);
+        TIntObjectMap<TIntSet> logicalReplicaPids = state.getLogicalReplicaPids();
+        int minNumReplicas = state.getMinNumReplicas();
+
+        int outIndex = graph.indexOf(outUid);
+        int inIndex = graph.indexOf(inUid);
+
+        //addToP: inUid's friends who would need a replica on pid, plus outUid itself
+        int numToAdd = 0;
+        for(int j = offsets[inIndex]; j < offsets[inIndex + 1]; j++) {
+            if(logicalColumns[neighborIndices[j]] != column && !logicalReplicaPids.get(neighbors[j]).contains(pid)) {
+                numToAdd++;
+            }
+        }
+        TIntSet outReplicas = logicalReplicaPids.get(outUid);
+        if(friends || friendCounts[outIndex * numColumns + column] > 0 || (outReplicas.size() <= minNumReplicas && outReplicas.contains(otherPid))) {
+            numToAdd++;
+        }
+
+        //removeFromP: outUid's friends whose replicas on pid were only there for outUid, minus mutual friends.
+        //Rows are sorted, so mutual friends are found by walking inUid's row alongside.
+        int numToRemove = 0;
+        boolean inUidCounted = false;
+        int mutualCursor = offsets[inIndex];
+        for(int j = offsets[outIndex]; j < offsets[outIndex + 1]; j++) {
+            int friendId = neighbors[j];
+            while(mutualCursor < offsets[inIndex + 1] && neighbors[mutualCursor] < friendId) {
+                mutualCursor++;
+            }
+            if(mutualCursor < offsets[inIndex + 1] && neighbors[mutualCursor] == friendId) {
+                continue;
+            }
+            if(logicalColumns[neighborIndices[j]] == column || logicalReplicaPids.get(friendId).size() <= minNumReplicas) {
+                continue;
+            }
+            //outUid is on pid and is one of this friend's friends; anyone else there keeps the replica
+            if(friendCounts[neighborIndices[j] * numColumns + column] > 1) {
+                continue;
+            }
+            numToRemove++;
+            inUidCounted |= friendId == inUid;
+        }
+        TIntSet inReplicas = logicalReplicaPids.get(inUid);
+        if(!inUidCounted && inReplicas.contains(pid)) {
+            boolean addReplicaInCurrentPartition = friendCounts[inIndex * numColumns + otherColumn] > 0 || inReplicas.size() <= minNumReplicas;
+            if(inReplicas.size() + (addReplicaInCurrentPartition ? 1 : 0) > minNumReplicas) {
+                numToRemove++;
+            }
+        }
+
+        return numToAdd - numToRemove;
+    }
+
+    static TIntSet getMutualFriends(int uid1, int uid2, AdjacencySnapshot graph) {
+        //Rows are sorted, so the intersection is a single merge
+        int[] offsets = graph.getOffsets();
+        int[] neighbors = graph.getNeighbors();
+        int index1 = graph.indexOf(uid1);
+        int index2 = graph.indexOf(uid2);
+        int i = offsets[index1];
+        int j = offsets[index2];
+        TIntSet mutualFriends = new TIntHashSet();
+        while(i < offsets[index1 + 1] && j < offsets[index2 + 1]) {
+            if(neighbors[i] < neighbors[j]) {
+                i++;
+            } else if(neighbors[i] > neighbors[j]) {
+                j++;
+            } else {
+                mutualFriends.add(neighbors[i]);
+                i++;
+                j++;
+            }
+        }
+        return mutualFriends;
+    }
+
     static TIntSet findReplicasToAddToTargetPartition(Integer uid, Integer targetPid, State state) {
         TIntSet replicasToAdd = new TIntHashSet();
-        for(TIntIterator iter = state.getFriendships().get(uid).iterator(); iter.hasNext(); ) {
-            int friendId = iter.next();
+        AdjacencySnapshot graph = state.getGraph();
+        int index = graph.indexOf(uid);
+        for(int j = graph.getOffsets()[index]; j < graph.getOffsets()[index + 1]; j++) {
+            int friendId = graph.getNeighbors()[j];
             int friendPid = state.getLogicalPids().get(friendId);
             if(targetPid != friendPid) {
                 TIntSet friendReplicaPids = state.getLogicalReplicaPids().get(friendId);
@@ -205,12 +303,12 @@ public class SpajaRepartitioner {
     }
 
     static boolean shouldWeAddAReplicaOfMovingUserInMovingPartition(Integer uid, int targetPid, State state) {
-        Integer pid = state.getLogicalPids().get(uid);
+        int pid = state.getLogicalPids().get(uid);
 
-        for(TIntIterator iter = state.getFriendships().get(uid).iterator(); iter.hasNext(); ) {
-            int friendId = iter.next();
-            Integer friendBasePid = state.getLogicalPids().get(friendId);
-            if (pid.equals(friendBasePid)) {
+        AdjacencySnapshot graph = state.getGraph();
+        int index = graph.indexOf(uid);
+        for(int j = graph.getOffsets()[index]; j < graph.getOffsets()[index + 1]; j++) {
+            if (pid == state.getLogicalPids().get(graph.getNeighbors()[j])) {
                 return true;
             }
         }
@@ -222,17 +320,22 @@ public class SpajaRepartitioner {
     static TIntSet findReplicasInMovingPartitionToDelete(int uid, int pid, TIntSet replicasToBeAdded, State state) {
         TIntSet replicasToDelete = new TIntHashSet();
         int minNumReplicas = state.getMinNumReplicas();
+        AdjacencySnapshot graph = state.getGraph();
+        int[] offsets = graph.getOffsets();
+        int[] neighbors = graph.getNeighbors();
+        int index = graph.indexOf(uid);
 
- outer: for(TIntIterator iter = state.getFriendships().get(uid).iterator(); iter.hasNext(); ) {
-            int friendId = iter.next();
+ outer: for(int j = offsets[index]; j < offsets[index + 1]; j++) {
+            int friendId = neighbors[j];
             int friendPid = state.getLogicalPids().get(friendId);
             if (friendPid != pid) {
                 int numReplicas = state.getLogicalReplicaPids().get(friendId).size() + (replicasToBeAdded.contains(friendId) ? 1 : 0);
                 if(numReplicas <= minNumReplicas) {
                     continue;
                 }
-                for(TIntIterator iter2 = state.getFriendships().get(friendId).iterator(); iter2.hasNext(); ) {
-                    int friendOfFriendId = iter2.next();
+                int friendIndex = graph.indexOf(friendId);
+                for(int l = offsets[friendIndex]; l < offsets[friendIndex + 1]; l++) {
+                    int friendOfFriendId = neighbors[l];
                     if (friendOfFriendId == uid) {
                         continue;
                     }
@@ -319,16 +422,28 @@ public class SpajaRepartitioner {
     static class State {
         private final int minNumReplicas;
         private final float alpha;
-        private final TIntObjectMap<TIntSet> friendships;
+        private final PowerTable powers;
+        private final AdjacencySnapshot graph;
 
         private TIntIntMap logicalPids;
         private TIntObjectMap<TIntSet> logicalReplicaPids;
         private TIntObjectMap<TIntSet> logicalReplicaPartitions;
 
+        //friendCounts[row * numColumns + column]: friends of the user in graph row `row` on partition pidsByColumn[column];
+        //logicalColumns[row]: that user's own column.  Both are built on first use and kept in step by swap.
+        private int[] pidsByColumn;
+        private int[] friendCounts;
+        private int[] logicalColumns;
+
         public State(int minNumReplicas, float alpha, float initialT, float deltaT, int k, TIntObjectMap<TIntSet> friendships) {
+            this(minNumReplicas, alpha, initialT, deltaT, k, AdjacencySnapshot.fromFriendships(friendships));
+        }
+
+        public State(int minNumReplicas, float alpha, float initialT, float deltaT, int k, AdjacencySnapshot graph) {
             this.minNumReplicas = minNumReplicas;
             this.alpha = alpha;
-            this.friendships = friendships;
+            this.powers = new PowerTable(alpha);
+            this.graph = graph;
         }
 
         public int getMinNumReplicas() {
@@ -339,8 +454,12 @@ public class SpajaRepartitioner {
             return alpha;
         }
 
-        public TIntObjectMap<TIntSet> getFriendships() {
-            return friendships;
+        public PowerTable getPowers() {
+            return powers;
+        }
+
+        public AdjacencySnapshot getGraph() {
+            return graph;
         }
 
         public TIntIntMap getLogicalPids() {
@@ -349,6 +468,64 @@ public class SpajaRepartitioner {
 
         public void setLogicalPids(TIntIntMap logicalPids) {
             this.logicalPids = logicalPids;
+            this.friendCounts = null;
+        }
+
+        int[] getFriendCounts() {
+            if(friendCounts == null) {
+                initFriendCounts();
+            }
+            return friendCounts;
+        }
+
+        int[] getLogicalColumns() {
+            getFriendCounts();
+            return logicalColumns;
+        }
+
+        int getNumColumns() {
+            return pidsByColumn.length;
+        }
+
+        int getColumn(int pid) {
+            return Arrays.binarySearch(pidsByColumn, pid);
+        }
+
+        private void initFriendCounts() {
+            pidsByColumn = logicalReplicaPartitions.keys();
+            Arrays.sort(pidsByColumn);
+            int numColumns = pidsByColumn.length;
+            int[] uids = graph.getUids();
+            int[] offsets = graph.getOffsets();
+            int[] neighborIndices = graph.getNeighborIndices();
+            logicalColumns = new int[uids.length];
+            for(int i = 0; i < uids.length; i++) {
+                logicalColumns[i] = getColumn(logicalPids.get(uids[i]));
+            }
+            friendCounts = new int[uids.length * numColumns];
+            for(int i = 0; i < uids.length; i++) {
+                for(int j = offsets[i]; j < offsets[i + 1]; j++) {
+                    friendCounts[i * numColumns + logicalColumns[neighborIndices[j]]]++;
+                }
+            }
+        }
+
+        void recordMove(int uid, int fromPid, int toPid) {
+            if(friendCounts == null) {
+                return;
+            }
+            int numColumns = pidsByColumn.length;
+            int fromColumn = getColumn(fromPid);
+            int toColumn = getColumn(toPid);
+            int[] offsets = graph.getOffsets();
+            int[] neighborIndices = graph.getNeighborIndices();
+            int index = graph.indexOf(uid);
+            logicalColumns[index] = toColumn;
+            for(int j = offsets[index]; j < offsets[index + 1]; j++) {
+                int row = neighborIndices[j] * numColumns;
+                friendCounts[row + fromColumn]--;
+                friendCounts[row + toColumn]++;
+            }
         }
 
         public TIntObjectMap<TIntSet> getLogicalReplicaPids() {
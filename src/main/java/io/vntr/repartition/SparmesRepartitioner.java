@@ -7,6 +7,7 @@ import gnu.trove.map.hash.TIntIntHashMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
+import io.vntr.utils.AdjacencySnapshot;
 
 import java.util.*;
 
@@ -17,9 +18,13 @@ import static io.vntr.utils.TroveUtils.*;
  */
 public class SparmesRepartitioner {
 
-    public static RepResults repartition(int k, int maxIterations, float gamma, int minNumReplicas, TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> replicas, TIntObjectMap<TIntSet> friendships) {
+    public static RepResults repartition(int k, int maxIterations, float gamma, int minNumReplicas, TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> replicas, TIntObjectMap<TIntSet> friendships, Random random) {
+        return repartition(k, maxIterations, gamma, minNumReplicas, partitions, replicas, AdjacencySnapshot.fromFriendships(friendships), random);
+    }
+
+    public static RepResults repartition(int k, int maxIterations, float gamma, int minNumReplicas, TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> replicas, AdjacencySnapshot graph, Random random) {
         int moves = 0;
-        State state = State.init(minNumReplicas, gamma, partitions, replicas, friendships);
+        State state = State.init(minNumReplicas, gamma, partitions, replicas, graph, random);
 
         for(int i=0; i<maxIterations; i++) {
             int movesBeforeIteration = moves;
@@ -35,7 +40,7 @@ public class SparmesRepartitioner {
         }
 
         TIntIntMap uidsToPids = getUToMasterMap(state.getLogicalPartitions());
-        TIntObjectMap<TIntSet> uidsToReplicaPids = getUToReplicasMap(state.getLogicalReplicaPartitions(), friendships.keySet());
+        TIntObjectMap<TIntSet> uidsToReplicaPids = getUToReplicasMap(state.getLogicalReplicaPartitions(), graph.getUidSet());
 
         return new RepResults(moves, uidsToPids, uidsToReplicaPids);
     }
@@ -47,9 +52,8 @@ public class SparmesRepartitioner {
             targets.addAll(getPartitionCandidates(pid, firstStage, k, state));
         }
 
-        TIntObjectMap<TIntSet> uidToReplicaPids = getUToReplicasMap(state.getLogicalReplicaPartitions(), state.getLogicalUsers().keySet());
         for(Target target : targets) {
-            migrateLogically(target, state, uidToReplicaPids);
+            migrateLogically(target, state);
         }
 
         return targets.size();
@@ -74,7 +78,11 @@ public class SparmesRepartitioner {
         return topKCandidates;
     }
 
-    static void migrateLogically(Target target, State state, TIntObjectMap<TIntSet> uidToReplicaPids) {
+    /**
+     * Replica counts are read from the logical users, which are only refreshed between stages; so every migration in
+     * a stage sees the replica counts from the start of that stage.
+     */
+    static void migrateLogically(Target target, State state) {
         TIntObjectMap<TIntSet> logicalPids = state.getLogicalPartitions();
         TIntObjectMap<TIntSet> logicalReplicaPids = state.getLogicalReplicaPartitions();
 
@@ -88,20 +96,21 @@ public class SparmesRepartitioner {
         //Add the actual user
         oldMasters.remove(target.uid);
         newMasters.add(target.uid);
+        state.recordMove(target.uid, target.oldPid, target.pid);
 
 
         //Add replicas as necessary
 
         //First, replicate user in old partition if necessary
-        if(!disjoint(user.getFriendIds(), oldMasters)) {
-            oldReplicas.add(target.uid);
+        if(!disjoint(user.getFriendIds(), oldMasters) && oldReplicas.add(target.uid)) {
+            state.recordReplicaAdded(target.uid, target.oldPid);
         }
 
         //Second, replicate friends in new partition if they aren't there already
         for(TIntIterator iter = user.getFriendIds().iterator(); iter.hasNext(); ) {
             int friendId = iter.next();
-            if(!newMasters.contains(friendId) && !newReplicas.contains(friendId)) {
-                newReplicas.add(friendId);
+            if(!newMasters.contains(friendId) && newReplicas.add(friendId)) {
+                state.recordReplicaAdded(friendId, target.pid);
             }
         }
 
@@ -109,16 +118,21 @@ public class SparmesRepartitioner {
         //Remove replicas as allowed
 
         //First, remove user replica from new partition if one exists
-        newReplicas.remove(target.uid); //doesn't cause a problem if it wasn't already there
+        if(newReplicas.remove(target.uid)) {
+            state.recordReplicaRemoved(target.uid, target.pid);
+        }
 
         //Second, if we've violated k-constraints, choose another partition at random and replicate this user there
-        TIntSet replicaPids = uidToReplicaPids.get(target.uid);
+        TIntSet replicaPids = user.getReplicaLocations();
         if(replicaPids.size() < user.getMinNumReplicas()) {
             TIntSet potentialReplicaLocations = new TIntHashSet(logicalReplicaPids.keySet());
             potentialReplicaLocations.remove(target.pid);
             potentialReplicaLocations.removeAll(replicaPids);
-            int newReplicaPid = getRandomElement(potentialReplicaLocations);
-            logicalReplicaPids.get(newReplicaPid).add(target.uid);
+            int newReplicaPid = getRandomElement(potentialReplicaLocations, state.random);
+            //it may have gained a replica there earlier in this stage
+            if(logicalReplicaPids.get(newReplicaPid).add(target.uid)) {
+                state.recordReplicaAdded(target.uid, newReplicaPid);
+            }
         }
 
         //Third, remove friends replicas from old partition if they weren't being used for any other reason and don't violate k-replication
@@ -129,9 +143,11 @@ public class SparmesRepartitioner {
             int friendId = iter.next();
             TIntSet friendsOfFriend = state.getLogicalUsers().get(friendId).getFriendIds();
             if(disjoint(friendsOfFriend, oldMasters)) {
-                int numFriendReplicas = uidToReplicaPids.get(friendId).size();
+                int numFriendReplicas = state.getLogicalUsers().get(friendId).getReplicaLocations().size();
                 if(numFriendReplicas > user.getMinNumReplicas()) {
-                    oldReplicas.remove(friendId);
+                    if(oldReplicas.remove(friendId)) {
+                        state.recordReplicaRemoved(friendId, target.oldPid);
+                    }
                 }
             }
         }
@@ -140,12 +156,27 @@ public class SparmesRepartitioner {
     static class State {
         private int minNumReplicas;
         private float gamma;
-        private TIntObjectMap<TIntSet> friendships;
+        private AdjacencySnapshot graph;
+        private Random random;
 
         private TIntObjectMap<LogicalUser> logicalUsers;
         private TIntObjectMap<TIntSet> logicalPartitions;
         private TIntObjectMap<TIntSet> logicalReplicaPartitions;
 
+        //Kept current through each stage, so that the logical users can be refreshed incrementally afterwards.
+        //friendCounts[row * numColumns + column] is how many friends the user in graph row `row` has on pidsByColumn[column];
+        //presenceCounts is the same, but counts replicas as well as masters.
+        private TIntIntMap uidToPidMap;
+        private TIntIntMap pToWeight;
+        private int[] pidsByColumn;
+        private int[] friendCounts;
+        private int[] presenceCounts;
+
+        //What changed since the logical users were last refreshed
+        private final TIntSet movedUids = new TIntHashSet();
+        private final TIntSet touchedPids = new TIntHashSet();
+        private final TIntSet replicaChangedUids = new TIntHashSet();
+
         public State() {
         }
 
@@ -173,11 +204,16 @@ public class SparmesRepartitioner {
             this.logicalReplicaPartitions = logicalReplicaPartitions;
         }
 
-        static State init(int minNumReplicas, float gamma, TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> replicas, TIntObjectMap<TIntSet> friendships) {
+        static State init(int minNumReplicas, float gamma, TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> replicas, TIntObjectMap<TIntSet> friendships, Random random) {
+            return init(minNumReplicas, gamma, partitions, replicas, AdjacencySnapshot.fromFriendships(friendships), random);
+        }
+
+        static State init(int minNumReplicas, float gamma, TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> replicas, AdjacencySnapshot graph, Random random) {
             State state = new State();
             state.minNumReplicas = minNumReplicas;
             state.gamma = gamma;
-            state.friendships = friendships;
+            state.graph = graph;
+            state.random = random;
 
             TIntObjectMap<TIntSet> logicalPartitions = new TIntObjectHashMap<>(partitions.size()+1);
             for(int pid : partitions.keys()) {
@@ -191,34 +227,207 @@ public class SparmesRepartitioner {
             }
             state.setLogicalReplicaPartitions(logicalReplicas);
 
-            state.updateLogicalUsers();
+            state.initTracking();
+            state.setLogicalUsers(initLogicalUsers(minNumReplicas, gamma, logicalPartitions, logicalReplicas, state.pToWeight, graph));
 
             return state;
         }
 
-        void updateLogicalUsers() {
-            setLogicalUsers(initLogicalUsers(minNumReplicas, gamma, logicalPartitions, logicalReplicaPartitions, friendships));
+        private void initTracking() {
+            uidToPidMap = getUToMasterMap(logicalPartitions);
+            pToWeight = getUserCounts(logicalPartitions);
+            pidsByColumn = logicalPartitions.keys();
+            Arrays.sort(pidsByColumn);
+
+            int numColumns = pidsByColumn.length;
+            int[] uids = graph.getUids();
+            int[] offsets = graph.getOffsets();
+            int[] neighbors = graph.getNeighbors();
+            friendCounts = new int[uids.length * numColumns];
+            for(int i = 0; i < uids.length; i++) {
+                for(int j = offsets[i]; j < offsets[i + 1]; j++) {
+                    friendCounts[i * numColumns + getColumn(uidToPidMap.get(neighbors[j]))]++;
+                }
+            }
+
+            presenceCounts = friendCounts.clone();
+            for(int pid : logicalReplicaPartitions.keys()) {
+                for(TIntIterator iter = logicalReplicaPartitions.get(pid).iterator(); iter.hasNext(); ) {
+                    adjustNeighborCounts(presenceCounts, iter.next(), getColumn(pid), 1);
+                }
+            }
         }
 
-        static TIntObjectMap<LogicalUser> initLogicalUsers(int minNumReplicas, float gamma, TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> replicas, TIntObjectMap<TIntSet> friendships) {
-            TIntObjectMap<LogicalUser> logicalUsers = new TIntObjectHashMap<>(friendships.size()+1);
+        private void adjustNeighborCounts(int[] counts, int uid, int column, int delta) {
+            int numColumns = pidsByColumn.length;
+            int[] offsets = graph.getOffsets();
+            int[] neighborIndices = graph.getNeighborIndices();
+            int index = graph.indexOf(uid);
+            for(int j = offsets[index]; j < offsets[index + 1]; j++) {
+                counts[neighborIndices[j] * numColumns + column] += delta;
+            }
+        }
+
+        private int getColumn(int pid) {
+            return Arrays.binarySearch(pidsByColumn, pid);
+        }
+
+        void recordMove(int uid, int oldPid, int newPid) {
+            uidToPidMap.put(uid, newPid);
+            movedUids.add(uid);
+            touchedPids.add(oldPid);
+            touchedPids.add(newPid);
+
+            int oldColumn = getColumn(oldPid);
+            int newColumn = getColumn(newPid);
+            adjustNeighborCounts(friendCounts, uid, oldColumn, -1);
+            adjustNeighborCounts(friendCounts, uid, newColumn, 1);
+            adjustNeighborCounts(presenceCounts, uid, oldColumn, -1);
+            adjustNeighborCounts(presenceCounts, uid, newColumn, 1);
+        }
+
+        void recordReplicaAdded(int uid, int pid) {
+            replicaChangedUids.add(uid);
+            adjustNeighborCounts(presenceCounts, uid, getColumn(pid), 1);
+        }
+
+        void recordReplicaRemoved(int uid, int pid) {
+            replicaChangedUids.add(uid);
+            adjustNeighborCounts(presenceCounts, uid, getColumn(pid), -1);
+        }
+
+        /**
+         * Refreshes the logical users after a stage.  Only users whose fields can have changed are rebuilt: the movers
+         * and the users whose replicas changed, their friends, and those friends-of-movers' friends who sit on a
+         * partition a mover left or joined (their count of deletable friend replicas depends on who else is there).
+         */
+        void updateLogicalUsers() {
+            for(int pid : logicalPartitions.keys()) {
+                pToWeight.put(pid, logicalPartitions.get(pid).size());
+            }
+
+            TIntObjectMap<TIntSet> freshReplicaLocations = new TIntObjectHashMap<>(replicaChangedUids.size() + 1);
+            for(TIntIterator iter = replicaChangedUids.iterator(); iter.hasNext(); ) {
+                int uid = iter.next();
+                TIntSet replicaLocations = new TIntHashSet();
+                for(int pid : logicalReplicaPartitions.keys()) {
+                    if(logicalReplicaPartitions.get(pid).contains(uid)) {
+                        replicaLocations.add(pid);
+                    }
+                }
+                freshReplicaLocations.put(uid, replicaLocations);
+            }
+
+            int[] offsets = graph.getOffsets();
+            int[] neighbors = graph.getNeighbors();
+            TIntSet dirty = new TIntHashSet(movedUids);
+            dirty.addAll(replicaChangedUids);
+            for(TIntIterator iter = replicaChangedUids.iterator(); iter.hasNext(); ) {
+                int index = graph.indexOf(iter.next());
+                for(int j = offsets[index]; j < offsets[index + 1]; j++) {
+                    dirty.add(neighbors[j]);
+                }
+            }
+            for(TIntIterator iter = movedUids.iterator(); iter.hasNext(); ) {
+                int index = graph.indexOf(iter.next());
+                for(int j = offsets[index]; j < offsets[index + 1]; j++) {
+                    int friendId = neighbors[j];
+                    dirty.add(friendId);
+                    int friendIndex = graph.indexOf(friendId);
+                    for(int l = offsets[friendIndex]; l < offsets[friendIndex + 1]; l++) {
+                        int friendOfFriendId = neighbors[l];
+                        if(touchedPids.contains(uidToPidMap.get(friendOfFriendId))) {
+                            dirty.add(friendOfFriendId);
+                        }
+                    }
+                }
+            }
+
+            TIntObjectMap<LogicalUser> refreshed = new TIntObjectHashMap<>(dirty.size() + 1);
+            for(TIntIterator iter = dirty.iterator(); iter.hasNext(); ) {
+                int uid = iter.next();
+                refreshed.put(uid, refreshLogicalUser(uid, freshReplicaLocations));
+            }
+            logicalUsers.putAll(refreshed);
+
+            movedUids.clear();
+            touchedPids.clear();
+            replicaChangedUids.clear();
+        }
+
+        private TIntSet getReplicaLocations(int uid, TIntObjectMap<TIntSet> freshReplicaLocations) {
+            TIntSet fresh = freshReplicaLocations.get(uid);
+            return fresh != null ? fresh : logicalUsers.get(uid).getReplicaLocations();
+        }
+
+        private LogicalUser refreshLogicalUser(int uid, TIntObjectMap<TIntSet> freshReplicaLocations) {
+            LogicalUser old = logicalUsers.get(uid);
+            int pid = uidToPidMap.get(uid);
+            int numColumns = pidsByColumn.length;
+            int index = graph.indexOf(uid);
+            int row = index * numColumns;
+            int[] offsets = graph.getOffsets();
+            int[] neighbors = graph.getNeighbors();
+            int[] neighborIndices = graph.getNeighborIndices();
+            int degree = offsets[index + 1] - offsets[index];
+
+            int column = getColumn(pid);
+            TIntIntMap pToFriendCount = new TIntIntHashMap(numColumns + 1);
+            TIntIntMap numFriendsToAddInEachPartition = new TIntIntHashMap(numColumns + 1);
+            for(int column1 = 0; column1 < numColumns; column1++) {
+                pToFriendCount.put(pidsByColumn[column1], friendCounts[row + column1]);
+                if(column1 != column) {
+                    //you have to add a replica of each friend who isn't present in the partition
+                    numFriendsToAddInEachPartition.put(pidsByColumn[column1], degree - presenceCounts[row + column1]);
+                }
+            }
+
+            int numFriendReplicasToDeleteInSourcePartition = 0;
+            for(int j = offsets[index]; j < offsets[index + 1]; j++) {
+                //A friend's replica here can go if this user is its only friend here
+                if(friendCounts[neighborIndices[j] * numColumns + column] == 1) {
+                    TIntSet friendReplicas = getReplicaLocations(neighbors[j], freshReplicaLocations);
+                    if(friendReplicas.size() > minNumReplicas && friendReplicas.contains(pid)) {
+                        numFriendReplicasToDeleteInSourcePartition++;
+                    }
+                }
+            }
+
+            return new LogicalUser(
+                    uid,
+                    pid,
+                    gamma,
+                    old.getFriendIds(),
+                    pToFriendCount,
+                    pToWeight,
+                    new TIntHashSet(getReplicaLocations(uid, freshReplicaLocations)),
+                    numFriendsToAddInEachPartition,
+                    numFriendReplicasToDeleteInSourcePartition,
+                    friendCounts[row + column] > 0,
+                    old.getTotalWeight(),
+                    minNumReplicas
+            );
+        }
+
+        static TIntObjectMap<LogicalUser> initLogicalUsers(int minNumReplicas, float gamma, TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> replicas, TIntIntMap pToWeight, AdjacencySnapshot graph) {
+            int[] uids = graph.getUids();
+            TIntObjectMap<LogicalUser> logicalUsers = new TIntObjectHashMap<>(uids.length+1);
 
             int maxPid = max(partitions.keySet());
-            int maxUid = max(friendships.keySet());
+            int maxUid = uids[uids.length-1];
 
             TIntIntMap uidToPidMap = getUToMasterMap(partitions);
-            TIntObjectMap<TIntSet> uidToReplicaMap = getUToReplicasMap(replicas, friendships.keySet());
-            int[] numDeletionCandidates = getNumDeletionCandidates(maxUid, minNumReplicas, friendships, replicas, uidToPidMap, uidToReplicaMap);
-            TIntObjectMap<TIntIntMap> uidToNumFriendsToAddInEachPartition = getUidToNumFriendsToAddInEachPartition(friendships, uidToReplicaMap, uidToPidMap, partitions.keySet(), maxPid);
+            TIntObjectMap<TIntSet> uidToReplicaMap = getUToReplicasMap(replicas, graph.getUidSet());
+            int[] numDeletionCandidates = getNumDeletionCandidates(maxUid, minNumReplicas, graph, replicas, uidToPidMap, uidToReplicaMap);
+            TIntObjectMap<TIntIntMap> uidToNumFriendsToAddInEachPartition = getUidToNumFriendsToAddInEachPartition(graph, uidToReplicaMap, uidToPidMap, partitions.keySet(), maxPid);
 
-            TIntIntMap pToWeight = getUserCounts(partitions);
             int totalWeight = 0;
             for(int key : pToWeight.keys()) {
                 totalWeight += pToWeight.get(key);
             }
 
-            for(int uid : friendships.keys()) {
-                TIntSet friendIds = new TIntHashSet(friendships.get(uid));
+            for(int uid : uids) {
+                TIntSet friendIds = graph.getFriendSet(uid);
                 TIntIntMap pToFriendCount = getPToFriendCount(friendIds, uidToPidMap, partitions.keySet(), maxPid);
 
                 int numFriendReplicasToDeleteInSourcePartition = numDeletionCandidates[uid];
@@ -230,7 +439,7 @@ public class SparmesRepartitioner {
                         gamma,
                         friendIds,
                         pToFriendCount,
-                        new TIntIntHashMap(pToWeight),
+                        pToWeight,
                         new TIntHashSet(uidToReplicaMap.get(uid)),
                         uidToNumFriendsToAddInEachPartition.get(uid),
                         numFriendReplicasToDeleteInSourcePartition,
@@ -245,16 +454,19 @@ public class SparmesRepartitioner {
             return logicalUsers;
         }
 
-        static int[] getNumDeletionCandidates(int maxUid, int minNumReplicas, TIntObjectMap<TIntSet> friendships, TIntObjectMap<TIntSet> replicas, TIntIntMap uidToPidMap, TIntObjectMap<TIntSet> uidToReplicasMap) {
+        static int[] getNumDeletionCandidates(int maxUid, int minNumReplicas, AdjacencySnapshot graph, TIntObjectMap<TIntSet> replicas, TIntIntMap uidToPidMap, TIntObjectMap<TIntSet> uidToReplicasMap) {
             int[] numDeletionCandidates = new int[maxUid+1];
+            int[] offsets = graph.getOffsets();
+            int[] neighbors = graph.getNeighbors();
 
             for(int pid : replicas.keys()) {
 middle:         for(TIntIterator iter = replicas.get(pid).iterator(); iter.hasNext(); ) {
                     int replicaId = iter.next();
                     Integer friendOnPartition = null;
 
-                    for(TIntIterator iter2 = friendships.get(replicaId).iterator(); iter2.hasNext(); ) {
-                        int friendId = iter2.next();
+                    int index = graph.indexOf(replicaId);
+                    for(int j = offsets[index]; j < offsets[index + 1]; j++) {
+                        int friendId = neighbors[j];
                         if(uidToPidMap.get(friendId) == pid) {
                             if(friendOnPartition != null) {
                                 continue middle;
@@ -271,17 +483,20 @@ middle:         for(TIntIterator iter = replicas.get(pid).iterator(); iter.hasNe
             return numDeletionCandidates;
         }
 
-        static TIntObjectMap<TIntIntMap> getUidToNumFriendsToAddInEachPartition(TIntObjectMap<TIntSet> friendships, TIntObjectMap<TIntSet> uidToReplicaMap, TIntIntMap uidToPidMap, TIntSet pids, int maxPid) {
-            TIntObjectMap<TIntIntMap> uidToNumFriendsToAddInEachPartition = new TIntObjectHashMap<>(friendships.size()+1);
+        static TIntObjectMap<TIntIntMap> getUidToNumFriendsToAddInEachPartition(AdjacencySnapshot graph, TIntObjectMap<TIntSet> uidToReplicaMap, TIntIntMap uidToPidMap, TIntSet pids, int maxPid) {
+            int[] uids = graph.getUids();
+            int[] offsets = graph.getOffsets();
+            int[] neighbors = graph.getNeighbors();
+            TIntObjectMap<TIntIntMap> uidToNumFriendsToAddInEachPartition = new TIntObjectHashMap<>(uids.length+1);
 
-            for(int uid : friendships.keys()) {
+            for(int i = 0; i < uids.length; i++) {
+                int uid = uids[i];
                 //you have to add a replica of each friend who isn't present in the partition
-                TIntSet friendIds = friendships.get(uid);
                 int[] friendsToAdd = new int[maxPid+1];
-                Arrays.fill(friendsToAdd, friendIds.size());
+                Arrays.fill(friendsToAdd, offsets[i + 1] - offsets[i]);
 
-                for(TIntIterator iter = friendIds.iterator(); iter.hasNext(); ) {
-                    int friendId = iter.next();
+                for(int j = offsets[i]; j < offsets[i + 1]; j++) {
+                    int friendId = neighbors[j];
                     for(TIntIterator iter2 = uidToReplicaMap.get(friendId).iterator(); iter2.hasNext(); ) {
                         int friendLocation = iter2.next();
                         friendsToAdd[friendLocation]--;
@@ -0,0 +1,170 @@
+package io.vntr.trace;
+
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.NoSuchElementException;
+
+/**
+ * Memory-maps a trace written by {@link TraceConverter}.
+ *
+ * Layout (big-endian):
+ * <pre>
+ *   int   MAGIC, int VERSION
+ *   F     map-set section
+ *   PIDS  int n, int[n]
+ *   P     map-set section
+ *   R     map-set section
+ *   long  numActions
+ *   numActions * { byte action ordinal, int val1, int val2 }
+ * </pre>
+ * A map-set section is CSR-style: int numKeys (-1 if absent), int numValues, int[numKeys] keys,
+ * int[numKeys+1] offsets, int[numValues] values; the values for keys[i] are values[offsets[i] .. offsets[i+1]).
+ */
+public class BinaryTraceReader implements ITraceReader {
+    public static final int MAGIC = 0x56545243; //"VTRC"
+    public static final int VERSION = 1;
+    public static final int ACTION_RECORD_SIZE = 9;
+    public static final long MAX_FILE_SIZE = Integer.MAX_VALUE; //a MappedByteBuffer is int-indexed
+
+    private static final TraceAction.ACTION[] ACTIONS = TraceAction.ACTION.values();
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final Trace trace;
+    private final long numActions;
+    private final int limit;
+
+    private int numActionsRead;
+
+    public BinaryTraceReader(String filename) throws IOException {
+        this(filename, Integer.MAX_VALUE);
+    }
+
+    public BinaryTraceReader(String filename, int limit) throws IOException {
+        this.file = new RandomAccessFile(filename, "r");
+        this.limit = limit;
+        try {
+            FileChannel channel = file.getChannel();
+            if(channel.size() > MAX_FILE_SIZE) {
+                throw new IOException(filename + " is too large to map");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if(buffer.getInt() != MAGIC) {
+                throw new IOException(filename + " is not a binary trace");
+            }
+            int version = buffer.getInt();
+            if(version != VERSION) {
+                throw new IOException("Unsupported binary trace version " + version);
+            }
+
+            trace = new Trace();
+            trace.setFriendships(readMapSet());
+            readIntArray();
+            trace.setPartitions(readMapSet());
+            trace.setReplicas(readMapSet());
+
+            numActions = buffer.getLong();
+            if(buffer.remaining() != numActions * ACTION_RECORD_SIZE) {
+                throw new IOException("Malformed file");
+            }
+        } catch(IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    public static boolean isBinaryTrace(String filename) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(filename, "r");
+        try {
+            return file.length() >= 4 && file.readInt() == MAGIC;
+        } finally {
+            file.close();
+        }
+    }
+
+    private TIntObjectMap<TIntSet> readMapSet() {
+        int numKeys = buffer.getInt();
+        int numValues = buffer.getInt();
+        if(numKeys < 0) {
+            return null;
+        }
+
+        int[] keys = readInts(numKeys);
+        int[] offsets = readInts(numKeys + 1);
+        int[] values = readInts(numValues);
+
+        TIntObjectMap<TIntSet> mapSet = new TIntObjectHashMap<>(numKeys + 1);
+        for(int i=0; i<numKeys; i++) {
+            int start = offsets[i];
+            int end = offsets[i+1];
+            TIntSet set = new TIntHashSet(end - start + 1);
+            for(int j=start; j<end; j++) {
+                set.add(values[j]);
+            }
+            mapSet.put(keys[i], set);
+        }
+        return mapSet;
+    }
+
+    private int[] readIntArray() {
+        return readInts(buffer.getInt());
+    }
+
+    private int[] readInts(int n) {
+        int[] ints = new int[n];
+        IntBuffer view = buffer.asIntBuffer();
+        view.get(ints);
+        buffer.position(buffer.position() + (n << 2));
+        return ints;
+    }
+
+    @Override
+    public Trace getTrace() {
+        return trace;
+    }
+
+    public long getNumActions() {
+        return numActions;
+    }
+
+    @Override
+    public int getNumActionsRead() {
+        return numActionsRead;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return numActionsRead < numActions && numActionsRead < limit;
+    }
+
+    @Override
+    public TraceAction next() {
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        TraceAction.ACTION action = ACTIONS[buffer.get()];
+        int val1 = buffer.getInt();
+        int val2 = buffer.getInt();
+        numActionsRead++;
+        return new TraceAction(action, val1, val2);
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
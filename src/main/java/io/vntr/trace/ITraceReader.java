@@ -0,0 +1,12 @@
+package io.vntr.trace;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * A trace whose initial state is available up front and whose actions are produced one at a time.
+ */
+public interface ITraceReader extends Iterator<TraceAction>, Closeable {
+    Trace getTrace();
+    int getNumActionsRead();
+}
@@ -28,6 +28,10 @@ public class TraceArgs {
     private double validityCheckProbability = 0;
     private double logicalMigrationRatio = 0;
     private boolean exportCSV = true;
+    private boolean denseUids = false;
+    private int numThreads = 1;
+    private boolean incremental = false;
+    private Long seed;
 
 
     public TraceArgs(String type) {
@@ -191,6 +195,38 @@ public class TraceArgs {
         this.exportCSV = exportCSV;
     }
 
+    public boolean isDenseUids() {
+        return denseUids;
+    }
+
+    public void setDenseUids(boolean denseUids) {
+        this.denseUids = denseUids;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    public Long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(Long seed) {
+        this.seed = seed;
+    }
+
     public static final String NUM_ACTIONS_FLAG = "-n";
     public static final String REPLICAS_FLAG = "-minReps";
     public static final String GAMMA_FLAG = "-gamma";
@@ -206,6 +242,10 @@ public class TraceArgs {
     public static final String VALIDITY_FLAG = "-validity";
     public static final String LOGICAL_FLAG = "-logMig";
     public static final String EXPORT_CSV_FLAG = "-exportCSV";
+    public static final String DENSE_UIDS_FLAG = "-denseUids";
+    public static final String THREADS_FLAG = "-threads";
+    public static final String INCREMENTAL_FLAG = "-incremental";
+    public static final String SEED_FLAG = "-seed";
 
 
     public void setFlag(String flag, String rawValue) {
@@ -226,6 +266,10 @@ public class TraceArgs {
             case LOGICAL_FLAG:       setLogicalMigrationRatio(parsed);        break;
             case ITERATIONS_FLAG:    setMaxIterations((int) parsed);          break;
             case EXPORT_CSV_FLAG:    setExportCSV(parsed != 0);               break;
+            case DENSE_UIDS_FLAG:    setDenseUids(parsed != 0);               break;
+            case THREADS_FLAG:       setNumThreads((int) parsed);             break;
+            case INCREMENTAL_FLAG:   setIncremental(parsed != 0);             break;
+            case SEED_FLAG:          setSeed(Long.parseLong(rawValue));       break;
             default: throw new RuntimeException(flag + " is not a valid flag");
         }
     }
@@ -240,10 +284,22 @@ public class TraceArgs {
                 .append(" -delay ").append(latencyCheckProbability)
                 .append(" -validity ").append(validityCheckProbability);
 
+        if(denseUids) {
+            builder.append(" -denseUids 1");
+        }
+
+        if(numThreads > 1) {
+            builder.append(" -threads ").append(numThreads);
+        }
+
         if(numActions != null) {
             builder.append(" -n ").append(numActions);
         }
 
+        if(seed != null) {
+            builder.append(" -seed ").append(seed);
+        }
+
         //type-specific args
         if(   JABEJA_TYPE.equals(type) || JABAR_TYPE.equals(type) || J2_TYPE.equals(type) || SPAJA_TYPE.equals(type)
                 || HERMES_TYPE.equals(type) || HERMAR_TYPE.equals(type) || SPARMES_TYPE.equals(type)) {
@@ -265,6 +321,9 @@ public class TraceArgs {
         if(   JABEJA_TYPE.equals(type)) {
             builder.append(" -restarts ").append(numRestarts);
         }
+        if(   METIS_TYPE.equals(type)) {
+            builder.append(" -incremental ").append(incremental ? 1 : 0);
+        }
 
         return builder.toString();
     }
@@ -0,0 +1,151 @@
+package io.vntr.trace;
+
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.set.TIntSet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static io.vntr.trace.BinaryTraceReader.*;
+import static java.util.Arrays.sort;
+
+/**
+ * Converts a text trace into the binary format read by {@link BinaryTraceReader}.
+ * Traces too large for the reader to map are rejected rather than written.
+ *
+ * Usage: TraceConverter [text trace] [binary trace]
+ */
+public class TraceConverter {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    public static void main(String[] args) throws Exception {
+        if(args.length != 2) {
+            throw new IllegalArgumentException("Usage: TraceConverter [text trace] [binary trace]");
+        }
+        long numActions = convert(args[0], args[1]);
+        System.out.println("Wrote " + numActions + " actions to " + args[1]);
+    }
+
+    public static long convert(String textFilename, String binaryFilename) throws IOException {
+        return convert(textFilename, binaryFilename, MAX_FILE_SIZE);
+    }
+
+    static long convert(String textFilename, String binaryFilename, long maxFileSize) throws IOException {
+        TraceReader reader = new TraceReader(textFilename);
+        long numActions = 0;
+        long numActionsOffset;
+        try {
+            Trace trace = reader.getTrace();
+            FileOutputStream fileOut = new FileOutputStream(binaryFilename);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, BUFFER_SIZE));
+            boolean complete = false;
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeMapSet(out, trace.getFriendships());
+                writeIntArray(out, getPids(trace));
+                writeMapSet(out, trace.getPartitions());
+                writeMapSet(out, trace.getReplicas());
+
+                //The count is patched in once the actions have been streamed through.
+                //DataOutputStream.size() sticks at Integer.MAX_VALUE, so ask the channel instead.
+                out.flush();
+                numActionsOffset = fileOut.getChannel().position();
+                long fileSize = numActionsOffset + 8;
+                checkFileSize(binaryFilename, fileSize, maxFileSize);
+                out.writeLong(0L);
+
+                while(reader.hasNext()) {
+                    TraceAction action = reader.next();
+                    fileSize += ACTION_RECORD_SIZE;
+                    checkFileSize(binaryFilename, fileSize, maxFileSize);
+                    out.writeByte(action.getAction().ordinal());
+                    out.writeInt(action.getVal1());
+                    out.writeInt(action.getVal2());
+                    numActions++;
+                }
+                complete = true;
+            } finally {
+                out.close();
+                if(!complete) {
+                    new File(binaryFilename).delete();
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        RandomAccessFile file = new RandomAccessFile(binaryFilename, "rw");
+        try {
+            file.seek(numActionsOffset);
+            file.writeLong(numActions);
+        } finally {
+            file.close();
+        }
+
+        return numActions;
+    }
+
+    private static void checkFileSize(String binaryFilename, long fileSize, long maxFileSize) throws IOException {
+        if(fileSize > maxFileSize) {
+            throw new IOException(binaryFilename + " would be larger than the " + maxFileSize + " bytes BinaryTraceReader can map");
+        }
+    }
+
+    private static int[] getPids(Trace trace) {
+        if(trace.getPartitions() != null) {
+            int[] pids = trace.getPartitions().keys();
+            sort(pids);
+            return pids;
+        }
+        return new int[0];
+    }
+
+    static void writeMapSet(DataOutputStream out, TIntObjectMap<TIntSet> mapSet) throws IOException {
+        if(mapSet == null) {
+            out.writeInt(-1);
+            out.writeInt(0);
+            return;
+        }
+
+        int[] keys = mapSet.keys();
+        sort(keys);
+
+        int numValues = 0;
+        for(int key : keys) {
+            numValues += mapSet.get(key).size();
+        }
+
+        out.writeInt(keys.length);
+        out.writeInt(numValues);
+        for(int key : keys) {
+            out.writeInt(key);
+        }
+
+        int offset = 0;
+        out.writeInt(offset);
+        for(int key : keys) {
+            offset += mapSet.get(key).size();
+            out.writeInt(offset);
+        }
+
+        for(int key : keys) {
+            int[] values = mapSet.get(key).toArray();
+            sort(values);
+            for(int value : values) {
+                out.writeInt(value);
+            }
+        }
+    }
+
+    static void writeIntArray(DataOutputStream out, int[] array) throws IOException {
+        out.writeInt(array.length);
+        for(int value : array) {
+            out.writeInt(value);
+        }
+    }
+}
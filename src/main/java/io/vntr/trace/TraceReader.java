@@ -0,0 +1,138 @@
+package io.vntr.trace;
+
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.set.TIntSet;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+import static io.vntr.trace.TraceUtils.parseMapSetLine;
+import static io.vntr.trace.TraceUtils.parseSetLine;
+
+/**
+ * Streams a trace file: the F/PIDS/P/R header is parsed once when the reader is opened,
+ * and the actions are then read one line at a time, so memory use does not grow with the trace length.
+ */
+public class TraceReader implements ITraceReader {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final BufferedReader reader;
+    private final Trace trace;
+    private final int limit;
+
+    private TraceAction next;
+    private int numActionsRead;
+
+    public TraceReader(String filename) throws IOException {
+        this(filename, Integer.MAX_VALUE);
+    }
+
+    public TraceReader(String filename, int limit) throws IOException {
+        this.reader = new BufferedReader(new FileReader(filename), BUFFER_SIZE);
+        this.limit = limit;
+        try {
+            this.trace = readHeader();
+        } catch(IOException | RuntimeException e) {
+            reader.close();
+            throw e;
+        }
+    }
+
+    private Trace readHeader() throws IOException {
+        TIntObjectMap<TIntSet> friendships = null;
+        TIntSet pids = null;
+        TIntObjectMap<TIntSet> partitions = null;
+        TIntObjectMap<TIntSet> replicas = null;
+
+        String line;
+        while((line = reader.readLine()) != null) {
+            if(line.startsWith("F: ")) {
+                friendships = parseMapSetLine(line.substring(3));
+            } else if(line.startsWith("PIDS: ")) {
+                pids = parseSetLine(line.substring(6));
+            } else if(line.startsWith("P: ")) {
+                partitions = parseMapSetLine(line.substring(3));
+            } else if(line.startsWith("R: ")) {
+                replicas = parseMapSetLine(line.substring(3));
+            } else if(line.startsWith("A")) {
+                next = parseActionLine(line);
+                if(next == null) {
+                    next = readNextAction();
+                }
+                break;
+            }
+        }
+
+        if(friendships == null || pids == null) {
+            throw new RuntimeException("Malformed file");
+        }
+
+        Trace header = new Trace();
+        header.setFriendships(friendships);
+        header.setPartitions(partitions);
+        header.setReplicas(replicas);
+        return header;
+    }
+
+    /**
+     * @return the initial state of the trace (friendships, partitions and replicas); its action list is not populated
+     */
+    @Override
+    public Trace getTrace() {
+        return trace;
+    }
+
+    @Override
+    public int getNumActionsRead() {
+        return numActionsRead;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null && numActionsRead < limit;
+    }
+
+    @Override
+    public TraceAction next() {
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        TraceAction action = next;
+        numActionsRead++;
+        next = numActionsRead < limit ? readNextAction() : null;
+        return action;
+    }
+
+    private TraceAction readNextAction() {
+        try {
+            String line;
+            while((line = reader.readLine()) != null) {
+                if(line.startsWith("A")) {
+                    TraceAction action = parseActionLine(line);
+                    if(action != null) {
+                        return action;
+                    }
+                }
+            }
+            return null;
+        } catch(IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static TraceAction parseActionLine(String line) {
+        return TraceAction.fromString(line.substring(line.indexOf(':')+1).trim());
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -10,6 +10,7 @@ import io.vntr.middleware.*;
 import io.vntr.User;
 import io.vntr.manager.NoRepManager;
 import io.vntr.utils.InitUtils;
+import io.vntr.utils.RandomSource;
 import io.vntr.manager.RepManager;
 
 import java.io.FileInputStream;
@@ -53,11 +54,14 @@ public class TraceRunner {
 
         TraceArgs traceArgs = TraceArgs.parseArgs(args, props);
 
-        Trace trace = TraceUtils.getFullTraceFromFile(traceArgs.getInputFile());
-        int traceLengthLimit = traceArgs.getNumActions() != null ? traceArgs.getNumActions() : trace.getActions().size();
-        Recorder recorder = new Recorder(traceLengthLimit);
+        int traceLengthLimit = traceArgs.getNumActions() != null ? traceArgs.getNumActions() : Integer.MAX_VALUE;
+        ITraceReader reader = TraceUtils.openTrace(traceArgs.getInputFile(), traceLengthLimit);
+        Trace trace = reader.getTrace();
+        Recorder recorder = new Recorder();
 
-        IMiddlewareAnalyzer middleware = initMiddleware(traceArgs, trace, props);
+        //the middleware gets its own stream, so sampling the statistics below doesn't change what it does
+        RandomSource random = traceArgs.getSeed() != null ? new RandomSource(traceArgs.getSeed()) : new RandomSource();
+        IMiddlewareAnalyzer middleware = initMiddleware(traceArgs, trace, props, random.split());
 
         PrintWriter pw = null;
         PrintWriter csvPw = null;
@@ -75,17 +79,18 @@ public class TraceRunner {
 
             int preRep = middleware.getReplicationCount();
             int preCut = middleware.getEdgeCut();
-            for (int i = 0; i < traceLengthLimit; i++) {
-                TraceAction next = trace.getActions().get(i);
+            int i = 0;
+            for (; reader.hasNext(); i++) {
+                TraceAction next = reader.next();
 
-                Status status = Status.initStatus(middleware, traceArgs);
+                Status status = Status.initStatus(middleware, traceArgs, random);
                 log(status, pw, next, traceArgs.getType(), i, false, (i % 50) == 0);
                 if(traceArgs.isExportCSV()) {
                     log(csvPw, formatCsv(i, status), false, false);
                 }
 
                 runAction(middleware, next);
-                if(traceArgs.getValidityCheckProbability() != 0 && Math.random() < traceArgs.getValidityCheckProbability()) {
+                if(traceArgs.getValidityCheckProbability() != 0 && random.nextDouble() < traceArgs.getValidityCheckProbability()) {
                     middleware.checkValidity();
                 }
                 int postCut = middleware.getEdgeCut();
@@ -99,10 +104,10 @@ public class TraceRunner {
             long timeElapsedNanos = System.nanoTime() - startTime;
             System.out.println("Time elapsed: " + (timeElapsedNanos / BILLION) + "." + ((timeElapsedNanos % BILLION) / MILLION) + " seconds");
 
-            Status status = Status.initStatus(middleware, traceArgs);
-            log(status, pw, null, traceArgs.getType(), traceLengthLimit, true, true);
+            Status status = Status.initStatus(middleware, traceArgs, random);
+            log(status, pw, null, traceArgs.getType(), i, true, true);
             if(traceArgs.isExportCSV()) {
-                log(csvPw, formatCsv(traceLengthLimit, status), false, false);
+                log(csvPw, formatCsv(i, status), false, false);
             }
 
             log(recorder, pw);
@@ -111,6 +116,7 @@ public class TraceRunner {
             throw e;
         }
         finally {
+            reader.close();
             if(pw != null) {
                 pw.close();
             }
@@ -120,20 +126,20 @@ public class TraceRunner {
         }
     }
 
-    static IMiddlewareAnalyzer initMiddleware(TraceArgs traceArgs, Trace trace, Properties props) {
+    static IMiddlewareAnalyzer initMiddleware(TraceArgs traceArgs, Trace trace, Properties props, RandomSource random) {
         switch (traceArgs.getType()) {
-            case HERMES_TYPE:  return initHermesMiddleware       (trace, traceArgs, props);
-            case HERMAR_TYPE:  return initHermarMiddleware       (trace, traceArgs, props);
-            case SPAR_TYPE:    return initSparMiddleware         (trace, traceArgs, props);
-            case SPARMES_TYPE: return initSparmesMiddleware      (trace, traceArgs, props);
-            case METIS_TYPE:   return initMetisMiddleware        (trace, traceArgs, props);
-            case JABEJA_TYPE:  return initJabejaMiddleware       (trace, traceArgs, props);
-            case JABAR_TYPE:   return initJabarMiddleware        (trace, traceArgs, props);
-            case J2_TYPE:      return initJ2Middleware           (trace, traceArgs, props);
-            case SPAJA_TYPE:   return initSpajaMiddleware        (trace, traceArgs, props);
-            case DUMMY_TYPE:   return initDummyMiddleware        (trace, traceArgs, props);
-            case RDUMMY_TYPE:  return initReplicaDummyMiddleware (trace, traceArgs, props);
-            case RMETIS_TYPE:  return initReplicaMetisMiddleware (trace, traceArgs, props);
+            case HERMES_TYPE:  return initHermesMiddleware       (trace, traceArgs, props, random);
+            case HERMAR_TYPE:  return initHermarMiddleware       (trace, traceArgs, props, random);
+            case SPAR_TYPE:    return initSparMiddleware         (trace, traceArgs, props, random);
+            case SPARMES_TYPE: return initSparmesMiddleware      (trace, traceArgs, props, random);
+            case METIS_TYPE:   return initMetisMiddleware        (trace, traceArgs, props, random);
+            case JABEJA_TYPE:  return initJabejaMiddleware       (trace, traceArgs, props, random);
+            case JABAR_TYPE:   return initJabarMiddleware        (trace, traceArgs, props, random);
+            case J2_TYPE:      return initJ2Middleware           (trace, traceArgs, props, random);
+            case SPAJA_TYPE:   return initSpajaMiddleware        (trace, traceArgs, props, random);
+            case DUMMY_TYPE:   return initDummyMiddleware        (trace, traceArgs, props, random);
+            case RDUMMY_TYPE:  return initReplicaDummyMiddleware (trace, traceArgs, props, random);
+            case RMETIS_TYPE:  return initReplicaMetisMiddleware (trace, traceArgs, props, random);
             default: throw new RuntimeException("args[1] must be one of " + allowedTypes);
         }
     }
@@ -151,16 +157,16 @@ public class TraceRunner {
         private Map<TraceAction.ACTION, Integer> deltaEdgeCuts;
         private Map<TraceAction.ACTION, Integer> deltaReps;
 
-        public Recorder(int traceLength) {
-            indexList         = new TIntArrayList(traceLength + 1);
-            numPartitionsList = new TIntArrayList(traceLength+1);
-            numUsersList      = new TIntArrayList(traceLength+1);
-            numFriendshipsList = new TIntArrayList(traceLength+1);
-            assortivityList   = new TDoubleArrayList(traceLength+1);
-            edgeCutList       = new TIntArrayList(traceLength+1);
-            numReplicasList   = new TIntArrayList(traceLength+1);
-            numMovesList      = new TLongArrayList(traceLength+1);
-            delayList         = new TDoubleArrayList(traceLength+1);
+        public Recorder() {
+            indexList         = new TIntArrayList();
+            numPartitionsList = new TIntArrayList();
+            numUsersList      = new TIntArrayList();
+            numFriendshipsList = new TIntArrayList();
+            assortivityList   = new TDoubleArrayList();
+            edgeCutList       = new TIntArrayList();
+            numReplicasList   = new TIntArrayList();
+            numMovesList      = new TLongArrayList();
+            delayList         = new TDoubleArrayList();
 
             deltaEdgeCuts = new HashMap<>();
             deltaReps     = new HashMap<>();
@@ -271,7 +277,7 @@ public class TraceRunner {
             this.delay = delay;
         }
 
-        public static Status initStatus(IMiddlewareAnalyzer middleware, TraceArgs traceArgs) {
+        public static Status initStatus(IMiddlewareAnalyzer middleware, TraceArgs traceArgs, Random random) {
             int numU = middleware.getNumberOfUsers();
             int numF = middleware.getNumberOfFriendships();
             int numP = middleware.getNumberOfPartitions();
@@ -285,7 +291,7 @@ public class TraceRunner {
             } else if(asrtProb == 1) {
                 asrt = middleware.calculateAssortivity();
             } else {
-                asrt = Math.random() < asrtProb ? middleware.calculateAssortivity() : -99D;
+                asrt = random.nextDouble() < asrtProb ? middleware.calculateAssortivity() : -99D;
             }
 
             long tally = middleware.getMigrationTally();
@@ -297,7 +303,7 @@ public class TraceRunner {
             } else if(delayProb == 1) {
                 delay = middleware.calculateExpectedQueryDelay();
             } else {
-                delay = Math.random() < delayProb ? middleware.calculateExpectedQueryDelay() : -99D;
+                delay = random.nextDouble() < delayProb ? middleware.calculateExpectedQueryDelay() : -99D;
             }
 
             return new Status(numU, numF, numP, cut, reps, tally, asrt, delay);
@@ -341,10 +347,12 @@ public class TraceRunner {
         return str.replaceAll("\\W", "-");
     }
 
-    static JabejaMiddleware initJabejaMiddleware(Trace trace, TraceArgs traceArgs, Properties props) {
+    static JabejaMiddleware initJabejaMiddleware(Trace trace, TraceArgs traceArgs, Properties props, RandomSource random) {
         NoRepManager noRepManager =
                 InitUtils.initNoRepManager(
                         traceArgs.getLogicalMigrationRatio(),
+                        traceArgs.isDenseUids(),
+                        random,
                         trace.getPartitions(),
                         trace.getFriendships());
 
@@ -353,60 +361,72 @@ public class TraceRunner {
                 traceArgs.getDeltaT(),
                 traceArgs.getJaK(),
                 traceArgs.getNumRestarts(),
+                false,
+                traceArgs.getNumThreads(),
                 noRepManager);
     }
 
-    static JabarMiddleware initJabarMiddleware(Trace trace, TraceArgs traceArgs, Properties props) {
+    static JabarMiddleware initJabarMiddleware(Trace trace, TraceArgs traceArgs, Properties props, RandomSource random) {
 
         NoRepManager noRepManager =
                 InitUtils.initNoRepManager(
                         traceArgs.getLogicalMigrationRatio(),
+                        traceArgs.isDenseUids(),
+                        random,
                         trace.getPartitions(),
                         trace.getFriendships());
 
         return new JabarMiddleware(traceArgs.getAlpha(), traceArgs.getInitialT(), traceArgs.getDeltaT(), traceArgs.getJaK(), noRepManager);
     }
 
-    static J2Middleware initJ2Middleware(Trace trace, TraceArgs traceArgs, Properties props) {
+    static J2Middleware initJ2Middleware(Trace trace, TraceArgs traceArgs, Properties props, RandomSource random) {
 
         NoRepManager noRepManager =
                 InitUtils.initNoRepManager(
                         traceArgs.getLogicalMigrationRatio(),
+                        traceArgs.isDenseUids(),
+                        random,
                         trace.getPartitions(),
                         trace.getFriendships());
 
         return new J2Middleware(traceArgs.getAlpha(), traceArgs.getInitialT(), traceArgs.getDeltaT(), traceArgs.getJaK(), noRepManager);
     }
 
-    static HermesMiddleware initHermesMiddleware(Trace trace, TraceArgs traceArgs, Properties prop) {
+    static HermesMiddleware initHermesMiddleware(Trace trace, TraceArgs traceArgs, Properties prop, RandomSource random) {
         NoRepManager noRepManager =
                 InitUtils.initNoRepManager(
                         traceArgs.getLogicalMigrationRatio(),
+                        traceArgs.isDenseUids(),
+                        random,
                         trace.getPartitions(),
                         trace.getFriendships());
 
-        return new HermesMiddleware(traceArgs.getGamma(), traceArgs.getHermesK(), traceArgs.getMaxIterations(), noRepManager);
+        return new HermesMiddleware(traceArgs.getGamma(), traceArgs.getHermesK(), traceArgs.getMaxIterations(), traceArgs.getNumThreads(), noRepManager);
     }
 
-    static HermarMiddleware initHermarMiddleware(Trace trace, TraceArgs traceArgs, Properties prop) {
+    static HermarMiddleware initHermarMiddleware(Trace trace, TraceArgs traceArgs, Properties prop, RandomSource random) {
         NoRepManager noRepManager =
                 InitUtils.initNoRepManager(
                         traceArgs.getLogicalMigrationRatio(),
+                        traceArgs.isDenseUids(),
+                        random,
                         trace.getPartitions(),
                         trace.getFriendships());
 
-        return new HermarMiddleware(traceArgs.getGamma(), traceArgs.getHermesK(), traceArgs.getMaxIterations(), noRepManager);
+        return new HermarMiddleware(traceArgs.getGamma(), traceArgs.getHermesK(), traceArgs.getMaxIterations(), traceArgs.getNumThreads(), noRepManager);
     }
 
-    static SparMiddleware initSparMiddleware(Trace trace, TraceArgs traceArgs, Properties props) {
-        RepManager repManager = InitUtils.initRepManager(traceArgs.getMinNumReplicas(), 0, trace.getPartitions(), trace.getFriendships(), trace.getReplicas());
+    static SparMiddleware initSparMiddleware(Trace trace, TraceArgs traceArgs, Properties props, RandomSource random) {
+        RepManager repManager = InitUtils.initRepManager(traceArgs.getMinNumReplicas(), 0, traceArgs.isDenseUids(), random, trace.getPartitions(), trace.getFriendships(), trace.getReplicas());
         return new SparMiddleware(repManager);
     }
 
-    static SparmesMiddleware initSparmesMiddleware(Trace trace, TraceArgs traceArgs, Properties props) {
+    static SparmesMiddleware initSparmesMiddleware(Trace trace, TraceArgs traceArgs, Properties props, RandomSource random) {
         RepManager repManager = InitUtils.initRepManager(
                traceArgs.getMinNumReplicas(),
                traceArgs.getLogicalMigrationRatio(),
+               traceArgs.isDenseUids(),
+               random,
                trace.getPartitions(),
                trace.getFriendships(),
                trace.getReplicas());
@@ -419,10 +439,12 @@ public class TraceRunner {
                 repManager);
     }
 
-    static SpajaMiddleware initSpajaMiddleware(Trace trace, TraceArgs traceArgs, Properties props) {
+    static SpajaMiddleware initSpajaMiddleware(Trace trace, TraceArgs traceArgs, Properties props, RandomSource random) {
         RepManager repManager = InitUtils.initRepManager(
                 traceArgs.getMinNumReplicas(),
                 traceArgs.getLogicalMigrationRatio(),
+                traceArgs.isDenseUids(),
+                random,
                 trace.getPartitions(),
                 trace.getFriendships(),
                 trace.getReplicas()
@@ -436,22 +458,24 @@ public class TraceRunner {
                 repManager);
     }
 
-    static MetisMiddleware initMetisMiddleware(Trace trace, TraceArgs traceArgs, Properties prop) {
+    static MetisMiddleware initMetisMiddleware(Trace trace, TraceArgs traceArgs, Properties prop, RandomSource random) {
         String gpmetisLocation = prop.getProperty("gpmetis.location");
         String gpmetisTempdir = prop.getProperty("gpmetis.tempdir");
-        NoRepManager noRepManager = InitUtils.initNoRepManager(traceArgs.getLogicalMigrationRatio(), trace.getPartitions(), trace.getFriendships());
-        return new MetisMiddleware(gpmetisLocation, gpmetisTempdir, noRepManager);
+        NoRepManager noRepManager = InitUtils.initNoRepManager(traceArgs.getLogicalMigrationRatio(), traceArgs.isDenseUids(), random, trace.getPartitions(), trace.getFriendships());
+        return new MetisMiddleware(gpmetisLocation, gpmetisTempdir, noRepManager, traceArgs.isIncremental());
     }
 
-    static DummyMiddleware initDummyMiddleware(Trace trace, TraceArgs traceArgs, Properties prop) {
-        NoRepManager noRepManager = InitUtils.initNoRepManager(traceArgs.getLogicalMigrationRatio(), trace.getPartitions(), trace.getFriendships());
+    static DummyMiddleware initDummyMiddleware(Trace trace, TraceArgs traceArgs, Properties prop, RandomSource random) {
+        NoRepManager noRepManager = InitUtils.initNoRepManager(traceArgs.getLogicalMigrationRatio(), traceArgs.isDenseUids(), random, trace.getPartitions(), trace.getFriendships());
         return new DummyMiddleware(noRepManager);
     }
 
-    static ReplicaDummyMiddleware initReplicaDummyMiddleware(Trace trace, TraceArgs traceArgs, Properties prop) {
+    static ReplicaDummyMiddleware initReplicaDummyMiddleware(Trace trace, TraceArgs traceArgs, Properties prop, RandomSource random) {
         RepManager repManager = InitUtils.initRepManager(
                 traceArgs.getMinNumReplicas(),
                 traceArgs.getLogicalMigrationRatio(),
+                traceArgs.isDenseUids(),
+                random,
                 trace.getPartitions(),
                 trace.getFriendships(),
                 trace.getReplicas()
@@ -460,10 +484,12 @@ public class TraceRunner {
         return new ReplicaDummyMiddleware(repManager);
     }
 
-    static ReplicaMetisMiddleware initReplicaMetisMiddleware(Trace trace, TraceArgs traceArgs, Properties prop) {
+    static ReplicaMetisMiddleware initReplicaMetisMiddleware(Trace trace, TraceArgs traceArgs, Properties prop, RandomSource random) {
         RepManager repManager = InitUtils.initRepManager(
                 traceArgs.getMinNumReplicas(),
                 traceArgs.getLogicalMigrationRatio(),
+                traceArgs.isDenseUids(),
+                random,
                 trace.getPartitions(),
                 trace.getFriendships(),
                 trace.getReplicas()
@@ -5,60 +5,41 @@ import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
 
-import java.io.File;
+import java.io.IOException;
 import java.util.*;
 
 /**
  * Created by robertlindquist on 4/1/17.
  */
 public class TraceUtils {
-    public static Trace getFullTraceFromFile(String filename) {
-        Trace baseTrace = null;
-        List<TraceAction> actions = new LinkedList<>();
-        TIntObjectMap<TIntSet> friendships = null;
-        TIntSet pids = null;
-        TIntObjectMap<TIntSet> partitions = null;
-        TIntObjectMap<TIntSet> replicas = null;
-
-        Scanner scanner = null;
+    public static ITraceReader openTrace(String filename, int limit) throws IOException {
+        if(BinaryTraceReader.isBinaryTrace(filename)) {
+            return new BinaryTraceReader(filename, limit);
+        }
+        return new TraceReader(filename, limit);
+    }
 
+    public static Trace getFullTraceFromFile(String filename) {
+        ITraceReader reader = null;
         try {
-            scanner = new Scanner(new File(filename));
-            while(scanner.hasNextLine()) {
-                String line = scanner.nextLine();
-                if(line.startsWith("F: ")) {
-                    friendships = parseMapSetLine(line.substring(3));
-                } else if(line.startsWith("PIDS: ")) {
-                    pids = parseSetLine(line.substring(6));
-                } else if(line.startsWith("P: ")) {
-                    partitions = parseMapSetLine(line.substring(3));
-                } else if(line.startsWith("R: ")) {
-                    replicas = parseMapSetLine(line.substring(3));
-                } else if(line.startsWith("A0")) {
-                    if(friendships == null || pids == null) {
-                        throw new RuntimeException("Malformed file");
-                    }
-                    baseTrace = new Trace();
-                    baseTrace.setReplicas(replicas);
-                    baseTrace.setPartitions(partitions);
-                    baseTrace.setFriendships(friendships);
-                    baseTrace.setActions(actions);
-
-                    TraceAction action = TraceAction.fromString(line.substring(line.indexOf(':')+1).trim());
-                    actions.add(action);
-
-                } else if(line.startsWith("A")) {
-                    TraceAction action = TraceAction.fromString(line.substring(line.indexOf(':')+1).trim());
-                    actions.add(action);
-                }
+            reader = openTrace(filename, Integer.MAX_VALUE);
+            Trace trace = reader.getTrace();
+            List<TraceAction> actions = new ArrayList<>();
+            while(reader.hasNext()) {
+                actions.add(reader.next());
             }
+            trace.setActions(actions);
+            return trace;
         } catch(Exception e) {
+            return null;
         } finally {
-            if(scanner != null) {
-                scanner.close();
+            if(reader != null) {
+                try {
+                    reader.close();
+                } catch(IOException e) {
+                }
             }
         }
-        return baseTrace;
     }
 
     static TIntObjectMap<TIntSet> parseMapSetLine(String line) {
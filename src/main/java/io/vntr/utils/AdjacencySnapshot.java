@@ -0,0 +1,141 @@
+package io.vntr.utils;
+
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+
+import java.util.Arrays;
+
+/**
+ * Read-only, compressed-sparse-row view of the friendship graph.
+ *
+ * Users are sorted by uid and numbered 0..n-1; the friends of the user at index i are the uids in
+ * neighbors[offsets[i] .. offsets[i+1]), sorted ascending, and neighborIndices holds the rows of those same friends.
+ * The raw arrays are exposed so that the repartitioners can walk them in their inner loops; callers must not modify
+ * them.
+ */
+public class AdjacencySnapshot {
+    public static final int NOT_PRESENT = -1;
+
+    private final int[] uids;
+    private final int[] offsets;
+    private final int[] neighbors;
+    private final int[] neighborIndices;
+    private final TIntIntMap uidToIndex;
+
+    private AdjacencySnapshot(int[] uids, int[] offsets, int[] neighbors) {
+        this.uids = uids;
+        this.offsets = offsets;
+        this.neighbors = neighbors;
+        uidToIndex = new TIntIntHashMap(uids.length + 1, 0.5f, NOT_PRESENT, NOT_PRESENT);
+        for(int i = 0; i < uids.length; i++) {
+            uidToIndex.put(uids[i], i);
+        }
+        neighborIndices = new int[neighbors.length];
+        for(int j = 0; j < neighbors.length; j++) {
+            neighborIndices[j] = uidToIndex.get(neighbors[j]);
+        }
+    }
+
+    public static AdjacencySnapshot fromFriendships(TIntObjectMap<TIntSet> friendships) {
+        int[] uids = friendships.keys();
+        Arrays.sort(uids);
+        TIntSet[] friendSets = new TIntSet[uids.length];
+        for(int i = 0; i < uids.length; i++) {
+            friendSets[i] = friendships.get(uids[i]);
+        }
+        return fromSortedUids(uids, friendSets);
+    }
+
+    /**
+     * @param uids sorted ascending; ownership passes to the snapshot
+     * @param friendSets friendSets[i] holds the friends of uids[i]
+     */
+    public static AdjacencySnapshot fromSortedUids(int[] uids, TIntSet[] friendSets) {
+        int[] offsets = new int[uids.length + 1];
+        for(int i = 0; i < uids.length; i++) {
+            offsets[i + 1] = offsets[i] + friendSets[i].size();
+        }
+
+        int[] neighbors = new int[offsets[uids.length]];
+        for(int i = 0; i < uids.length; i++) {
+            int index = offsets[i];
+            for(TIntIterator iter = friendSets[i].iterator(); iter.hasNext(); ) {
+                neighbors[index++] = iter.next();
+            }
+            Arrays.sort(neighbors, offsets[i], offsets[i + 1]);
+        }
+
+        return new AdjacencySnapshot(uids, offsets, neighbors);
+    }
+
+    public int getNumUsers() {
+        return uids.length;
+    }
+
+    public int getNumEdges() {
+        return neighbors.length >> 1;
+    }
+
+    public int[] getUids() {
+        return uids;
+    }
+
+    public int[] getOffsets() {
+        return offsets;
+    }
+
+    public int[] getNeighbors() {
+        return neighbors;
+    }
+
+    public int[] getNeighborIndices() {
+        return neighborIndices;
+    }
+
+    public TIntSet getUidSet() {
+        return new TIntHashSet(uids);
+    }
+
+    public boolean containsUser(int uid) {
+        return uidToIndex.containsKey(uid);
+    }
+
+    /**
+     * @return the row of uid, or {@link #NOT_PRESENT}
+     */
+    public int indexOf(int uid) {
+        return uidToIndex.get(uid);
+    }
+
+    public int getDegree(int uid) {
+        int index = indexOf(uid);
+        return offsets[index + 1] - offsets[index];
+    }
+
+    public boolean areFriends(int uid1, int uid2) {
+        int index = indexOf(uid1);
+        return Arrays.binarySearch(neighbors, offsets[index], offsets[index + 1], uid2) >= 0;
+    }
+
+    public TIntSet getFriendSet(int uid) {
+        int index = indexOf(uid);
+        TIntSet friends = new TIntHashSet(offsets[index + 1] - offsets[index] + 1);
+        for(int i = offsets[index]; i < offsets[index + 1]; i++) {
+            friends.add(neighbors[i]);
+        }
+        return friends;
+    }
+
+    public TIntObjectMap<TIntSet> toFriendships() {
+        TIntObjectMap<TIntSet> friendships = new TIntObjectHashMap<>(uids.length + 1);
+        for(int uid : uids) {
+            friendships.put(uid, getFriendSet(uid));
+        }
+        return friendships;
+    }
+}
@@ -0,0 +1,102 @@
+package io.vntr.utils;
+
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.set.TIntSet;
+
+/**
+ * Keeps the sufficient statistics of {@link ProbabilityUtils#calculateAssortivityCoefficient} up to date as
+ * friendships come and go, so that the coefficient can be read in O(1).
+ *
+ * Every friendship contributes two (x, y) samples, one per direction, so the sums over x and y are identical:
+ * sumX = sumY = sum of deg(u)^2, sumXSquared = sumYSquared = sum of deg(u)^3, and sumXY = sum of deg(u)*deg(v)
+ * over both directions of every friendship.  Each update costs O(degree) of the two endpoints.
+ */
+public class AssortativityTracker {
+    private static final double TOLERANCE = 1e-9;
+
+    private final TIntIntMap degrees = new TIntIntHashMap();
+
+    private long numSamples;
+    private long sumX;
+    private long sumXSquared;
+    private long sumXY;
+
+    /**
+     * Records a new friendship between uid1 and uid2.  The friend sets may or may not already include the other user.
+     */
+    public void befriend(int uid1, TIntSet friends1, int uid2, TIntSet friends2) {
+        int degree1 = degrees.get(uid1);
+        int degree2 = degrees.get(uid2);
+
+        sumXY += 2L * (sumOfFriendDegrees(friends1, uid2) + sumOfFriendDegrees(friends2, uid1));
+        sumXY += 2L * (degree1 + 1) * (degree2 + 1);
+        updateDegree(uid1, degree1, degree1 + 1);
+        updateDegree(uid2, degree2, degree2 + 1);
+        numSamples += 2;
+    }
+
+    /**
+     * Records the end of the friendship between uid1 and uid2.  The friend sets may or may not still include the other user.
+     */
+    public void unfriend(int uid1, TIntSet friends1, int uid2, TIntSet friends2) {
+        int degree1 = degrees.get(uid1);
+        int degree2 = degrees.get(uid2);
+
+        sumXY -= 2L * degree1 * degree2;
+        sumXY -= 2L * (sumOfFriendDegrees(friends1, uid2) + sumOfFriendDegrees(friends2, uid1));
+        updateDegree(uid1, degree1, degree1 - 1);
+        updateDegree(uid2, degree2, degree2 - 1);
+        numSamples -= 2;
+    }
+
+    /**
+     * Forgets a user; all of its friendships must already have been removed through {@link #unfriend}.
+     */
+    public void removeUser(int uid) {
+        degrees.remove(uid);
+    }
+
+    public double getAssortativityCoefficient() {
+        double n = numSamples;
+        double covariance = n * sumXY - (double) sumX * sumX;
+        double variance = n * sumXSquared - (double) sumX * sumX;
+        return covariance / variance;
+    }
+
+    /**
+     * Recomputes the coefficient from scratch and checks it against the tracked one (used by checkValidity).
+     */
+    public boolean agreesWith(TIntObjectMap<TIntSet> bidirectionalFriendships) {
+        if(numSamples < 2) {
+            return true; //Pearson's correlation is undefined here
+        }
+        double expected = ProbabilityUtils.calculateAssortivityCoefficient(bidirectionalFriendships);
+        double actual = getAssortativityCoefficient();
+        if(Double.isNaN(expected) || Double.isNaN(actual)) {
+            return Double.isNaN(expected) && Double.isNaN(actual);
+        }
+        return Math.abs(expected - actual) < TOLERANCE;
+    }
+
+    private long sumOfFriendDegrees(TIntSet friends, int uidToSkip) {
+        long sum = 0;
+        for(TIntIterator iter = friends.iterator(); iter.hasNext(); ) {
+            int friendId = iter.next();
+            if(friendId != uidToSkip) {
+                sum += degrees.get(friendId);
+            }
+        }
+        return sum;
+    }
+
+    private void updateDegree(int uid, int oldDegree, int newDegree) {
+        long oldSquare = (long) oldDegree * oldDegree;
+        long newSquare = (long) newDegree * newDegree;
+        sumX += newSquare - oldSquare;
+        sumXSquared += newSquare * newDegree - oldSquare * oldDegree;
+        degrees.put(uid, newDegree);
+    }
+}
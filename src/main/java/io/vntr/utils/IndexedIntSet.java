@@ -0,0 +1,105 @@
+package io.vntr.utils;
+
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.set.TIntSet;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A set of ints that also keeps its elements packed in an array, so that add, remove, contains and picking a random
+ * element are all O(1), and sampling k distinct elements is O(k) without copying the set.  Removing an element moves
+ * the last one into its slot, so the order of the elements is not stable.
+ */
+public class IndexedIntSet {
+    private static final int NOT_PRESENT = -1;
+
+    private int[] elements;
+    private int size;
+    private final TIntIntMap positions;
+
+    public IndexedIntSet() {
+        this(16);
+    }
+
+    public IndexedIntSet(int initialCapacity) {
+        elements = new int[Math.max(initialCapacity, 1)];
+        positions = new TIntIntHashMap(initialCapacity + 1, 0.5f, NOT_PRESENT, NOT_PRESENT);
+    }
+
+    /**
+     * Elements are indexed in the order the set iterates over them, which is the same order as set.toArray().
+     */
+    public IndexedIntSet(TIntSet set) {
+        this(set.size());
+        for(TIntIterator iter = set.iterator(); iter.hasNext(); ) {
+            add(iter.next());
+        }
+    }
+
+    public boolean add(int element) {
+        if(positions.containsKey(element)) {
+            return false;
+        }
+        if(size == elements.length) {
+            elements = Arrays.copyOf(elements, size * 2);
+        }
+        elements[size] = element;
+        positions.put(element, size);
+        size++;
+        return true;
+    }
+
+    public boolean remove(int element) {
+        int position = positions.remove(element);
+        if(position == NOT_PRESENT) {
+            return false;
+        }
+        size--;
+        if(position != size) {
+            int last = elements[size];
+            elements[position] = last;
+            positions.put(last, position);
+        }
+        return true;
+    }
+
+    public boolean contains(int element) {
+        return positions.containsKey(element);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int get(int index) {
+        if(index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " is out of bounds for size " + size);
+        }
+        return elements[index];
+    }
+
+    public int getRandomElement(Random random) {
+        if(size == 0) {
+            throw new RuntimeException("Cannot choose an element from an empty set");
+        }
+        return elements[random.nextInt(size)];
+    }
+
+    /**
+     * @return k distinct elements chosen uniformly at random, or all of them if there are no more than k
+     */
+    public TIntSet sample(int k, Random random) {
+        return TroveUtils.getKDistinctValuesFromArray(k, elements, size, random);
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(elements, size);
+    }
+}
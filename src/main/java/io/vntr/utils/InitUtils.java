@@ -14,7 +14,15 @@ import io.vntr.manager.RepManager;
  */
 public class InitUtils {
     public static NoRepManager initNoRepManager(double logicalMigrationRatio, TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> friendships) {
-        NoRepManager manager = new NoRepManager(logicalMigrationRatio);
+        return initNoRepManager(logicalMigrationRatio, false, partitions, friendships);
+    }
+
+    public static NoRepManager initNoRepManager(double logicalMigrationRatio, boolean denseUids, TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> friendships) {
+        return initNoRepManager(logicalMigrationRatio, denseUids, new RandomSource(), partitions, friendships);
+    }
+
+    public static NoRepManager initNoRepManager(double logicalMigrationRatio, boolean denseUids, RandomSource random, TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> friendships) {
+        NoRepManager manager = new NoRepManager(logicalMigrationRatio, denseUids, random);
         for(Integer pid : partitions.keys()) {
             manager.addPartition(pid);
             for(TIntIterator iter = partitions.get(pid).iterator(); iter.hasNext(); ) {
@@ -30,7 +38,15 @@ public class InitUtils {
     }
 
     public static RepManager initRepManager(int minNumReplicas, double logicalMigrationRatio, TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> friendships, TIntObjectMap<TIntSet> replicaPartitions) {
-        RepManager manager = new RepManager(minNumReplicas, logicalMigrationRatio);
+        return initRepManager(minNumReplicas, logicalMigrationRatio, false, partitions, friendships, replicaPartitions);
+    }
+
+    public static RepManager initRepManager(int minNumReplicas, double logicalMigrationRatio, boolean denseUids, TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> friendships, TIntObjectMap<TIntSet> replicaPartitions) {
+        return initRepManager(minNumReplicas, logicalMigrationRatio, denseUids, new RandomSource(), partitions, friendships, replicaPartitions);
+    }
+
+    public static RepManager initRepManager(int minNumReplicas, double logicalMigrationRatio, boolean denseUids, RandomSource random, TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> friendships, TIntObjectMap<TIntSet> replicaPartitions) {
+        RepManager manager = new RepManager(minNumReplicas, logicalMigrationRatio, denseUids, random);
         for(Integer pid : partitions.keys()) {
             manager.addPartition(pid);
         }
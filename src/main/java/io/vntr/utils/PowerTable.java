@@ -0,0 +1,47 @@
+package io.vntr.utils;
+
+import java.util.Arrays;
+
+/**
+ * Memoizes Math.pow(n, alpha) for small non-negative integers n.  The Ja-be-Ja style scorers raise neighbor and
+ * replica counts to the same alpha millions of times per run, so each run keeps one of these and the table grows to
+ * the largest count actually seen.  Not thread-safe: give each thread its own.
+ */
+public class PowerTable {
+    private static final int DEFAULT_SIZE = 64;
+
+    private final float alpha;
+    private double[] powers;
+
+    public PowerTable(float alpha) {
+        this(alpha, DEFAULT_SIZE);
+    }
+
+    public PowerTable(float alpha, int initialSize) {
+        this.alpha = alpha;
+        powers = new double[0];
+        grow(Math.max(initialSize, 1));
+    }
+
+    public float getAlpha() {
+        return alpha;
+    }
+
+    public double pow(int n) {
+        if(n < 0) {
+            return Math.pow(n, alpha);
+        }
+        if(n >= powers.length) {
+            grow(Math.max(n + 1, powers.length * 2));
+        }
+        return powers[n];
+    }
+
+    private void grow(int size) {
+        int oldSize = powers.length;
+        powers = Arrays.copyOf(powers, size);
+        for(int n = oldSize; n < size; n++) {
+            powers[n] = Math.pow(n, alpha);
+        }
+    }
+}
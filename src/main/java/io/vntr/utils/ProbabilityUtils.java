@@ -1,81 +1,22 @@
 package io.vntr.utils;
 
 import gnu.trove.iterator.TIntIterator;
-import gnu.trove.list.TIntList;
-import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.TIntIntMap;
 import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
 import org.apache.commons.math3.distribution.LogNormalDistribution;
+import org.apache.commons.math3.random.RandomGeneratorFactory;
 import org.apache.commons.math3.stat.correlation.PearsonsCorrelation;
 
 import java.util.*;
 
-import static java.util.Collections.nCopies;
-
 public class ProbabilityUtils
 {
-    private static class DoublePair implements Comparable<DoublePair>{
-        public final Double mean;
-        public final Double stdDeviation;
-
-        public DoublePair(Double mean, Double stdDeviation) {
-            this.mean = mean;
-            this.stdDeviation = stdDeviation;
-        }
-
-        public Double getMean() {
-            return mean;
-        }
-
-        public Double getStdDeviation() {
-            return stdDeviation;
-        }
-
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-
-            DoublePair that = (DoublePair) o;
-
-            if (!mean.equals(that.mean)) return false;
-            return stdDeviation.equals(that.stdDeviation);
-        }
-
-        @Override
-        public int hashCode() {
-            int result = mean.hashCode();
-            result = 31 * result + stdDeviation.hashCode();
-            return result;
-        }
-
-        public int compareTo(DoublePair another) {
-            int meanCompare = this.mean.compareTo(another.mean);
-            if(meanCompare != 0) {
-                return meanCompare;
-            }
-            return this.stdDeviation.compareTo(another.stdDeviation);
-        }
-    }
-
-    private static final Map<DoublePair, LogNormalDistribution> lndMap = new HashMap<>();
-
     //http://blog.simiacryptus.com/2015/10/modeling-network-latency.html
-    public static double drawKFromLogNormalDistributionAndReturnMax(double mean, double stdDeviation, int k) {
-        DoublePair key = new DoublePair(mean, stdDeviation);
-        LogNormalDistribution logNormalDistribution;
-        if(lndMap.containsKey(key)) {
-            logNormalDistribution = lndMap.get(key);
-        }
-        else {
-            logNormalDistribution = new LogNormalDistribution(mean, stdDeviation);
-            if(lndMap.size() < 100) {
-                lndMap.put(key, logNormalDistribution);
-            }
-        }
+    public static double drawKFromLogNormalDistributionAndReturnMax(double mean, double stdDeviation, int k, Random random) {
+        LogNormalDistribution logNormalDistribution = new LogNormalDistribution(RandomGeneratorFactory.createRandomGenerator(random), mean, stdDeviation);
         double max = Double.MIN_VALUE;
         for(int i=0; i<k; i++) {
             max = Math.max(max, logNormalDistribution.sample());
@@ -84,8 +25,8 @@ public class ProbabilityUtils
 
     }
 
-    public static double drawFromLogNormalDistribution(double mean, double stdDeviation) {
-        return drawKFromLogNormalDistributionAndReturnMax(mean, stdDeviation, 1);
+    public static double drawFromLogNormalDistribution(double mean, double stdDeviation, Random random) {
+        return drawKFromLogNormalDistributionAndReturnMax(mean, stdDeviation, 1, random);
     }
 
     //Take a LogNormal distribution with mean=12.08... and std. dev=0.4463... and sample (index) times at random, returning the largest of those samples.
@@ -149,6 +90,11 @@ public class ProbabilityUtils
             1608847.201841079
     };
 
+    //Expected delay of a query that has to reach numDistinctPids partitions
+    public static double getExpectedQueryDelay(int numDistinctPids) {
+        return LND_12_08441436510468D__0_44631395858726847[numDistinctPids];
+    }
+
     public static double calculateExpectedQueryDelay(TIntObjectMap<TIntSet> friendships, TIntObjectMap<TIntSet> partitions) {
         TIntIntMap uidToPidMap = TroveUtils.getUToMasterMap(partitions);
         TIntObjectMap<TIntSet> uidToFriendPidsMap = new TIntObjectHashMap<>(friendships.size()+1);
@@ -200,19 +146,27 @@ public class ProbabilityUtils
         return new PearsonsCorrelation().correlation(x, y);
 	}
 
-	public static int chooseKeyFromMapSetInProportionToSetSize(TIntObjectMap<TIntSet> mapset) {
-        TIntList keys = new TIntArrayList(mapset.size() * 100);
-        for(int key : mapset.keys()) {
-            //this is intentional: we want mapset.get(key).size() copies of key in there
-            keys.addAll(nCopies(mapset.get(key).size(), key));
+	public static int chooseKeyFromMapSetInProportionToSetSize(TIntObjectMap<TIntSet> mapset, Random random) {
+        int[] keys = mapset.keys();
+        int totalSize = 0;
+        for(int key : keys) {
+            totalSize += mapset.get(key).size();
         }
 
-        return keys.get((int)(Math.random() * keys.size()));
+        //the same pick as drawing from a list with mapset.get(key).size() copies of each key, without building the list
+        int index = (int)(random.nextDouble() * totalSize);
+        for(int key : keys) {
+            index -= mapset.get(key).size();
+            if(index < 0) {
+                return key;
+            }
+        }
+        throw new IndexOutOfBoundsException("Cannot choose a key when every set is empty");
     }
 
-    public static List<Integer> chooseKeyValuePairFromMapSetUniformly(TIntObjectMap<TIntSet> mapset) {
-        int key = chooseKeyFromMapSetInProportionToSetSize(mapset);
-        int value = TroveUtils.getRandomElement(mapset.get(key));
+    public static List<Integer> chooseKeyValuePairFromMapSetUniformly(TIntObjectMap<TIntSet> mapset, Random random) {
+        int key = chooseKeyFromMapSetInProportionToSetSize(mapset, random);
+        int value = TroveUtils.getRandomElement(mapset.get(key), random);
         return Arrays.asList(key, value);
     }
 }
@@ -0,0 +1,75 @@
+package io.vntr.utils;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A SplitMix64 generator.  It extends Random so it can go anywhere a Random does, but keeps its state in a plain long
+ * instead of an AtomicLong, so it is not thread-safe: a thread that needs its own stream should {@link #split()} one
+ * off rather than share.  Two sources built from the same seed produce the same numbers, as do the streams split off
+ * them in the same order.
+ *
+ * The managers each own one (seeded by -seed when it is given), and the middlewares, repartitioners, befrienders and
+ * migrators draw from their manager's.  The static helpers all take the Random to draw from, so nothing in a run
+ * touches an unseeded generator.
+ */
+public class RandomSource extends Random {
+    private static final long serialVersionUID = 1L;
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    private static final AtomicLong defaultSeeds = new AtomicLong(System.nanoTime());
+
+    private long state;
+
+    /**
+     * Seeded from the clock; every source created this way gets a different seed.
+     */
+    public RandomSource() {
+        this(mix64(defaultSeeds.addAndGet(GOLDEN_GAMMA)));
+    }
+
+    public RandomSource(long seed) {
+        super(seed);
+        state = seed;
+    }
+
+    /**
+     * @return a new, independent source, seeded from this one
+     */
+    public RandomSource split() {
+        return new RandomSource(mix64(nextLong()));
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        //Random's constructor calls this before our fields are initialized
+        state = seed;
+    }
+
+    @Override
+    public long nextLong() {
+        state += GOLDEN_GAMMA;
+        return mix64(state);
+    }
+
+    @Override
+    protected int next(int bits) {
+        return (int) (nextLong() >>> (64 - bits));
+    }
+
+    @Override
+    public int nextInt() {
+        return (int) (nextLong() >>> 32);
+    }
+
+    @Override
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -1,8 +1,5 @@
 package io.vntr.utils;
 
-import cern.jet.random.engine.DRand;
-import cern.jet.random.engine.RandomEngine;
-import cern.jet.random.sampling.RandomSampler;
 import gnu.trove.iterator.TIntIterator;
 import gnu.trove.map.TIntIntMap;
 import gnu.trove.map.TIntObjectMap;
@@ -17,8 +14,6 @@ import java.util.*;
  * Created by robertlindquist on 6/22/17.
  */
 public class TroveUtils {
-    private static RandomEngine randomEngine = new DRand(((int) System.nanoTime()) >>> 2);
-
     public static boolean disjoint(TIntSet set1, TIntSet set2) {
         for(TIntIterator iter = set1.iterator(); iter.hasNext(); ) {
             if(set2.contains(iter.next())) {
@@ -140,11 +135,20 @@ public class TroveUtils {
         return map;
     }
 
-    public static Integer getRandomElement(TIntSet tIntSet) {
+    /**
+     * Walks the set's iterator, so this is O(n); callers that draw from the same set repeatedly should keep an
+     * {@link IndexedIntSet} instead.
+     */
+    public static Integer getRandomElement(TIntSet tIntSet, Random random) {
         int size;
         if(tIntSet != null && (size = tIntSet.size()) > 0) {
-            int index = (int)(size * Math.random());
-            return tIntSet.toArray()[index];
+            int index = random.nextInt(size);
+            //walk to it rather than copying the whole set into an array
+            TIntIterator iter = tIntSet.iterator();
+            for(int i = 0; i < index; i++) {
+                iter.next();
+            }
+            return iter.next();
         }
 
         return null;
@@ -190,18 +194,36 @@ public class TroveUtils {
         return pToFriendCount;
     }
 
-    public static TIntSet getKDistinctValuesFromArray(int k, int[] array)
+    /**
+     * Floyd's algorithm, O(k), drawing from the caller's generator.
+     */
+    public static TIntSet getKDistinctValuesFromArray(int k, int[] array, Random rnd)
     {
-        if(k >= array.length) {
-            return new TIntHashSet(array);
-        }
+        return getKDistinctValuesFromArray(k, array, array.length, rnd);
+    }
 
-        long[] indices = new long[k];
-        RandomSampler.sample(k, array.length, k, 0, indices, 0, randomEngine);
+    /**
+     * Samples from the first length values of array, so callers with a partly-filled buffer needn't copy it.
+     */
+    public static TIntSet getKDistinctValuesFromArray(int k, int[] array, int length, Random rnd)
+    {
+        if(k >= length) {
+            TIntSet all = new TIntHashSet(length+1);
+            for(int i = 0; i < length; i++) {
+                all.add(array[i]);
+            }
+            return all;
+        }
 
-        TIntSet returnSet = new TIntHashSet(array.length+1);
-        for(long index : indices) {
-            returnSet.add(array[(int)index]);
+        TIntSet indices = new TIntHashSet(k+1);
+        TIntSet returnSet = new TIntHashSet(k+1);
+        for(int j = length - k; j < length; j++) {
+            int index = rnd.nextInt(j + 1);
+            if(!indices.add(index)) {
+                index = j;
+                indices.add(j);
+            }
+            returnSet.add(array[index]);
         }
         return returnSet;
     }
@@ -217,7 +239,7 @@ public class TroveUtils {
         return intersection;
     }
 
-    public static TIntObjectMap<TIntSet> getInitialReplicasObeyingKReplication(int minNumReplicas, TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> friendships) {
+    public static TIntObjectMap<TIntSet> getInitialReplicasObeyingKReplication(int minNumReplicas, TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> friendships, Random random) {
         TIntObjectMap<TIntSet> replicas = new TIntObjectHashMap<>(partitions.size()+1);
         for(Integer pid : partitions.keys()) {
             replicas.put(pid, new TIntHashSet());
@@ -254,7 +276,7 @@ public class TroveUtils {
                 TIntSet possibilities = new TIntHashSet(partitions.keySet());
                 possibilities.removeAll(replicaLocations.get(uid));
                 possibilities.remove(uMap.get(uid));
-                TIntSet newReplicas = getKDistinctValuesFromArray(numShort, possibilities.toArray());
+                TIntSet newReplicas = getKDistinctValuesFromArray(numShort, possibilities.toArray(), random);
                 for(TIntIterator iter = newReplicas.iterator(); iter.hasNext(); ) {
                     replicas.get(iter.next()).add(uid);
                 }
@@ -297,14 +319,7 @@ public class TroveUtils {
     }
 
     //Taken from Java 8's java.util.Collections
-    private static Random r;
-
-    public static void shuffle(int arr[]) {
-        Random rnd = r;
-        if (rnd == null) {
-            r = rnd = new Random();
-        }
-
+    public static void shuffle(int arr[], Random rnd) {
         for (int i=arr.length; i>1; i--) {
             int nextInt = rnd.nextInt(i);
             int tmp = arr[i-1];
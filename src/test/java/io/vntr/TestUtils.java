@@ -65,7 +65,7 @@ public class TestUtils {
         return userIdToFriendIds;
     }
 
-    public static TIntObjectMap<TIntSet> getRandomPartitioning(TIntSet pids, TIntSet uids) {
+    public static TIntObjectMap<TIntSet> getRandomPartitioning(TIntSet pids, TIntSet uids, Random random) {
         TIntObjectMap<TIntSet> partitions = new TIntObjectHashMap<>(pids.size()+1);
         TIntSet pidCopies = new TIntHashSet(pids);
         int numPartitions = pidCopies.size();
@@ -79,7 +79,7 @@ public class TestUtils {
                 k++;
                 numRemainderUsers--;
             }
-            TIntSet pUids = TroveUtils.getKDistinctValuesFromArray(k, remainingUids.toArray());
+            TIntSet pUids = TroveUtils.getKDistinctValuesFromArray(k, remainingUids.toArray(), random);
             remainingUids.removeAll(pUids);
             Integer pid = pidCopies.iterator().next();
             pidCopies.remove(pid);
@@ -88,6 +88,49 @@ public class TestUtils {
         return partitions;
     }
 
+    /**
+     * Users 0..numUsers-1, each placed on one of partitions 1..numPartitions at random, plus numEdges draws of a
+     * random pair of users who become (bidirectional) friends; draws that pick the same user twice are skipped.
+     */
+    public static RandomGraph randomGraph(Random random, int numUsers, int numPartitions, int numEdges) {
+        TIntObjectMap<TIntSet> partitions = new TIntObjectHashMap<>(numPartitions+1);
+        for(int pid = 1; pid <= numPartitions; pid++) {
+            partitions.put(pid, new TIntHashSet());
+        }
+        TIntObjectMap<TIntSet> friendships = new TIntObjectHashMap<>(numUsers+1);
+        for(int uid = 0; uid < numUsers; uid++) {
+            partitions.get(1 + random.nextInt(numPartitions)).add(uid);
+            friendships.put(uid, new TIntHashSet());
+        }
+        for(int i = 0; i < numEdges; i++) {
+            int uid1 = random.nextInt(numUsers);
+            int uid2 = random.nextInt(numUsers);
+            if(uid1 != uid2) {
+                friendships.get(uid1).add(uid2);
+                friendships.get(uid2).add(uid1);
+            }
+        }
+        return new RandomGraph(partitions, friendships);
+    }
+
+    public static class RandomGraph {
+        private final TIntObjectMap<TIntSet> partitions;
+        private final TIntObjectMap<TIntSet> friendships;
+
+        RandomGraph(TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> friendships) {
+            this.partitions = partitions;
+            this.friendships = friendships;
+        }
+
+        public TIntObjectMap<TIntSet> getPartitions() {
+            return partitions;
+        }
+
+        public TIntObjectMap<TIntSet> getFriendships() {
+            return friendships;
+        }
+    }
+
     public static TIntObjectMap<TIntSet> extractFriendshipsFromFile(String filename) throws Exception {
         TIntObjectMap<TIntSet> friendships = new TIntObjectHashMap<>();
         File file = new File(filename);
@@ -6,10 +6,12 @@ import gnu.trove.map.hash.TIntIntHashMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
-import io.vntr.repartition.HRepartitioner;
+import io.vntr.manager.NoRepManager;
+import io.vntr.utils.InitUtils;
 import org.junit.Test;
 
 import static io.vntr.utils.TroveUtils.*;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -49,7 +51,7 @@ public class HBefrienderTest {
         float gammaBarelyAllowingFiveOnPartition = (5f / averageWeight) + differential;
         float gammaNearlyAllowingFiveOnPartition = (5f / averageWeight) - differential;
 
-        TIntObjectMap<HRepartitioner.LogicalUser> lusers = HRepartitioner.initLogicalUsers(partitions, bidirectionalFriendships, new TIntHashSet(friendships.keys()), gammaBarelyAllowingSixOnPartition);
+        NoRepManager manager = InitUtils.initNoRepManager(0, partitions, bidirectionalFriendships);
 
         TIntObjectMap<TIntIntMap> expectedResults = new TIntObjectHashMap<>();
         for(int uid : friendships.keys()) {
@@ -87,18 +89,18 @@ public class HBefrienderTest {
             int usersPid = uidToPidMap.get(uid);
             for(int pid : partitions.keys()) {
                 if(pid != usersPid) {
-                    int result = HBefriender.calculateGain(lusers.get(uid), pid, gammaBarelyAllowingSixOnPartition);
+                    int result = HBefriender.calculateGain(uid, usersPid, pid, gammaBarelyAllowingSixOnPartition, averageWeight, manager);
                     int expectedResult = expectedResults.get(uid).get(pid);
                     assertTrue(result == expectedResult);
                 }
             }
         }
 
-        assertTrue( 2 == HBefriender.calculateGain(lusers.get(12), 1, gammaBarelyAllowingSixOnPartition));
-        assertTrue(-1 == HBefriender.calculateGain(lusers.get(12), 1, gammaNearlyAllowingSixOnPartition));
+        assertTrue( 2 == HBefriender.calculateGain(12, 3, 1, gammaBarelyAllowingSixOnPartition, averageWeight, manager));
+        assertTrue(-1 == HBefriender.calculateGain(12, 3, 1, gammaNearlyAllowingSixOnPartition, averageWeight, manager));
 
-        assertTrue( 0 == HBefriender.calculateGain(lusers.get(1), 3, gammaBarelyAllowingFiveOnPartition));
-        assertTrue(-1 == HBefriender.calculateGain(lusers.get(1), 3, gammaNearlyAllowingFiveOnPartition));
+        assertTrue( 0 == HBefriender.calculateGain(1, 1, 3, gammaBarelyAllowingFiveOnPartition, averageWeight, manager));
+        assertTrue(-1 == HBefriender.calculateGain(1, 1, 3, gammaNearlyAllowingFiveOnPartition, averageWeight, manager));
     }
 
     @Test
@@ -132,17 +134,11 @@ public class HBefrienderTest {
         float gammaBarelyAllowingFiveOnPartition = (5f / averageWeight) + differential;
         float gammaNearlyAllowingFiveOnPartition = (5f / averageWeight) - differential;
 
-        BEFRIEND_REBALANCE_STRATEGY result = HBefriender.determineBestBefriendingRebalanceStrategy(1, 6, gammaBarelyAllowingSixOnPartition, bidirectionalFriendships, partitions);
-        assertTrue(result == BEFRIEND_REBALANCE_STRATEGY.LARGE_TO_SMALL);
-
-        result = HBefriender.determineBestBefriendingRebalanceStrategy(1, 6, gammaNearlyAllowingSixOnPartition, bidirectionalFriendships, partitions);
-        assertTrue(result == BEFRIEND_REBALANCE_STRATEGY.NO_CHANGE);
-
-        result = HBefriender.determineBestBefriendingRebalanceStrategy(10, 6, gammaBarelyAllowingFiveOnPartition, bidirectionalFriendships, partitions);
-        assertTrue(result == BEFRIEND_REBALANCE_STRATEGY.SMALL_TO_LARGE);
-
-        result = HBefriender.determineBestBefriendingRebalanceStrategy(10, 6, gammaNearlyAllowingFiveOnPartition, bidirectionalFriendships, partitions);
-        assertTrue(result == BEFRIEND_REBALANCE_STRATEGY.NO_CHANGE);
+        NoRepManager manager = InitUtils.initNoRepManager(0, partitions, bidirectionalFriendships);
+        assertEquals(BEFRIEND_REBALANCE_STRATEGY.LARGE_TO_SMALL, HBefriender.determineBestBefriendingRebalanceStrategy(1, 6, gammaBarelyAllowingSixOnPartition, manager));
+        assertEquals(BEFRIEND_REBALANCE_STRATEGY.NO_CHANGE, HBefriender.determineBestBefriendingRebalanceStrategy(1, 6, gammaNearlyAllowingSixOnPartition, manager));
+        assertEquals(BEFRIEND_REBALANCE_STRATEGY.SMALL_TO_LARGE, HBefriender.determineBestBefriendingRebalanceStrategy(10, 6, gammaBarelyAllowingFiveOnPartition, manager));
+        assertEquals(BEFRIEND_REBALANCE_STRATEGY.NO_CHANGE, HBefriender.determineBestBefriendingRebalanceStrategy(10, 6, gammaNearlyAllowingFiveOnPartition, manager));
     }
 
 }
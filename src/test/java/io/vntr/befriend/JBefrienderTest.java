@@ -6,6 +6,9 @@ import gnu.trove.map.hash.TIntIntHashMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
+import io.vntr.manager.NoRepManager;
+import io.vntr.utils.InitUtils;
+import io.vntr.utils.PowerTable;
 import org.junit.Test;
 
 import java.util.*;
@@ -72,10 +75,11 @@ public class JBefrienderTest {
             }
         }
 
+        NoRepManager manager = InitUtils.initNoRepManager(0, partitions, bidirectionalFriendships);
         for(int uid1 : expectedResults.keys()) {
             for(int uid2 : expectedResults.get(uid1).keys()) {
                 int expectedResult = expectedResults.get(uid1).get(uid2);
-                int result = JBefriender.calculateGain(uid1, uid2, bidirectionalFriendships, uidToPidMap);
+                int result = JBefriender.calculateGain(uid1, uid2, manager);
                 assertTrue(expectedResult == result);
             }
         }
@@ -122,17 +126,19 @@ public class JBefrienderTest {
         expectedResults.put(12, null);
         expectedResults.put(13, null);
 
+        NoRepManager manager = InitUtils.initNoRepManager(0, partitions, bidirectionalFriendships);
+        PowerTable powers = new PowerTable(alpha);
         for(int uid : friendships.keys()) {
             TIntSet candidates = new TIntHashSet(friendships.keys());
             candidates.removeAll(partitions.get(uidToPidMap.get(uid)));
-            Integer result = JBefriender.findPartner(uid, candidates, alpha, bidirectionalFriendships, uidToPidMap);
+            Integer result = JBefriender.findPartner(uid, candidates, powers, manager);
             Integer expectedResult = expectedResults.get(uid);
             assertEquals(expectedResult, result);
         }
     }
 
     @Test
-    public void testHowManyFriendsHavePartition() {
+    public void testRebalance() {
         TIntObjectMap<TIntSet> partitions = new TIntObjectHashMap<>();
         partitions.put(1, initSet( 1,  2,  3,  4, 5));
         partitions.put(2, initSet( 6,  7,  8,  9));
@@ -153,21 +159,27 @@ public class JBefrienderTest {
         friendships.put(12, initSet(13));
         friendships.put(13, new TIntHashSet());
 
-        TIntObjectMap<TIntSet> bidirectionalFriendships = generateBidirectionalFriendshipSet(friendships);
-        TIntIntMap uidToPidMap = getUToMasterMap(partitions);
+        NoRepManager manager = InitUtils.initNoRepManager(0, partitions, generateBidirectionalFriendshipSet(friendships));
+        PowerTable powers = new PowerTable(1f);
+        int k = friendships.size(); //every user on the other partition is a candidate
 
-        TIntObjectMap<TIntIntMap> uToPToFriendCount = new TIntObjectHashMap<>(friendships.size()+1);
+        //same partition: nothing to swap
+        JBefriender.Result result = JBefriender.rebalance(1, 2, k, powers, manager);
+        assertNull(result.getUid1());
+        assertNull(result.getUid2());
 
-        for(int uid : friendships.keys()) {
-            uToPToFriendCount.put(uid, getPToFriendCount(uid, bidirectionalFriendships, uidToPidMap, partitions.keySet()));
-        }
+        //both users find each other, and the gains tie, so the smaller user moves
+        result = JBefriender.rebalance(3, 6, k, powers, manager);
+        assertEquals(Integer.valueOf(3), result.getUid1());
+        assertEquals(Integer.valueOf(6), result.getUid2());
 
-        for(int uid : friendships.keys()) {
-            for(int pid : partitions.keys()) {
-                int expectedResult = uToPToFriendCount.get(uid).get(pid);
-                int result = JBefriender.howManyFriendsHavePartition(bidirectionalFriendships.get(uid), pid, uidToPidMap);
-                assertTrue(expectedResult == result);
-            }
-        }
+        result = JBefriender.rebalance(5, 10, k, powers, manager);
+        assertEquals(Integer.valueOf(5), result.getUid1());
+        assertEquals(Integer.valueOf(10), result.getUid2());
+
+        //neither user has a worthwhile partner
+        result = JBefriender.rebalance(7, 11, k, powers, manager);
+        assertNull(result.getUid1());
+        assertNull(result.getUid2());
     }
 }
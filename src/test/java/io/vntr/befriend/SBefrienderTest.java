@@ -6,9 +6,12 @@ import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
 import io.vntr.RepUser;
+import io.vntr.TestUtils;
 import io.vntr.manager.RepManager;
 import org.junit.Test;
 
+import java.util.Random;
+
 import static io.vntr.utils.InitUtils.initRepManager;
 import static io.vntr.utils.TroveUtils.*;
 import static io.vntr.befriend.BEFRIEND_REBALANCE_STRATEGY.*;
@@ -82,7 +85,7 @@ public class SBefrienderTest {
 
         int curNumReplicas = replicas.get(pid1).size() + replicas.get(pid2).size();
 
-        int numStay = calcNumReplicasStay(u1, u2, replicas);
+        int numStay = calcNumReplicasStay(u1, u2, manager);
         assertTrue(numStay == curNumReplicas + 1);
     }
 
@@ -116,9 +119,6 @@ public class SBefrienderTest {
         replicas.put(3, initSet( 1, 2, 3,  4,  5,  6, 8, 9));
 
         RepManager manager = initRepManager(minNumReplicas, 0, partitions, friendships, replicas);
-        TIntObjectMap<TIntSet> bidirectionalFriendships = generateBidirectionalFriendshipSet(friendships);
-        TIntIntMap uidToPidMap = getUToMasterMap(partitions);
-        TIntObjectMap<TIntSet> uidToReplicasMap = getUToReplicasMap(replicas, friendships.keySet());
 
         int uid1 = 7;
         int pid1 = 2;
@@ -130,10 +130,10 @@ public class SBefrienderTest {
 
         int curNumReplicas = replicas.get(pid1).size() + replicas.get(pid2).size();
 
-        int numReplicas1To2 = calcNumReplicasMove(u1, u2, replicas, minNumReplicas, uidToPidMap, uidToReplicasMap, bidirectionalFriendships);
+        int numReplicas1To2 = calcNumReplicasMove(u1, u2, minNumReplicas, manager);
         assertTrue(numReplicas1To2 == curNumReplicas + 1);
 
-        int numReplicas2To1 = calcNumReplicasMove(u2, u1, replicas, minNumReplicas, uidToPidMap, uidToReplicasMap, bidirectionalFriendships);
+        int numReplicas2To1 = calcNumReplicasMove(u2, u1, minNumReplicas, manager);
         assertTrue(numReplicas2To1 == curNumReplicas);
     }
 
@@ -167,8 +167,6 @@ public class SBefrienderTest {
         replicas.put(3, initSet( 1, 2, 3,  4,  5,  6, 8, 9));
 
         RepManager manager = initRepManager(minNumReplicas, 0, partitions, friendships, replicas);
-        TIntIntMap uidToPidMap = getUToMasterMap(partitions);
-        TIntObjectMap<TIntSet> uidToReplicasMap = getUToReplicasMap(replicas, friendships.keySet());
 
         //uid -> pid -> toAdd
         TIntObjectMap<TIntObjectMap<TIntSet>> expectedResults = new TIntObjectHashMap<>();
@@ -205,10 +203,10 @@ public class SBefrienderTest {
 
         for(int uid : friendships.keys()) {
             for(int pid : partitions.keys()) {
-                if(uidToPidMap.get(uid) == pid) {
+                if(manager.getUserMaster(uid).getBasePid() == pid) {
                     continue;
                 }
-                TIntSet result = findReplicasToAddToTargetPartition(manager.getUserMaster(uid), pid, uidToPidMap, uidToReplicasMap);
+                TIntSet result = findReplicasToAddToTargetPartition(manager.getUserMaster(uid), pid, manager);
                 assertEquals(result, expectedResults.get(uid).get(pid));
             }
         }
@@ -244,9 +242,6 @@ public class SBefrienderTest {
         replicas.put(3, initSet( 1, 2, 3,  4,  5,  6, 8, 9));
 
         RepManager manager = initRepManager(minNumReplicas, 0, partitions, friendships, replicas);
-        TIntIntMap uidToPidMap = getUToMasterMap(partitions);
-        TIntObjectMap<TIntSet> uidToReplicasMap = getUToReplicasMap(replicas, friendships.keySet());
-        TIntObjectMap<TIntSet> bidirectionalFriendships = generateBidirectionalFriendshipSet(friendships);
 
         TIntObjectMap<TIntObjectMap<TIntSet>> expectedResults = new TIntObjectHashMap<>();
         for(int uid : friendships.keys()) {
@@ -283,12 +278,12 @@ public class SBefrienderTest {
 
         for(int uid : friendships.keys()) {
             for(int pid : partitions.keys()) {
-                if(pid == uidToPidMap.get(uid)) {
+                if(pid == manager.getUserMaster(uid).getBasePid()) {
                     continue;
                 }
                 RepUser movingUser = manager.getUserMaster(uid);
-                TIntSet replicasToAdd = findReplicasToAddToTargetPartition(movingUser, pid, uidToPidMap, uidToReplicasMap);
-                TIntSet results = findReplicasInMovingPartitionToDelete(movingUser, replicasToAdd, minNumReplicas, uidToReplicasMap, uidToPidMap, bidirectionalFriendships);
+                TIntSet replicasToAdd = findReplicasToAddToTargetPartition(movingUser, pid, manager);
+                TIntSet results = findReplicasInMovingPartitionToDelete(movingUser, replicasToAdd, minNumReplicas, manager);
                 assertEquals(results, expectedResults.get(uid).get(pid));
             }
         }
@@ -324,8 +319,6 @@ public class SBefrienderTest {
         replicas.put(3, initSet( 1, 2, 3,  4,  5,  6, 8, 9));
 
         RepManager manager = initRepManager(minNumReplicas, 0, partitions, friendships, replicas);
-        TIntIntMap uidToPidMap = getUToMasterMap(partitions);
-        TIntObjectMap<TIntSet> bidirectionalFriendships = generateBidirectionalFriendshipSet(friendships);
 
         TIntObjectMap<TIntSet> expectedResults = new TIntObjectHashMap<>();
         expectedResults.put(1, initSet(13));
@@ -343,7 +336,7 @@ public class SBefrienderTest {
         expectedResults.put(13, new TIntHashSet());
 
         for(int uid : friendships.keys()) {
-            assertEquals(expectedResults.get(uid), findReplicasInPartitionThatWereOnlyThereForThisUsersSake(manager.getUserMaster(uid), uidToPidMap, bidirectionalFriendships));
+            assertEquals(expectedResults.get(uid), findReplicasInPartitionThatWereOnlyThereForThisUsersSake(manager.getUserMaster(uid), manager));
         }
     }
 
@@ -377,7 +370,6 @@ public class SBefrienderTest {
         replicas.put(3, initSet( 1, 2, 3,  4,  5,  6, 8, 9));
 
         RepManager manager = initRepManager(minNumReplicas, 0, partitions, friendships, replicas);
-        TIntIntMap uidToPidMap = getUToMasterMap(partitions);
 
         Boolean[] expectedResults = {null,
                 true,  true,  true,  true,  true,
@@ -386,7 +378,7 @@ public class SBefrienderTest {
 
         for(int uid : friendships.keys()) {
             RepUser user = manager.getUserMaster(uid);
-            boolean result = shouldWeAddAReplicaOfMovingUserInMovingPartition(user, uidToPidMap);
+            boolean result = shouldWeAddAReplicaOfMovingUserInMovingPartition(user, manager);
             assertTrue(result == expectedResults[uid]);
         }
     }
@@ -421,26 +413,25 @@ public class SBefrienderTest {
         replicas.put(3, initSet( 1, 2, 3,  4,  5,  6, 8, 9));
 
         RepManager manager = initRepManager(minNumReplicas, 0, partitions, friendships, replicas);
-        TIntIntMap uidToPidMap = getUToMasterMap(partitions);
 
 
         //Case 1: user has no replica on partition.
         //Should be false.
-        assertFalse(shouldWeDeleteReplicaOfMovingUserInStayingPartition(manager.getUserMaster(13), manager.getUserMaster(6), minNumReplicas, uidToPidMap));
+        assertFalse(shouldWeDeleteReplicaOfMovingUserInStayingPartition(manager.getUserMaster(13), manager.getUserMaster(6), minNumReplicas, manager));
 
         //Case 2: user has a replica on partition, and has numReplicas > minNumReplicas.
         //Should be true.
-        assertTrue(shouldWeDeleteReplicaOfMovingUserInStayingPartition(manager.getUserMaster(6), manager.getUserMaster(13), minNumReplicas, uidToPidMap));
+        assertTrue(shouldWeDeleteReplicaOfMovingUserInStayingPartition(manager.getUserMaster(6), manager.getUserMaster(13), minNumReplicas, manager));
 
         //Case 3: user has a replica on partition, has numReplicas == minNumReplicas, and is adding one to moving partition.
         //Should be true.
-        assertTrue(shouldWeDeleteReplicaOfMovingUserInStayingPartition(manager.getUserMaster(11), manager.getUserMaster(6), minNumReplicas, uidToPidMap));
+        assertTrue(shouldWeDeleteReplicaOfMovingUserInStayingPartition(manager.getUserMaster(11), manager.getUserMaster(6), minNumReplicas, manager));
 
         //Case 4: user has a replica on partition, has numReplicas == minNumReplicas, and is not adding one to moving partition.
         //Should be false.
         manager.unfriend(manager.getUserMaster(11), manager.getUserMaster(12));
         manager.unfriend(manager.getUserMaster(11), manager.getUserMaster(10));
-        assertFalse(shouldWeDeleteReplicaOfMovingUserInStayingPartition(manager.getUserMaster(11), manager.getUserMaster(6), minNumReplicas, uidToPidMap));
+        assertFalse(shouldWeDeleteReplicaOfMovingUserInStayingPartition(manager.getUserMaster(11), manager.getUserMaster(6), minNumReplicas, manager));
     }
 
     @Test
@@ -473,28 +464,87 @@ public class SBefrienderTest {
         replicas.put(3, initSet( 1, 2, 3,  4,  5,  6, 8, 9));
 
         RepManager manager = initRepManager(minNumReplicas, 0, partitions, friendships, replicas);
-        TIntIntMap uidToPidMap = getUToMasterMap(partitions);
 
         //Case 1: staying user has no replica in moving partition
         //Should: false, Could: false
-        assertFalse(shouldWeDeleteReplicaOfStayingUserInMovingPartition(manager.getUserMaster(6), manager.getUserMaster(13), minNumReplicas, uidToPidMap));
-        assertFalse(couldWeDeleteReplicaOfStayingUserInMovingPartition (manager.getUserMaster(6), manager.getUserMaster(13), uidToPidMap));
+        assertFalse(shouldWeDeleteReplicaOfStayingUserInMovingPartition(manager.getUserMaster(6), manager.getUserMaster(13), minNumReplicas, manager));
+        assertFalse(couldWeDeleteReplicaOfStayingUserInMovingPartition (manager.getUserMaster(6), manager.getUserMaster(13), manager));
 
         //Case 2: staying user has a replica in moving partition and has another friend there
         //Should: false, Could: false
-        assertFalse(shouldWeDeleteReplicaOfStayingUserInMovingPartition(manager.getUserMaster(6), manager.getUserMaster(1), minNumReplicas, uidToPidMap));
-        assertFalse(couldWeDeleteReplicaOfStayingUserInMovingPartition (manager.getUserMaster(6), manager.getUserMaster(1), uidToPidMap));
+        assertFalse(shouldWeDeleteReplicaOfStayingUserInMovingPartition(manager.getUserMaster(6), manager.getUserMaster(1), minNumReplicas, manager));
+        assertFalse(couldWeDeleteReplicaOfStayingUserInMovingPartition (manager.getUserMaster(6), manager.getUserMaster(1), manager));
 
         //Case 3: staying user has a replica in moving partition, doesn't have another friend there, and has numReplicas == minNumReplicas
         //Should: false, Could: true
-        assertFalse(shouldWeDeleteReplicaOfStayingUserInMovingPartition(manager.getUserMaster(1), manager.getUserMaster(13), minNumReplicas, uidToPidMap));
-        assertTrue (couldWeDeleteReplicaOfStayingUserInMovingPartition (manager.getUserMaster(1), manager.getUserMaster(13), uidToPidMap));
+        assertFalse(shouldWeDeleteReplicaOfStayingUserInMovingPartition(manager.getUserMaster(1), manager.getUserMaster(13), minNumReplicas, manager));
+        assertTrue (couldWeDeleteReplicaOfStayingUserInMovingPartition (manager.getUserMaster(1), manager.getUserMaster(13), manager));
 
         //Case 4: staying user has a replica in moving partition, doesn't have another friend there, and has numReplicas > minNumReplicas
         //Should be true
         manager.addReplica(manager.getUserMaster(13), 2);
-        assertTrue (shouldWeDeleteReplicaOfStayingUserInMovingPartition(manager.getUserMaster(1), manager.getUserMaster(13), minNumReplicas, uidToPidMap));
-        assertTrue (couldWeDeleteReplicaOfStayingUserInMovingPartition (manager.getUserMaster(1), manager.getUserMaster(13), uidToPidMap));
+        assertTrue (shouldWeDeleteReplicaOfStayingUserInMovingPartition(manager.getUserMaster(1), manager.getUserMaster(13), minNumReplicas, manager));
+        assertTrue (couldWeDeleteReplicaOfStayingUserInMovingPartition (manager.getUserMaster(1), manager.getUserMaster(13), manager));
+    }
+
+    @Test
+    public void testManagerLookupsMatchFullRecomputation() {
+        int minNumReplicas = 1;
+        Random random = new Random(11);
+
+        TestUtils.RandomGraph randomGraph = TestUtils.randomGraph(random, 40, 4, 130);
+        TIntObjectMap<TIntSet> partitions = randomGraph.getPartitions();
+        TIntObjectMap<TIntSet> friendships = randomGraph.getFriendships();
+        TIntObjectMap<TIntSet> replicas = getInitialReplicasObeyingKReplication(minNumReplicas, partitions, friendships, random);
+        RepManager manager = initRepManager(minNumReplicas, 0, partitions, friendships, replicas);
+
+        for(int round = 0; round < 20; round++) {
+            TIntObjectMap<TIntSet> bidirectionalFriendships = manager.getFriendships();
+            TIntIntMap uidToPidMap = getUToMasterMap(manager.getPartitionToUserMap());
+            TIntObjectMap<TIntSet> uidToReplicasMap = getUToReplicasMap(manager.getPartitionToReplicasMap(), bidirectionalFriendships.keySet());
+
+            for(int uid = 0; uid < 40; uid++) {
+                RepUser user = manager.getUserMaster(uid);
+                assertEquals(recomputeReplicasOnlyThereForThisUsersSake(user, uidToPidMap, bidirectionalFriendships), findReplicasInPartitionThatWereOnlyThereForThisUsersSake(user, manager));
+                for(int pid : manager.getPids().toArray()) {
+                    if(pid != user.getBasePid()) {
+                        assertEquals(recomputeReplicasToAdd(user, pid, uidToPidMap, uidToReplicasMap), findReplicasToAddToTargetPartition(user, pid, manager));
+                    }
+                }
+            }
+
+            //move someone the way SparMiddleware does, so the next round checks the manager's bookkeeping after a move
+            RepUser moving = manager.getUserMaster(random.nextInt(40));
+            int targetPid = moving.getBasePid() % 4 + 1;
+            TIntSet replicasToAdd = findReplicasToAddToTargetPartition(moving, targetPid, manager);
+            TIntSet replicasToDelete = findReplicasInMovingPartitionToDelete(moving, replicasToAdd, minNumReplicas, manager);
+            manager.moveUser(moving, targetPid, replicasToAdd, replicasToDelete);
+        }
+    }
+
+    private static TIntSet recomputeReplicasToAdd(RepUser movingUser, int targetPid, TIntIntMap uidToPidMap, TIntObjectMap<TIntSet> uidToReplicasMap) {
+        TIntSet replicasToAdd = new TIntHashSet();
+        for(int friendId : movingUser.getFriendIDs().toArray()) {
+            if(uidToPidMap.get(friendId) != targetPid && !uidToReplicasMap.get(friendId).contains(targetPid)) {
+                replicasToAdd.add(friendId);
+            }
+        }
+        return replicasToAdd;
+    }
+
+    private static TIntSet recomputeReplicasOnlyThereForThisUsersSake(RepUser user, TIntIntMap uidToPidMap, TIntObjectMap<TIntSet> friendships) {
+        TIntSet replicas = new TIntHashSet();
+        outer: for(int friendId : user.getFriendIDs().toArray()) {
+            if(uidToPidMap.get(friendId) != user.getBasePid()) {
+                for(int friendOfFriendId : friendships.get(friendId).toArray()) {
+                    if(friendOfFriendId != user.getId() && uidToPidMap.get(friendOfFriendId) == user.getBasePid()) {
+                        continue outer;
+                    }
+                }
+                replicas.add(friendId);
+            }
+        }
+        return replicas;
     }
 
 }
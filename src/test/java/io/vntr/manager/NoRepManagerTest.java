@@ -6,6 +6,7 @@ import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
 import io.vntr.utils.InitUtils;
+import io.vntr.utils.ProbabilityUtils;
 import io.vntr.User;
 import io.vntr.utils.TroveUtils;
 import org.junit.Test;
@@ -363,4 +364,147 @@ public class NoRepManagerTest {
         expectedCut = 47; //20 between p1 and p2, 15 between p1 and p3, and 12 between p2 and p3
         assertEquals(manager.getEdgeCut(), expectedCut);
     }
+
+    @Test
+    public void testTrackedEdgeCutMatchesFullScan() {
+        TIntObjectMap<TIntSet> partitions = new TIntObjectHashMap<>();
+        partitions.put(1, initSet(1, 2, 3));
+        partitions.put(2, initSet(4, 5, 6));
+
+        TIntObjectMap<TIntSet> friendships = new TIntObjectHashMap<>();
+        friendships.put(1, initSet(2, 4));
+        friendships.put(2, initSet(5));
+        friendships.put(3, initSet(6));
+        friendships.put(4, initSet(5));
+        friendships.put(5, new TIntHashSet());
+        friendships.put(6, new TIntHashSet());
+
+        NoRepManager manager = InitUtils.initNoRepManager(0, partitions, friendships);
+        assertEquals(manager.calculateEdgeCut(), manager.getEdgeCut());
+        assertEquals((Integer) 3, manager.getEdgeCut());
+
+        manager.befriend(3, 4);
+        manager.befriend(3, 4);
+        assertEquals(manager.calculateEdgeCut(), manager.getEdgeCut());
+
+        manager.moveUser(4, 1, false);
+        assertEquals(manager.calculateEdgeCut(), manager.getEdgeCut());
+
+        manager.unfriend(2, 5);
+        manager.unfriend(2, 5);
+        assertEquals(manager.calculateEdgeCut(), manager.getEdgeCut());
+
+        manager.removeUser(5);
+        assertEquals(manager.calculateEdgeCut(), manager.getEdgeCut());
+        manager.checkValidity();
+    }
+
+    @Test
+    public void testTrackedExpectedQueryDelayMatchesFullCalculation() {
+        TIntObjectMap<TIntSet> partitions = new TIntObjectHashMap<>();
+        partitions.put(1, initSet(1, 2, 3));
+        partitions.put(2, initSet(4, 5, 6));
+        partitions.put(3, initSet(7, 8));
+
+        TIntObjectMap<TIntSet> friendships = new TIntObjectHashMap<>();
+        friendships.put(1, initSet(2, 4, 7));
+        friendships.put(2, initSet(5));
+        friendships.put(3, initSet(6, 8));
+        friendships.put(4, initSet(5));
+        friendships.put(5, initSet(8));
+        friendships.put(6, new TIntHashSet());
+        friendships.put(7, new TIntHashSet());
+        friendships.put(8, new TIntHashSet());
+
+        NoRepManager manager = InitUtils.initNoRepManager(0, partitions, friendships);
+        assertEquals(ProbabilityUtils.calculateExpectedQueryDelay(manager.getFriendships(), manager.getPartitionToUsers()), manager.getExpectedQueryDelay(), 1e-6);
+
+        manager.befriend(6, 7);
+        manager.unfriend(1, 2);
+        manager.moveUser(1, 3, false);
+        assertEquals(ProbabilityUtils.calculateExpectedQueryDelay(manager.getFriendships(), manager.getPartitionToUsers()), manager.getExpectedQueryDelay(), 1e-6);
+
+        manager.removeUser(5);
+        manager.removePartition(2);
+        manager.moveUser(4, 1, true);
+        manager.moveUser(6, 3, true);
+        assertEquals(ProbabilityUtils.calculateExpectedQueryDelay(manager.getFriendships(), manager.getPartitionToUsers()), manager.getExpectedQueryDelay(), 1e-6);
+        manager.checkValidity();
+    }
+
+    @Test
+    public void testGetNumFriendsOnPartition() {
+        TIntObjectMap<TIntSet> partitions = new TIntObjectHashMap<>();
+        partitions.put(1, initSet(1, 2, 3));
+        partitions.put(2, initSet(4, 5, 6));
+        partitions.put(3, initSet(7, 8));
+
+        TIntObjectMap<TIntSet> friendships = new TIntObjectHashMap<>();
+        friendships.put(1, initSet(2, 4, 7));
+        friendships.put(2, initSet(5));
+        friendships.put(3, initSet(6, 8));
+        friendships.put(4, initSet(5));
+        friendships.put(5, initSet(8));
+        friendships.put(6, new TIntHashSet());
+        friendships.put(7, new TIntHashSet());
+        friendships.put(8, new TIntHashSet());
+
+        NoRepManager manager = InitUtils.initNoRepManager(0, partitions, friendships);
+        assertFriendCountsMatch(manager);
+        assertEquals(1, manager.getNumFriendsOnPartition(1, 2));
+
+        manager.befriend(1, 5);
+        manager.unfriend(3, 8);
+        manager.moveUser(4, 3, false);
+        assertFriendCountsMatch(manager);
+        assertEquals(1, manager.getNumFriendsOnPartition(1, 2));
+        assertEquals(2, manager.getNumFriendsOnPartition(1, 3));
+
+        manager.removeUser(5);
+        assertFriendCountsMatch(manager);
+        assertEquals(0, manager.getNumFriendsOnPartition(1, 2));
+    }
+
+    private static void assertFriendCountsMatch(NoRepManager manager) {
+        for(int uid : manager.getUids().toArray()) {
+            for(int pid : manager.getPids().toArray()) {
+                int expected = 0;
+                for(TIntIterator iter = manager.getUser(uid).getFriendIDs().iterator(); iter.hasNext(); ) {
+                    if(manager.getPidForUser(iter.next()) == pid) {
+                        expected++;
+                    }
+                }
+                assertEquals(expected, manager.getNumFriendsOnPartition(uid, pid));
+            }
+        }
+    }
+
+    @Test
+    public void testSampleUsersOnPartition() {
+        TIntObjectMap<TIntSet> partitions = new TIntObjectHashMap<>();
+        partitions.put(1, initSet( 1,  2,  3,  4, 5));
+        partitions.put(2, initSet( 6,  7,  8,  9));
+        partitions.put(3, initSet(10, 11, 12, 13));
+
+        TIntObjectMap<TIntSet> friendships = new TIntObjectHashMap<>();
+        for(int uid = 1; uid <= 13; uid++) {
+            friendships.put(uid, new TIntHashSet());
+        }
+
+        NoRepManager manager = InitUtils.initNoRepManager(0, partitions, friendships);
+        assertEquals(initSet(6, 7, 8, 9), manager.sampleUsersOnPartition(2, 4));
+        assertEquals(initSet(6, 7, 8, 9), manager.sampleUsersOnPartition(2, 10));
+
+        manager.moveUser(7, 3, false);
+        manager.removeUser(8);
+        manager.addUser(new User(14, 2));
+        assertEquals(initSet(6, 9, 14), manager.sampleUsersOnPartition(2, 3));
+
+        for(int i = 0; i < 100; i++) {
+            TIntSet sample = manager.sampleUsersOnPartition(3, 2);
+            assertEquals(2, sample.size());
+            assertTrue(initSet(7, 10, 11, 12, 13).containsAll(sample));
+        }
+        manager.checkValidity();
+    }
 }
@@ -1,7 +1,6 @@
 package io.vntr.manager;
 
 import gnu.trove.iterator.TIntIterator;
-import gnu.trove.map.TIntIntMap;
 import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.set.TIntSet;
@@ -430,9 +429,7 @@ public class RepManagerTest {
 
 //        SparBefriendingStrategy strategy = new SparBefriendingStrategy(manager);
 //        Set<Integer> replicasToDeleteInSourcePartition = new HashSet<>(strategy.findReplicasInMovingPartitionToDelete(repUser1, replicasToAddInDestinationPartition));
-        TIntIntMap uidToPidMap = getUToMasterMap(manager.getPartitionToUserMap());
-        TIntObjectMap<TIntSet> uidToReplicasMap = getUToReplicasMap(manager.getPartitionToReplicasMap(), new TIntHashSet(manager.getUids()));
-        TIntSet replicasToDeleteInSourcePartition = SBefriender.findReplicasInMovingPartitionToDelete(repUser1, new TIntHashSet(replicasToAddInDestinationPartition), minNumReplicas, uidToReplicasMap, uidToPidMap, manager.getFriendships());
+        TIntSet replicasToDeleteInSourcePartition = SBefriender.findReplicasInMovingPartitionToDelete(repUser1, new TIntHashSet(replicasToAddInDestinationPartition), minNumReplicas, manager);
         manager.moveUser(repUser1, newPid, replicasToAddInDestinationPartition, replicasToDeleteInSourcePartition);
 
         RepUser repUser1Again = manager.getUserMaster(uid1);
@@ -738,5 +735,83 @@ public class RepManagerTest {
         assertEquals(manager.getEdgeCut(), (Integer) 25);
     }
 
+    @Test
+    public void testTrackedCountersMatchFullScan() {
+        TIntObjectMap<TIntSet> partitions = new TIntObjectHashMap<>();
+        partitions.put(1, initSet(1, 2, 3));
+        partitions.put(2, initSet(4, 5, 6));
+        partitions.put(3, initSet(7, 8, 9));
+
+        TIntObjectMap<TIntSet> friendships = new TIntObjectHashMap<>();
+        friendships.put(1, initSet(2, 4, 7));
+        friendships.put(2, initSet(5));
+        friendships.put(3, initSet(6, 9));
+        friendships.put(4, initSet(5, 8));
+        friendships.put(5, new TIntHashSet());
+        friendships.put(6, initSet(9));
+        friendships.put(7, new TIntHashSet());
+        friendships.put(8, new TIntHashSet());
+        friendships.put(9, new TIntHashSet());
+
+        TIntObjectMap<TIntSet> replicaPartitions = new TIntObjectHashMap<>();
+        replicaPartitions.put(1, initSet(4, 5, 7, 9));
+        replicaPartitions.put(2, initSet(1, 2, 3, 8, 9));
+        replicaPartitions.put(3, initSet(1, 3, 4, 6));
+
+        RepManager manager = initRepManager(0, 0, partitions, friendships, replicaPartitions);
+        assertEquals(manager.calculateEdgeCut(), manager.getEdgeCut());
+        assertEquals(manager.calculateReplicationCount(), manager.getReplicationCount());
+        assertEquals((Integer) 13, manager.getReplicationCount());
+
+        manager.befriend(manager.getUserMaster(2), manager.getUserMaster(7));
+        manager.befriend(manager.getUserMaster(2), manager.getUserMaster(7));
+        manager.unfriend(manager.getUserMaster(3), manager.getUserMaster(9));
+        manager.unfriend(manager.getUserMaster(3), manager.getUserMaster(9));
+        assertEquals(manager.calculateEdgeCut(), manager.getEdgeCut());
+
+        manager.addReplica(manager.getUserMaster(2), 3);
+        manager.removeReplica(manager.getUserMaster(9), 1);
+        assertEquals(manager.calculateReplicationCount(), manager.getReplicationCount());
+
+        manager.moveUser(manager.getUserMaster(4), 1, initSet(8), new TIntHashSet());
+        assertEquals(manager.calculateEdgeCut(), manager.getEdgeCut());
+        assertEquals(manager.calculateReplicationCount(), manager.getReplicationCount());
+        assertEquals(2, manager.getNumFriendsOnPartition(5, 1));
+        assertEquals(0, manager.getNumFriendsOnPartition(5, 2));
+
+        manager.promoteReplicaToMaster(6, 3);
+        assertEquals(manager.calculateEdgeCut(), manager.getEdgeCut());
+        assertEquals(1, manager.getNumFriendsOnPartition(9, 3));
+        assertEquals(0, manager.getNumFriendsOnPartition(9, 2));
+        assertEquals(manager.calculateReplicationCount(), manager.getReplicationCount());
+
+        manager.removeUser(1);
+        assertEquals(manager.calculateEdgeCut(), manager.getEdgeCut());
+        assertEquals(manager.calculateReplicationCount(), manager.getReplicationCount());
+
+        manager.removePartition(2);
+        assertEquals(manager.calculateReplicationCount(), manager.getReplicationCount());
+    }
+
+    @Test
+    public void testReplicasShareMasterRecord() {
+        RepManager manager = new RepManager(2, 0);
+        for(int i = 0; i < 4; i++) {
+            manager.addPartition();
+        }
+        manager.addUser(new User(1));
+        manager.addUser(new User(2));
+
+        RepUser user1 = manager.getUserMaster(1);
+        RepUser user2 = manager.getUserMaster(2);
+        manager.befriend(user1, user2);
+
+        for(TIntIterator iter = user1.getReplicaPids().iterator(); iter.hasNext(); ) {
+            RepUser replica = manager.getReplicaOnPartition(1, iter.next());
+            assertSame(user1, replica);
+            assertTrue(replica.getFriendIDs().contains(2));
+        }
+        assertEquals((Integer) 4, manager.getReplicationCount());
+    }
 
 }
\ No newline at end of file
@@ -0,0 +1,70 @@
+package io.vntr.manager;
+
+import gnu.trove.set.hash.TIntHashSet;
+import io.vntr.User;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static io.vntr.manager.UidToPidMap.NO_PID;
+import static org.junit.Assert.*;
+
+public class UidToPidMapTest {
+
+    @Test
+    public void testDenseMatchesHashed() {
+        UidToPidMap hashed = UidToPidMap.create(false);
+        UidToPidMap dense = UidToPidMap.create(true);
+        Random random = new Random(7);
+        for(int i = 0; i < 5000; i++) {
+            int uid = random.nextInt(300);
+            if(random.nextInt(4) == 0) {
+                hashed.remove(uid);
+                dense.remove(uid);
+            } else {
+                int pid = random.nextInt(10);
+                hashed.put(uid, pid);
+                dense.put(uid, pid);
+            }
+            assertEquals(hashed.size(), dense.size());
+            assertEquals(hashed.get(uid), dense.get(uid));
+            assertEquals(hashed.containsKey(uid), dense.containsKey(uid));
+        }
+        assertEquals(hashed.keySet(), dense.keySet());
+        assertSame(dense.keySet(), dense.keySet());
+
+        dense.remove(dense.keys()[0]);
+        dense.put(500, 3);
+        assertEquals(new TIntHashSet(dense.keys()), dense.keySet());
+        assertEquals(NO_PID, hashed.get(1000));
+        assertEquals(NO_PID, dense.get(1000));
+        assertEquals(NO_PID, dense.get(-1));
+    }
+
+    @Test
+    public void testDenseManagersMatchHashedManagers() {
+        NoRepManager hashed = new NoRepManager(0, false);
+        NoRepManager dense = new NoRepManager(0, true);
+        for(int pid = 0; pid < 3; pid++) {
+            hashed.addPartition(pid);
+            dense.addPartition(pid);
+        }
+        for(int uid = 0; uid < 30; uid++) {
+            hashed.addUser(new User(uid, uid % 3));
+            dense.addUser(new User(uid, uid % 3));
+        }
+        for(int uid = 1; uid < 30; uid++) {
+            hashed.befriend(uid, uid / 2);
+            dense.befriend(uid, uid / 2);
+        }
+        hashed.moveUser(4, 0, false);
+        dense.moveUser(4, 0, false);
+        hashed.removeUser(7);
+        dense.removeUser(7);
+
+        assertEquals(hashed.getEdgeCut(), dense.getEdgeCut());
+        assertEquals(hashed.getPidForUser(4), dense.getPidForUser(4));
+        assertEquals(hashed.getUids(), dense.getUids());
+        dense.checkValidity();
+    }
+}
@@ -0,0 +1,97 @@
+package io.vntr.middleware;
+
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.set.TIntSet;
+import io.vntr.TestUtils;
+import io.vntr.User;
+import io.vntr.manager.NoRepManager;
+import io.vntr.utils.RandomSource;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static io.vntr.utils.InitUtils.initNoRepManager;
+import static org.junit.Assert.*;
+
+public class MetisMiddlewareTest {
+
+    @Test
+    public void testIncrementalRefillsARemovedAndReaddedPartition() {
+        NoRepManager manager = getManager(7);
+        MetisMiddleware middleware = new MetisMiddleware(null, null, manager, true);
+
+        middleware.broadcastDowntime();
+        assertValidAndBalanced(middleware, manager);
+
+        middleware.removePartition(4);
+        middleware.addPartition(4);
+        assertEquals(0, manager.getPartition(4).size());
+
+        middleware.broadcastDowntime();
+        assertValidAndBalanced(middleware, manager);
+    }
+
+    @Test
+    public void testIncrementalSurvivesUserChurn() {
+        NoRepManager manager = getManager(8);
+        MetisMiddleware middleware = new MetisMiddleware(null, null, manager, true);
+        Random random = new Random(8);
+
+        middleware.broadcastDowntime();
+        assertValidAndBalanced(middleware, manager);
+
+        //re-adding the same uids keeps the uid array the same, so only the middleware can tell the refiner
+        for(int uid = 0; uid < 40; uid++) {
+            middleware.removeUser(uid);
+        }
+        for(int uid = 0; uid < 40; uid++) {
+            middleware.addUser(new User(uid, 1));
+        }
+        for(int i = 0; i < 200; i++) {
+            int uid1 = random.nextInt(40);
+            int uid2 = 40 + random.nextInt(360);
+            if(!manager.getUser(uid1).getFriendIDs().contains(uid2)) {
+                middleware.befriend(uid1, uid2);
+            }
+        }
+        middleware.repartition();
+        assertValidAndBalanced(middleware, manager);
+
+        middleware.broadcastDowntime();
+        assertValidAndBalanced(middleware, manager);
+    }
+
+    @Test
+    public void testIncrementalBefriendsKeepTheManagerConsistent() {
+        NoRepManager manager = getManager(9);
+        MetisMiddleware middleware = new MetisMiddleware(null, null, manager, true);
+        Random random = new Random(9);
+
+        middleware.broadcastDowntime();
+        for(int i = 0; i < 300; i++) {
+            int uid1 = random.nextInt(400);
+            int uid2 = random.nextInt(400);
+            if(uid1 < uid2 && !manager.getUser(uid1).getFriendIDs().contains(uid2)) {
+                middleware.befriend(uid1, uid2);
+            }
+        }
+        middleware.repartition();
+        assertValidAndBalanced(middleware, manager);
+    }
+
+    private static NoRepManager getManager(long seed) {
+        TestUtils.RandomGraph randomGraph = TestUtils.randomGraph(new Random(seed), 400, 4, 1600);
+        return initNoRepManager(0, false, new RandomSource(seed), randomGraph.getPartitions(), randomGraph.getFriendships());
+    }
+
+    private static void assertValidAndBalanced(MetisMiddleware middleware, NoRepManager manager) {
+        middleware.checkValidity();
+        int numUsers = manager.getNumUsers();
+        int numPartitions = manager.getNumPartitions();
+        int maxPartSize = Math.max((int) Math.ceil(1.03 * numUsers / numPartitions), numUsers / numPartitions + 1);
+        TIntObjectMap<TIntSet> partitions = manager.getPartitionToUsers();
+        for(int pid : partitions.keys()) {
+            assertTrue(pid + " has " + partitions.get(pid).size(), partitions.get(pid).size() <= maxPartSize);
+        }
+    }
+}
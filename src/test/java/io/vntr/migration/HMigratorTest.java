@@ -11,6 +11,7 @@ import gnu.trove.set.hash.TIntHashSet;
 import io.vntr.repartition.Target;
 import org.junit.Test;
 
+import java.util.Random;
 import java.util.Set;
 
 import static io.vntr.utils.TroveUtils.*;
@@ -117,20 +118,20 @@ public class HMigratorTest {
         TIntObjectMap<TIntSet> bidirectionalFriendships = generateBidirectionalFriendshipSet(friendships);
         TIntIntMap uidToPidMap = getUToMasterMap(partitions);
 
-        Set<Target> p1Targets = HMigrator.getPreferredTargets(1, uidToPidMap, partitions, bidirectionalFriendships);
+        Set<Target> p1Targets = HMigrator.getPreferredTargets(1, uidToPidMap, partitions, bidirectionalFriendships, new Random());
         assertTrue(p1Targets.contains(new Target(1, 3, 1, 3f)));
         assertTrue(p1Targets.contains(new Target(2, 2, 1, 2f)));
         assertTrue(p1Targets.contains(new Target(3, 2, 1, 1f)) || p1Targets.contains(new Target(3, 3, 1, 1f)));
         assertTrue(p1Targets.contains(new Target(4, 3, 1, 1f)));
         assertTrue(p1Targets.contains(new Target(5, 2, 1, 1f)) || p1Targets.contains(new Target(5, 3, 1, 1f)));
 
-        Set<Target> p2Targets = HMigrator.getPreferredTargets(2, uidToPidMap, partitions, bidirectionalFriendships);
+        Set<Target> p2Targets = HMigrator.getPreferredTargets(2, uidToPidMap, partitions, bidirectionalFriendships, new Random());
         assertTrue(p2Targets.contains(new Target(6, 1, 2, 3f)));
         assertTrue(p2Targets.contains(new Target(7, 1, 2, 0f)) || p2Targets.contains(new Target(7, 3, 2, 0f)));
         assertTrue(p2Targets.contains(new Target(8, 1, 2, 2f)));
         assertTrue(p2Targets.contains(new Target(9, 1, 2, 1f)) || p2Targets.contains(new Target(9, 3, 2, 1f)));
 
-        Set<Target> p3Targets = HMigrator.getPreferredTargets(3, uidToPidMap, partitions, bidirectionalFriendships);
+        Set<Target> p3Targets = HMigrator.getPreferredTargets(3, uidToPidMap, partitions, bidirectionalFriendships, new Random());
         assertTrue(p3Targets.contains(new Target(10, 1, 3, 2f)));
         assertTrue(p3Targets.contains(new Target(11, 1, 3, 0f)) || p3Targets.contains(new Target(11, 2, 3, 0f)));
         assertTrue(p3Targets.contains(new Target(12, 1, 3, 4f)));
@@ -11,6 +11,7 @@ import gnu.trove.set.hash.TIntHashSet;
 import org.junit.Test;
 
 import static io.vntr.utils.TroveUtils.*;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -199,4 +200,37 @@ public class SMigratorTest {
 
         assertEquals(expectedResult, result);
     }
+
+    @Test
+    public void testGetUserMigrationStrategy() {
+        TIntObjectMap<TIntSet> partitions = new TIntObjectHashMap<>();
+        partitions.put(1, initSet(1, 2, 3));
+        partitions.put(2, initSet(4, 5, 6));
+        partitions.put(3, initSet(7, 8, 9));
+
+        TIntObjectMap<TIntSet> friendships = new TIntObjectHashMap<>();
+        for(int uid = 1; uid <= 9; uid++) {
+            friendships.put(uid, new TIntHashSet());
+        }
+        friendships.get(1).addAll(new int[]{4, 5, 7});
+        friendships.get(2).addAll(new int[]{7, 8, 9});
+        friendships.get(3).addAll(new int[]{4});
+        TIntObjectMap<TIntSet> bidirectionalFriendships = generateBidirectionalFriendshipSet(friendships);
+
+        TIntObjectMap<TIntSet> replicas = new TIntObjectHashMap<>();
+        replicas.put(1, new TIntHashSet());
+        replicas.put(2, initSet(1, 2, 3));
+        replicas.put(3, initSet(1, 2));
+
+        int[] friendCounts = new int[2];
+        SMigrator.countFriendsOnPartitions(bidirectionalFriendships.get(1), new int[]{2, 3}, partitions, friendCounts);
+        assertArrayEquals(new int[]{2, 1}, friendCounts);
+
+        //user 2 has all of its friends on partition 3, and user 1 has most of its friends on partition 2
+        TIntIntMap expectedResult = new TIntIntHashMap();
+        expectedResult.put(1, 2);
+        expectedResult.put(2, 3);
+        expectedResult.put(3, 2);
+        assertEquals(expectedResult, SMigrator.getUserMigrationStrategy(1, bidirectionalFriendships, partitions, replicas, true));
+    }
 }
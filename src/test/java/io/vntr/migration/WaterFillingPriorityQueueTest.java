@@ -1,5 +1,6 @@
 package io.vntr.migration;
 
+import gnu.trove.map.TIntIntMap;
 import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.hash.TIntIntHashMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
@@ -7,7 +8,12 @@ import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
 import org.junit.Test;
 
+import java.util.Random;
+
+import static io.vntr.utils.TroveUtils.getUserCounts;
 import static io.vntr.utils.TroveUtils.initSet;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 
 /**
  * Created by robertlindquist on 6/27/17.
@@ -51,6 +57,53 @@ public class WaterFillingPriorityQueueTest {
         replicaPartitions.put(4, initSet(11, 12, 13, 14, 15,  3));
 
         WaterFillingPriorityQueue queue = new WaterFillingPriorityQueue(partitions, new TIntIntHashMap(), 4);
-        //TODO: do this
+        assertArrayEquals(new int[]{1, 2, 3, 1, 2}, queue.getNextPids(5));
+        assertEquals(7, queue.getNumUsers(1));
+        assertEquals(6, queue.getNumUsers(3));
+    }
+
+    @Test
+    public void testFillsLightestFirst() {
+        TIntObjectMap<TIntSet> partitions = new TIntObjectHashMap<>();
+        partitions.put(1, initSet(1, 2, 3, 4, 5, 6));
+        partitions.put(2, initSet(7));
+        partitions.put(3, initSet(8, 9, 10));
+        partitions.put(4, initSet(11, 12));
+        partitions.put(5, initSet(13, 14, 15, 16, 17, 18, 19, 20));
+
+        //user 1 is already headed to partition 2
+        TIntIntMap strategy = new TIntIntHashMap();
+        strategy.put(1, 2);
+
+        WaterFillingPriorityQueue queue = new WaterFillingPriorityQueue(partitions, strategy, 5);
+        assertEquals(2, queue.getNumUsers(2));
+        assertArrayEquals(new int[]{2, 4, 2, 3, 4, 2, 3, 4}, queue.getNextPids(8));
+
+        queue.adjustNumUsers(3, -2);
+        assertEquals(3, queue.getNextPid());
+        queue.adjustNumUsers(3, 5);
+        assertEquals(2, queue.getNextPid());
+    }
+
+    @Test
+    public void testMigrateOffPartitionIsBalanced() {
+        TIntObjectMap<TIntSet> partitions = new TIntObjectHashMap<>();
+        int uid = 0;
+        for(int pid = 0; pid < 7; pid++) {
+            partitions.put(pid, new TIntHashSet());
+            for(int i = 0; i < 3 + 4 * pid; i++) {
+                partitions.get(pid).add(uid++);
+            }
+        }
+
+        TIntIntMap strategy = NoRepWaterFillingMigrator.migrateOffPartition(6, partitions, new Random());
+
+        assertEquals(partitions.get(6), strategy.keySet());
+        TIntIntMap counts = getUserCounts(partitions);
+        for(int movingUid : strategy.keys()) {
+            counts.adjustValue(strategy.get(movingUid), 1);
+        }
+        //27 users level partitions 0-3 up to 15 users, and the last 3 go to the lowest pids; 4 and 5 were already fuller
+        assertArrayEquals(new int[]{16, 16, 16, 15, 19, 23}, new int[]{counts.get(0), counts.get(1), counts.get(2), counts.get(3), counts.get(4), counts.get(5)});
     }
 }
@@ -6,6 +6,7 @@ import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
 import io.vntr.TestUtils;
+import io.vntr.utils.AdjacencySnapshot;
 import org.junit.Test;
 
 import java.util.*;
@@ -186,4 +187,35 @@ public class HRepartitionerTest {
         Set<Target> targets = HRepartitioner.getCandidates(2, false, 3, state);
         assertEquals(targets, TestUtils.initSet(new Target(6, 1, 2, 2f)));
     }
+
+    @Test
+    public void testParallelStagesMatchSerial() {
+        TestUtils.RandomGraph randomGraph = TestUtils.randomGraph(new Random(5), 200, 8, 800);
+        TIntObjectMap<TIntSet> partitions = randomGraph.getPartitions();
+        AdjacencySnapshot graph = AdjacencySnapshot.fromFriendships(randomGraph.getFriendships());
+
+        NoRepResults serial = HRepartitioner.repartition(3, 50, 1.5f, partitions, graph, 1);
+        NoRepResults parallel = HRepartitioner.repartition(3, 50, 1.5f, partitions, graph, 4);
+
+        assertTrue(serial.getLogicalMoves() > 0);
+        assertEquals(serial.getUidsToPids(), parallel.getUidsToPids());
+        assertEquals(serial.getLogicalMoves(), parallel.getLogicalMoves());
+    }
+
+    @Test
+    public void testIncrementalUpdateMatchesRebuild() {
+        TestUtils.RandomGraph randomGraph = TestUtils.randomGraph(new Random(9), 100, 5, 400);
+        TIntObjectMap<TIntSet> partitions = randomGraph.getPartitions();
+        AdjacencySnapshot graph = AdjacencySnapshot.fromFriendships(randomGraph.getFriendships());
+        float gamma = 1.5f;
+
+        HRepartitioner.State state = HRepartitioner.initState(partitions, graph, gamma);
+        for(int i = 0; i < 4; i++) {
+            Set<Target> targets = HRepartitioner.performStage(i % 2 == 0, 3, state);
+            state.updateLogicalUsers(targets, graph);
+
+            HRepartitioner.State rebuilt = HRepartitioner.initState(state.getLogicalPartitions(), graph, gamma);
+            assertEquals(rebuilt.getLogicalUsers(), state.getLogicalUsers());
+        }
+    }
 }
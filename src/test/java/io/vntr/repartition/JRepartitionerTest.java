@@ -7,6 +7,8 @@ import gnu.trove.map.hash.TIntIntHashMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
+import io.vntr.TestUtils;
+import io.vntr.utils.AdjacencySnapshot;
 import org.junit.Test;
 
 import java.util.*;
@@ -129,6 +131,15 @@ public class JRepartitionerTest {
         assertTrue(state.getLogicalPids().get(11) == 3);
         assertTrue(state.getLogicalPids().get(12) == 3);
         assertTrue(state.getLogicalPids().get(13) == 3);
+
+        //Everyone is friends with everyone, so each user's counts are the new partition sizes, minus themselves
+        assertEquals(5, state.getFriendCount(1, 1));
+        assertEquals(3, state.getFriendCount(1, 2));
+        assertEquals(4, state.getFriendCount(6, 1));
+        assertEquals(4, state.getFriendCount(6, 2));
+        assertEquals(5, state.getFriendCount(7, 1));
+        assertEquals(3, state.getFriendCount(7, 2));
+        assertEquals(4, state.getFriendCount(7, 3));
     }
 
     @Test
@@ -148,7 +159,7 @@ public class JRepartitionerTest {
 
         JRepartitioner.State state = initState(1, partitions, friendships);
 
-        assertEquals(56, JRepartitioner.getEdgeCut(state.getLogicalPids(), state.getFriendships()));
+        assertEquals(56, JRepartitioner.getEdgeCut(state.getLogicalPids(), state.getGraph()));
     }
 
     @Test
@@ -156,19 +167,33 @@ public class JRepartitionerTest {
         TIntSet pids = initSet(1, 2, 4, 5);
 
         int numUsers = 29;
-        int[] results = JRepartitioner.getPidsToAssign(numUsers, pids);
+        Random random = new Random();
+        int[] results = JRepartitioner.getPidsToAssign(numUsers, pids, random);
         assertResultsAreCorrect(results, numUsers, pids, new int[]{7, 7, 7, 8});
 
         numUsers = 144;
-        results = JRepartitioner.getPidsToAssign(numUsers, pids);
+        results = JRepartitioner.getPidsToAssign(numUsers, pids, random);
         assertResultsAreCorrect(results, numUsers, pids, new int[]{36, 36, 36, 36});
 
         pids = initSet(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 32, 33, 34, 35, 36, 37, 38, 39, 40, 41, 42, 43, 44, 45, 46, 47, 48, 49, 50, 51, 52, 53, 54, 55, 56, 57, 58, 59, 60, 61, 62, 63, 64, 65, 66, 67, 68, 69, 70, 71, 72, 73, 74, 75, 76, 77, 78, 79, 80);
         numUsers = 100000;
-        results = JRepartitioner.getPidsToAssign(numUsers, pids);
+        results = JRepartitioner.getPidsToAssign(numUsers, pids, random);
         assertResultsAreCorrect(results, numUsers, pids, new int[]{1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250, 1250});
     }
 
+    @Test
+    public void testParallelRestartsMatchSerial() {
+        TestUtils.RandomGraph randomGraph = TestUtils.randomGraph(new Random(3), 60, 3, 200);
+        TIntObjectMap<TIntSet> partitions = randomGraph.getPartitions();
+        AdjacencySnapshot graph = AdjacencySnapshot.fromFriendships(randomGraph.getFriendships());
+
+        NoRepResults serial = JRepartitioner.repartition(2f, 2f, 0.05f, 3, 5, partitions, graph, false, 1, new Random(17));
+        NoRepResults parallel = JRepartitioner.repartition(2f, 2f, 0.05f, 3, 5, partitions, graph, false, 4, new Random(17));
+
+        assertEquals(serial.getUidsToPids(), parallel.getUidsToPids());
+        assertEquals(serial.getLogicalMoves(), parallel.getLogicalMoves());
+    }
+
     private static void assertResultsAreCorrect(int[] results, int numUsers, TIntSet pids, int[] expectedFrequencies) {
         assertTrue(results.length == numUsers);
 
@@ -190,7 +215,7 @@ public class JRepartitionerTest {
     private static JRepartitioner.State initState(float alpha, TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> friendships) {
         JRepartitioner.State state = new JRepartitioner.State(alpha, generateBidirectionalFriendshipSet(friendships));
         state.setLogicalPids(getUToMasterMap(partitions));
-        state.initUidToPidToFriendCount(partitions);
+        state.initFriendCounts(partitions);
         return state;
     }
 }
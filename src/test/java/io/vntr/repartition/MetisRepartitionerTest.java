@@ -0,0 +1,132 @@
+package io.vntr.repartition;
+
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+import io.vntr.TestUtils;
+import io.vntr.utils.AdjacencySnapshot;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static io.vntr.utils.TroveUtils.initSet;
+import static org.junit.Assert.*;
+
+public class MetisRepartitionerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWriteAdjacencyGraphMetisStyle() throws Exception {
+        Path path = folder.newFile().toPath();
+        Files.write(path, "stale contents that are longer than the graph\n".getBytes(StandardCharsets.US_ASCII));
+
+        MetisRepartitioner.writeAdjacencyGraphMetisStyle(getGraph(), path);
+
+        String expected = "5 4\n3 4\n\n1 4\n1 3 5\n4\n";
+        assertEquals(expected, new String(Files.readAllBytes(path), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testReadPartitioning() throws Exception {
+        Path path = folder.newFile().toPath();
+        Files.write(path, "0\n2\n1\n10".getBytes(StandardCharsets.US_ASCII));
+        assertArrayEquals(new int[]{0, 2, 1, 10}, MetisRepartitioner.readPartitioning(path, 4));
+
+        Files.write(path, "3\r\n0\r\n".getBytes(StandardCharsets.US_ASCII));
+        assertArrayEquals(new int[]{3, 0}, MetisRepartitioner.readPartitioning(path, 2));
+
+        try {
+            MetisRepartitioner.readPartitioning(path, 3);
+            fail("Should have noticed the missing line");
+        } catch(RuntimeException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void testRefinerStateMatchesTheMovesItReturns() {
+        TestUtils.RandomGraph randomGraph = TestUtils.randomGraph(new Random(4), 300, 5, 1200);
+        TIntObjectMap<TIntSet> partitions = randomGraph.getPartitions();
+        AdjacencySnapshot graph = AdjacencySnapshot.fromFriendships(randomGraph.getFriendships());
+        MetisRepartitioner.Refiner refiner = new MetisRepartitioner.Refiner();
+        Random random = new Random(6);
+
+        for(int round = 0; round < 5; round++) {
+            TIntSet changedUids = new TIntHashSet();
+            for(int i = 0; i < 30; i++) {
+                changedUids.add(random.nextInt(300));
+            }
+            long seed = random.nextLong();
+
+            //a refiner that has never seen the graph must agree with the one that kept its state
+            TIntIntMap fresh = new MetisRepartitioner.Refiner().refine(graph, copy(partitions), changedUids, new Random(seed));
+            TIntIntMap moves = refiner.refine(graph, partitions, changedUids, new Random(seed));
+            assertEquals(fresh, moves);
+
+            for(int uid : moves.keys()) {
+                for(int pid : partitions.keys()) {
+                    if(partitions.get(pid).remove(uid)) {
+                        assertNotEquals(pid, moves.get(uid));
+                    }
+                }
+                partitions.get(moves.get(uid)).add(uid);
+            }
+        }
+    }
+
+    private static TIntObjectMap<TIntSet> copy(TIntObjectMap<TIntSet> partitions) {
+        TIntObjectMap<TIntSet> copy = new TIntObjectHashMap<>(partitions.size()+1);
+        for(int pid : partitions.keys()) {
+            copy.put(pid, new TIntHashSet(partitions.get(pid)));
+        }
+        return copy;
+    }
+
+    @Test
+    public void testExternalCommandReusesTempFile() throws Exception {
+        Assume.assumeTrue(new File("/bin/sh").canExecute());
+
+        //stands in for gpmetis: puts vertex i in part (i-1) mod k
+        File script = folder.newFile("fake_gpmetis.sh");
+        String contents = "#!/bin/sh\n"
+                + "n=$(head -n 1 \"$1\" | cut -d ' ' -f 1)\n"
+                + "i=0\n"
+                + "while [ $i -lt $n ]; do echo $((i % $2)); i=$((i + 1)); done > \"$1.part.$2\"\n";
+        Files.write(script.toPath(), contents.getBytes(StandardCharsets.US_ASCII));
+        assertTrue(script.setExecutable(true));
+        File tempDir = folder.newFolder();
+
+        for(int i = 0; i < 2; i++) {
+            TIntIntMap uidToPid = MetisRepartitioner.partition(script.getPath(), tempDir.getPath(), getGraph(), initSet(10, 20), new Random());
+            assertEquals(10, uidToPid.get(3));
+            assertEquals(20, uidToPid.get(5));
+            assertEquals(10, uidToPid.get(7));
+            assertEquals(20, uidToPid.get(12));
+            assertEquals(10, uidToPid.get(40));
+        }
+
+        //one graph file, plus its .part.2 and .log
+        assertEquals(3, tempDir.list().length);
+    }
+
+    private static AdjacencySnapshot getGraph() {
+        TIntObjectMap<TIntSet> friendships = new TIntObjectHashMap<>();
+        friendships.put(7, initSet(3, 12));
+        friendships.put(3, initSet(12, 7));
+        friendships.put(12, initSet(7, 3, 40));
+        friendships.put(40, initSet(12));
+        friendships.put(5, initSet());
+        return AdjacencySnapshot.fromFriendships(friendships);
+    }
+}
@@ -0,0 +1,165 @@
+package io.vntr.repartition;
+
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+import io.vntr.utils.AdjacencySnapshot;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static io.vntr.utils.TroveUtils.initSet;
+import static io.vntr.utils.TroveUtils.shuffle;
+import static java.util.Arrays.sort;
+import static org.junit.Assert.*;
+
+public class MultilevelPartitionerTest {
+
+    @Test
+    public void testFindsPlantedCommunities() {
+        int numGroups = 8;
+        int groupSize = 60;
+        int numUsers = numGroups * groupSize;
+        AdjacencySnapshot graph = getPlantedGraph(numGroups, groupSize, new Random(3));
+
+        int[] part = MultilevelPartitioner.partition(graph, numGroups, new Random(1));
+
+        assertEquals(numUsers, part.length);
+        int[] partSizes = new int[numGroups];
+        for(int p : part) {
+            partSizes[p]++;
+        }
+        int maxPartSize = (int) Math.ceil(MultilevelPartitioner.IMBALANCE_TOLERANCE * numUsers / numGroups);
+        for(int size : partSizes) {
+            assertTrue(size <= maxPartSize);
+        }
+
+        int plantedCut = 0;
+        int cut = 0;
+        int[] offsets = graph.getOffsets();
+        int[] neighborIndices = graph.getNeighborIndices();
+        for(int i = 0; i < numUsers; i++) {
+            for(int j = offsets[i]; j < offsets[i + 1]; j++) {
+                int k = neighborIndices[j];
+                if(i < k && i / groupSize != k / groupSize) {
+                    plantedCut++;
+                }
+                if(i < k && part[i] != part[k]) {
+                    cut++;
+                }
+            }
+        }
+        assertTrue(cut + " vs " + plantedCut, cut <= plantedCut * 1.1);
+    }
+
+    @Test
+    public void testRefineFromRepairsLocalDamage() {
+        int numGroups = 8;
+        int groupSize = 60;
+        AdjacencySnapshot graph = getPlantedGraph(numGroups, groupSize, new Random(3));
+
+        int[] planted = new int[numGroups * groupSize];
+        for(int i = 0; i < planted.length; i++) {
+            planted[i] = i / groupSize;
+        }
+
+        //swap a few pairs of users between groups, which keeps the parts balanced
+        int[] part = planted.clone();
+        int[] damaged = {5, 130, 70, 250, 200, 400, 310, 460};
+        for(int i = 0; i < damaged.length; i += 2) {
+            part[damaged[i]] = planted[damaged[i + 1]];
+            part[damaged[i + 1]] = planted[damaged[i]];
+        }
+
+        int[] moved = MultilevelPartitioner.refineFrom(graph, part, numGroups, damaged, new Random(1));
+
+        assertArrayEquals(planted, part);
+        sort(moved);
+        int[] sortedDamaged = damaged.clone();
+        sort(sortedDamaged);
+        assertArrayEquals(sortedDamaged, moved);
+
+        //nothing to do if nothing has changed
+        assertEquals(0, MultilevelPartitioner.refineFrom(graph, part, numGroups, new int[]{0, 100, 200}, new Random(1)).length);
+    }
+
+    @Test
+    public void testRefineNeverRaisesCutOrOverfills() {
+        int numGroups = 8;
+        int groupSize = 60;
+        int numUsers = numGroups * groupSize;
+        MultilevelPartitioner.Graph graph = MultilevelPartitioner.Graph.fromSnapshot(getPlantedGraph(numGroups, groupSize, new Random(3)));
+        int maxPartSize = (int) Math.ceil(MultilevelPartitioner.IMBALANCE_TOLERANCE * numUsers / numGroups);
+
+        Random random = new Random(5);
+        for(int i = 0; i < 10; i++) {
+            int[] part = new int[numUsers];
+            for(int v = 0; v < numUsers; v++) {
+                part[v] = v % numGroups;
+            }
+            shuffle(part, random);
+            int cutBefore = MultilevelPartitioner.getEdgeCut(graph, part);
+
+            MultilevelPartitioner.refine(graph, part, numGroups, random);
+
+            assertTrue(MultilevelPartitioner.getEdgeCut(graph, part) < cutBefore);
+            int[] partSizes = new int[numGroups];
+            for(int p : part) {
+                partSizes[p]++;
+            }
+            for(int size : partSizes) {
+                assertTrue(size <= maxPartSize);
+            }
+        }
+    }
+
+    @Test
+    public void testTinyGraphs() {
+        TIntObjectMap<TIntSet> friendships = new TIntObjectHashMap<>();
+        friendships.put(4, initSet(9));
+        friendships.put(9, initSet(4));
+        friendships.put(12, initSet());
+        AdjacencySnapshot graph = AdjacencySnapshot.fromFriendships(friendships);
+
+        assertArrayEquals(new int[]{0, 1, 2}, MultilevelPartitioner.partition(graph, 5, new Random(1)));
+        assertArrayEquals(new int[]{0, 0, 0}, MultilevelPartitioner.partition(graph, 1, new Random(1)));
+    }
+
+    @Test
+    public void testBuiltinMetisBackend() {
+        TIntObjectMap<TIntSet> friendships = new TIntObjectHashMap<>();
+        for(int uid = 0; uid < 200; uid++) {
+            friendships.put(uid, new TIntHashSet());
+        }
+        for(int uid = 1; uid < 200; uid++) {
+            friendships.get(uid).add(uid / 2);
+            friendships.get(uid / 2).add(uid);
+        }
+
+        TIntIntMap uidToPid = MetisRepartitioner.partition(MetisRepartitioner.BUILTIN_COMMAND, null, friendships, initSet(3, 7, 11, 20), new Random(3));
+
+        assertEquals(friendships.keySet(), uidToPid.keySet());
+        assertEquals(initSet(3, 7, 11, 20), new TIntHashSet(uidToPid.values()));
+    }
+
+    //dense groups of consecutive uids, sparsely connected to each other
+    private static AdjacencySnapshot getPlantedGraph(int numGroups, int groupSize, Random random) {
+        TIntObjectMap<TIntSet> friendships = new TIntObjectHashMap<>();
+        int numUsers = numGroups * groupSize;
+        for(int uid = 0; uid < numUsers; uid++) {
+            friendships.put(uid, new TIntHashSet());
+        }
+        for(int uid1 = 0; uid1 < numUsers; uid1++) {
+            for(int uid2 = uid1 + 1; uid2 < numUsers; uid2++) {
+                boolean sameGroup = uid1 / groupSize == uid2 / groupSize;
+                if(random.nextFloat() < (sameGroup ? 0.2f : 0.002f)) {
+                    friendships.get(uid1).add(uid2);
+                    friendships.get(uid2).add(uid1);
+                }
+            }
+        }
+        return AdjacencySnapshot.fromFriendships(friendships);
+    }
+}
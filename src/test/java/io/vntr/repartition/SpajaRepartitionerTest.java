@@ -5,10 +5,14 @@ import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
+import io.vntr.TestUtils;
 import io.vntr.manager.RepManager;
+import io.vntr.utils.AdjacencySnapshot;
 import io.vntr.utils.InitUtils;
 import org.junit.Test;
 
+import java.util.Random;
+
 import static io.vntr.utils.TroveUtils.*;
 import static io.vntr.repartition.SpajaRepartitioner.*;
 import static org.junit.Assert.assertEquals;
@@ -217,6 +221,42 @@ public class SpajaRepartitionerTest {
         }
     }
 
+    @Test
+    public void testGetSwapDeltaMatchesSwapChanges() {
+        int minNumReplicas = 1;
+        Random random = new Random(11);
+
+        TestUtils.RandomGraph randomGraph = TestUtils.randomGraph(random, 40, 4, 120);
+        TIntObjectMap<TIntSet> partitions = randomGraph.getPartitions();
+        TIntObjectMap<TIntSet> friendships = randomGraph.getFriendships();
+
+        RepManager manager = InitUtils.initRepManager(minNumReplicas, 0, partitions, friendships, getInitialReplicasObeyingKReplication(minNumReplicas, partitions, friendships, random));
+        SpajaRepartitioner.State state = SpajaRepartitioner.getState(minNumReplicas, 1f, 2f, 0.5f, 3, AdjacencySnapshot.fromFriendships(friendships), manager.getPartitionToUserMap(), manager.getPartitionToReplicasMap());
+
+        for(int round = 0; round < 3; round++) {
+            for(int uid1 = 0; uid1 < 40; uid1++) {
+                for(int uid2 = 0; uid2 < 40; uid2++) {
+                    int pid1 = state.getLogicalPids().get(uid1);
+                    int pid2 = state.getLogicalPids().get(uid2);
+                    if(pid1 == pid2) {
+                        continue;
+                    }
+                    SpajaRepartitioner.SwapChanges swapChanges = SpajaRepartitioner.getSwapChanges(uid1, uid2, state);
+                    boolean friends = state.getGraph().areFriends(uid1, uid2);
+                    assertEquals(swapChanges.getAddToP1().size() - swapChanges.getRemoveFromP1().size(), SpajaRepartitioner.getSwapDelta(uid1, uid2, pid1, pid2, friends, state));
+                    assertEquals(swapChanges.getAddToP2().size() - swapChanges.getRemoveFromP2().size(), SpajaRepartitioner.getSwapDelta(uid2, uid1, pid2, pid1, friends, state));
+                }
+            }
+            for(int i = 0; i < 10; i++) {
+                int uid1 = random.nextInt(40);
+                int uid2 = random.nextInt(40);
+                if(state.getLogicalPids().get(uid1) != state.getLogicalPids().get(uid2)) {
+                    SpajaRepartitioner.swap(uid1, uid2, state);
+                }
+            }
+        }
+    }
+
     @Test
     public void testFindReplicasToAddToTargetPartition() {
         int minNumReplicas = 1;
@@ -387,7 +427,7 @@ uidLoop:    for (Integer uid : friendships.keys()) {
                     assertTrue(shouldWeAddAReplicaOfMovingUserInMovingPartition(uid, pid, state));
                     continue;
                 }
-                for(TIntIterator iter = state.getFriendships().get(uid).iterator(); iter.hasNext(); ) {
+                for(TIntIterator iter = state.getGraph().getFriendSet(uid).iterator(); iter.hasNext(); ) {
                     int friendId = iter.next();
                     if(state.getLogicalPids().get(friendId) == logicalPid) {
                         assertTrue(shouldWeAddAReplicaOfMovingUserInMovingPartition(uid, pid, state));
@@ -402,7 +442,7 @@ uidLoop:    for (Integer uid : friendships.keys()) {
 
     private static void fillState(SpajaRepartitioner.State state, TIntObjectMap<TIntSet> partitions, TIntObjectMap<TIntSet> replicas) {
         state.setLogicalPids(getUToMasterMap(partitions));
-        state.setLogicalReplicaPids(getUToReplicasMap(replicas, state.getFriendships().keySet()));
+        state.setLogicalReplicaPids(getUToReplicasMap(replicas, state.getGraph().getUidSet()));
         state.setLogicalReplicaPartitions(replicas);
     }
 }
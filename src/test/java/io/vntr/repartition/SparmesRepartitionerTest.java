@@ -7,6 +7,7 @@ import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
 import io.vntr.TestUtils;
+import io.vntr.utils.AdjacencySnapshot;
 import org.junit.Test;
 
 import java.util.*;
@@ -52,7 +53,7 @@ public class SparmesRepartitionerTest {
 
         TIntObjectMap<TIntSet> bidirectionalFriendships = generateBidirectionalFriendshipSet(friendships);
 
-        SparmesRepartitioner.State state = SparmesRepartitioner.State.init(minNumReplicas, gamma, partitions, replicas, bidirectionalFriendships);
+        SparmesRepartitioner.State state = SparmesRepartitioner.State.init(minNumReplicas, gamma, partitions, replicas, bidirectionalFriendships, new Random());
 
         Set<Target> targets = SparmesRepartitioner.getPartitionCandidates(2, true, 3, state);
         assertEquals(targets, TestUtils.initSet(new Target(9, 3, 2, 1f)));
@@ -94,7 +95,7 @@ public class SparmesRepartitionerTest {
         TIntObjectMap<TIntSet> bidirectionalFriendships = generateBidirectionalFriendshipSet(friendships);
         TIntObjectMap<TIntSet> uidToReplicasMap = getUToReplicasMap(replicas, friendships.keySet());
 
-        SparmesRepartitioner.State state = SparmesRepartitioner.State.init(minNumReplicas, gamma, partitions, replicas, bidirectionalFriendships);
+        SparmesRepartitioner.State state = SparmesRepartitioner.State.init(minNumReplicas, gamma, partitions, replicas, bidirectionalFriendships, new Random());
 
         Set<Target> targets = SparmesRepartitioner.getPartitionCandidates(2, false, 3, state);
         assertEquals(targets, TestUtils.initSet(new Target(9, 1, 2, 1f)));
@@ -133,7 +134,7 @@ public class SparmesRepartitionerTest {
         TIntObjectMap<TIntSet> bidirectionalFriendships = generateBidirectionalFriendshipSet(friendships);
         TIntObjectMap<TIntSet> uidToReplicasMap = getUToReplicasMap(replicas, friendships.keySet());
 
-        SparmesRepartitioner.State state = SparmesRepartitioner.State.init(minNumReplicas, gamma, partitions, replicas, bidirectionalFriendships);
+        SparmesRepartitioner.State state = SparmesRepartitioner.State.init(minNumReplicas, gamma, partitions, replicas, bidirectionalFriendships, new Random());
 
         int uid1 = 1;
         int pid1 = 1;
@@ -150,7 +151,7 @@ public class SparmesRepartitionerTest {
 
         Set<Target> targets = TestUtils.initSet(new Target(1, 3, 1, 2f), new Target(13, 1, 3, 2f));
         for(Target target : targets) {
-            SparmesRepartitioner.migrateLogically(target, state, uidToReplicasMap);
+            SparmesRepartitioner.migrateLogically(target, state);
         }
         state.updateLogicalUsers();
 
@@ -162,6 +163,31 @@ public class SparmesRepartitionerTest {
         assertEquals(state.getLogicalReplicaPartitions().get(pid2), initSet( 2,  3,  4,  5,  6,  8,  9, 13));
     }
 
+    @Test
+    public void testIncrementalUpdateMatchesRebuild() {
+        int minNumReplicas = 2;
+        float gamma = 1.5f;
+        Random random = new Random(5);
+
+        TestUtils.RandomGraph randomGraph = TestUtils.randomGraph(random, 60, 5, 200);
+        TIntObjectMap<TIntSet> partitions = randomGraph.getPartitions();
+        TIntObjectMap<TIntSet> friendships = randomGraph.getFriendships();
+
+        AdjacencySnapshot graph = AdjacencySnapshot.fromFriendships(friendships);
+        TIntObjectMap<TIntSet> replicas = getInitialReplicasObeyingKReplication(minNumReplicas, partitions, friendships, random);
+        SparmesRepartitioner.State state = SparmesRepartitioner.State.init(minNumReplicas, gamma, partitions, replicas, graph, random);
+
+        int moves = 0;
+        for(int stage = 0; stage < 8; stage++) {
+            moves += SparmesRepartitioner.performStage(stage % 2 == 0, 3, state);
+            state.updateLogicalUsers();
+
+            SparmesRepartitioner.State rebuilt = SparmesRepartitioner.State.init(minNumReplicas, gamma, state.getLogicalPartitions(), state.getLogicalReplicaPartitions(), graph, random);
+            assertEquals(rebuilt.getLogicalUsers(), state.getLogicalUsers());
+        }
+        assertTrue(moves > 0);
+    }
+
     @Test
     public void testStateDotInit() {
         int minNumReplicas = 1;
@@ -196,7 +222,7 @@ public class SparmesRepartitionerTest {
         TIntIntMap uidToPidMap = getUToMasterMap(partitions);
         TIntObjectMap<TIntSet> uidToReplicasMap = getUToReplicasMap(replicas, friendships.keySet());
 
-        SparmesRepartitioner.State state = SparmesRepartitioner.State.init(minNumReplicas, gamma, partitions, replicas, bidirectionalFriendships);
+        SparmesRepartitioner.State state = SparmesRepartitioner.State.init(minNumReplicas, gamma, partitions, replicas, bidirectionalFriendships, new Random());
 
         assertEquals(state.getLogicalPartitions(), partitions);
         assertEquals(state.getLogicalReplicaPartitions(), replicas);
@@ -0,0 +1,67 @@
+package io.vntr.trace;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static io.vntr.trace.TraceAction.ACTION.*;
+import static org.junit.Assert.*;
+
+public class BinaryTraceReaderTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        File textFile = TraceReaderTest.writeSampleTrace();
+        File binaryFile = File.createTempFile("binary_trace_reader_test", ".bin");
+        binaryFile.deleteOnExit();
+
+        assertEquals(3, TraceConverter.convert(textFile.getAbsolutePath(), binaryFile.getAbsolutePath()));
+        assertTrue(BinaryTraceReader.isBinaryTrace(binaryFile.getAbsolutePath()));
+        assertFalse(BinaryTraceReader.isBinaryTrace(textFile.getAbsolutePath()));
+
+        Trace expected = TraceUtils.getFullTraceFromFile(textFile.getAbsolutePath());
+        Trace actual = TraceUtils.getFullTraceFromFile(binaryFile.getAbsolutePath());
+        assertEquals(expected.getFriendships(), actual.getFriendships());
+        assertEquals(expected.getPartitions(), actual.getPartitions());
+        assertEquals(expected.getReplicas(), actual.getReplicas());
+        assertEquals(expected.getActions(), actual.getActions());
+    }
+
+    @Test
+    public void testConverterRejectsTracesTooLargeToMap() throws Exception {
+        File textFile = TraceReaderTest.writeSampleTrace();
+        File binaryFile = File.createTempFile("binary_trace_reader_test", ".bin");
+        binaryFile.deleteOnExit();
+        TraceConverter.convert(textFile.getAbsolutePath(), binaryFile.getAbsolutePath());
+        long size = binaryFile.length();
+
+        assertEquals(3, TraceConverter.convert(textFile.getAbsolutePath(), binaryFile.getAbsolutePath(), size));
+        assertEquals(size, binaryFile.length());
+
+        try {
+            TraceConverter.convert(textFile.getAbsolutePath(), binaryFile.getAbsolutePath(), size - 1);
+            fail("Expected the converter to reject the trace");
+        } catch(IOException e) {
+            //expected
+        }
+        assertFalse(binaryFile.exists());
+    }
+
+    @Test
+    public void testLimit() throws Exception {
+        File textFile = TraceReaderTest.writeSampleTrace();
+        File binaryFile = File.createTempFile("binary_trace_reader_test", ".bin");
+        binaryFile.deleteOnExit();
+        TraceConverter.convert(textFile.getAbsolutePath(), binaryFile.getAbsolutePath());
+
+        BinaryTraceReader reader = new BinaryTraceReader(binaryFile.getAbsolutePath(), 1);
+        try {
+            assertEquals(3, reader.getNumActions());
+            assertEquals(new TraceAction(BEFRIEND, 1, 2), reader.next());
+            assertFalse(reader.hasNext());
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -43,6 +43,8 @@ public class TraceGenerator {
     private static int maxUid = 0;
     private static int maxPid = 0;
 
+    private static final Random random = new Random();
+
     private static final Map<TRACE_ACTION, Double> actionsProbability = new HashMap<>();
     static {
         actionsProbability.put(ADD_USER, 0.1D);
@@ -75,8 +77,8 @@ public class TraceGenerator {
             pids.add(pid);
         }
 
-        TIntObjectMap<TIntSet> partitions = TestUtils.getRandomPartitioning(pids, mutableFriendships.keySet());
-        TIntObjectMap<TIntSet> replicas = TroveUtils.getInitialReplicasObeyingKReplication(MIN_NUM_REPLICAS, partitions, mutableFriendships);
+        TIntObjectMap<TIntSet> partitions = TestUtils.getRandomPartitioning(pids, mutableFriendships.keySet(), random);
+        TIntObjectMap<TIntSet> replicas = TroveUtils.getInitialReplicasObeyingKReplication(MIN_NUM_REPLICAS, partitions, mutableFriendships, random);
 
         TRACE_ACTION[] script = new TRACE_ACTION[numActions];
         for (int j = 0; j < numActions - 1; j++) {
@@ -162,7 +164,7 @@ public class TraceGenerator {
     }
 
     static FullTraceAction cutU(TIntObjectMap<TIntSet> friendships, TIntSet pids) {
-        int userToRemove = getRandomElement(friendships.keySet());
+        int userToRemove = getRandomElement(friendships.keySet(), random);
 
         for(TIntIterator iter = findKeysForUser(friendships, userToRemove).iterator(); iter.hasNext(); ) {
             friendships.get(iter.next()).remove(userToRemove);
@@ -174,7 +176,7 @@ public class TraceGenerator {
 
     static FullTraceAction addF(TIntObjectMap<TIntSet> friendships, TIntSet pids) {
         TIntObjectMap<TIntSet> bidirectionalFriendships = generateBidirectionalFriendshipSet(friendships);
-        int uid = chooseKeyFromMapSetInProportionToSetSize(bidirectionalFriendships);
+        int uid = chooseKeyFromMapSetInProportionToSetSize(bidirectionalFriendships, random);
         TIntList friendIds = new TIntArrayList(bidirectionalFriendships.get(uid));
 
         //Grab a new friend either uniformly from friends of friends, or at random from everyone this user hasn't befriended
@@ -219,7 +221,7 @@ public class TraceGenerator {
     }
 
     static FullTraceAction cutF(TIntObjectMap<TIntSet> friendships, TIntSet pids) {
-        List<Integer> friendship = chooseKeyValuePairFromMapSetUniformly(friendships);
+        List<Integer> friendship = chooseKeyValuePairFromMapSetUniformly(friendships, random);
         int val1 = Math.min(friendship.get(0), friendship.get(1));
         int val2 = Math.max(friendship.get(0), friendship.get(1));
         friendships.get(val1).remove(val2);
@@ -234,7 +236,7 @@ public class TraceGenerator {
     }
 
     static FullTraceAction cutP(TIntObjectMap<TIntSet> friendships, TIntSet pids) {
-        int partitionToRemove = getRandomElement(pids);
+        int partitionToRemove = getRandomElement(pids, random);
         pids.remove(partitionToRemove);
 
         return new FullTraceAction(REMOVE_PARTITION, partitionToRemove);
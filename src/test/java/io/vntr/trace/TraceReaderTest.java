@@ -0,0 +1,72 @@
+package io.vntr.trace;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.PrintWriter;
+
+import static io.vntr.trace.TraceAction.ACTION.*;
+import static io.vntr.utils.TroveUtils.initSet;
+import static org.junit.Assert.*;
+
+public class TraceReaderTest {
+
+    @Test
+    public void testHeaderAndActions() throws Exception {
+        File file = writeSampleTrace();
+        TraceReader reader = new TraceReader(file.getAbsolutePath());
+        try {
+            Trace trace = reader.getTrace();
+            assertEquals(initSet(1, 2), trace.getFriendships().get(0));
+            assertEquals(initSet(0), trace.getFriendships().get(1));
+            assertEquals(initSet(0, 1), trace.getPartitions().get(0));
+            assertEquals(initSet(2), trace.getPartitions().get(1));
+            assertEquals(initSet(0), trace.getReplicas().get(1));
+
+            assertTrue(reader.hasNext());
+            assertEquals(new TraceAction(BEFRIEND, 1, 2), reader.next());
+            assertEquals(new TraceAction(UNFRIEND, 0, 1), reader.next());
+            assertEquals(new TraceAction(DOWNTIME, -1, -1), reader.next());
+            assertFalse(reader.hasNext());
+            assertEquals(3, reader.getNumActionsRead());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testLimit() throws Exception {
+        File file = writeSampleTrace();
+        TraceReader reader = new TraceReader(file.getAbsolutePath(), 2);
+        try {
+            assertEquals(new TraceAction(BEFRIEND, 1, 2), reader.next());
+            assertEquals(new TraceAction(UNFRIEND, 0, 1), reader.next());
+            assertFalse(reader.hasNext());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testFullTraceMatchesStream() throws Exception {
+        File file = writeSampleTrace();
+        Trace trace = TraceUtils.getFullTraceFromFile(file.getAbsolutePath());
+        assertEquals(3, trace.getActions().size());
+        assertEquals(new TraceAction(DOWNTIME, -1, -1), trace.getActions().get(2));
+    }
+
+    static File writeSampleTrace() throws Exception {
+        File file = File.createTempFile("trace_reader_test", ".txt");
+        file.deleteOnExit();
+        PrintWriter pw = new PrintWriter(file);
+        pw.println("F: {0=[1, 2], 1=[0], 2=[0]}");
+        pw.println("PIDS: [0, 1]");
+        pw.println("P: {0=[0, 1], 1=[2]}");
+        pw.println("R: {0=[2], 1=[0]}");
+        pw.println("A0: BEFRIEND 1 2");
+        pw.println("A1: UNFRIEND 0 1");
+        pw.println("A2: DOWNTIME -1 -1");
+        pw.close();
+        return file;
+    }
+}
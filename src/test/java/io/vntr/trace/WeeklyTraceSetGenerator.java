@@ -59,6 +59,8 @@ public class WeeklyTraceSetGenerator {
     private static int maxUid = 0;
     private static int maxPid = 0;
 
+    private static final Random random = new Random();
+
     private static final Map<TRACE_ACTION, Double> actionsProbability = new HashMap<>();
     static {
         actionsProbability.put(BEFRIEND, 0.738D);     //Befriend/Unfriend ratio should be ~3, according to sigmod-linkbench paper
@@ -109,13 +111,13 @@ public class WeeklyTraceSetGenerator {
             originalPids.add(pid);
         }
 
-        TIntObjectMap<TIntSet> hardStartPartitions = TestUtils.getRandomPartitioning(originalPids, bidirectionalFriendships.keySet());
+        TIntObjectMap<TIntSet> hardStartPartitions = TestUtils.getRandomPartitioning(originalPids, bidirectionalFriendships.keySet(), random);
         TIntObjectMap<TIntSet> softStartPartitions = getSoftStartPartitions(originalPids, metisCommand, metisTempDir);
         Map<Integer, TIntObjectMap<TIntSet>> hardStartReplicasMap = new HashMap<>();
         Map<Integer, TIntObjectMap<TIntSet>> softStartReplicasMap = new HashMap<>();
         for(int minNumReplicas : MIN_NUM_REPLICAS_OPTIONS) {
-            hardStartReplicasMap.put(minNumReplicas, TroveUtils.getInitialReplicasObeyingKReplication(minNumReplicas, hardStartPartitions, bidirectionalFriendships));
-            softStartReplicasMap.put(minNumReplicas, TroveUtils.getInitialReplicasObeyingKReplication(minNumReplicas, softStartPartitions, bidirectionalFriendships));
+            hardStartReplicasMap.put(minNumReplicas, TroveUtils.getInitialReplicasObeyingKReplication(minNumReplicas, hardStartPartitions, bidirectionalFriendships, random));
+            softStartReplicasMap.put(minNumReplicas, TroveUtils.getInitialReplicasObeyingKReplication(minNumReplicas, softStartPartitions, bidirectionalFriendships, random));
         }
 
         List<FullTraceAction> actions = generateActions(new TIntHashSet(originalPids));
@@ -140,7 +142,7 @@ public class WeeklyTraceSetGenerator {
             possiblePartitionRemovalIndices.add(i);
         }
         possiblePartitionRemovalIndices.removeAll(Arrays.asList(DOWNTIME_INDICES));
-        TIntSet partitionRemovalIndices = TroveUtils.getKDistinctValuesFromArray(NUM_PARTITION_REMOVALS, possiblePartitionRemovalIndices.toArray());
+        TIntSet partitionRemovalIndices = TroveUtils.getKDistinctValuesFromArray(NUM_PARTITION_REMOVALS, possiblePartitionRemovalIndices.toArray(), random);
 
         int numPartitions = pids.size();
         int numUsers = bidirectionalFriendships.size();
@@ -197,7 +199,7 @@ public class WeeklyTraceSetGenerator {
     }
 
     static FullTraceAction cutU() {
-        int userToRemove = TroveUtils.getRandomElement(bidirectionalFriendships.keySet());
+        int userToRemove = TroveUtils.getRandomElement(bidirectionalFriendships.keySet(), random);
         TIntSet friends = bidirectionalFriendships.get(userToRemove);
         if(friends.contains(userToRemove)) {
             throw new RuntimeException("User " + userToRemove + " is friends with itself");
@@ -212,7 +214,7 @@ public class WeeklyTraceSetGenerator {
     }
 
     static FullTraceAction addF() {
-        int uid = chooseKeyFromMapSetInProportionToSetSize(bidirectionalFriendships);
+        int uid = chooseKeyFromMapSetInProportionToSetSize(bidirectionalFriendships, random);
         TIntList friendIds = new TIntArrayList(bidirectionalFriendships.get(uid));
 
         //Grab a new friend either uniformly from friends of friends, or at random from everyone this user hasn't befriended
@@ -280,7 +282,7 @@ public class WeeklyTraceSetGenerator {
     }
 
     static FullTraceAction cutF() {
-        List<Integer> friendship = chooseKeyValuePairFromMapSetUniformly(bidirectionalFriendships);
+        List<Integer> friendship = chooseKeyValuePairFromMapSetUniformly(bidirectionalFriendships, random);
         int val1 = Math.min(friendship.get(0), friendship.get(1));
         int val2 = Math.max(friendship.get(0), friendship.get(1));
         bidirectionalFriendships.get(val1).remove(val2);
@@ -296,7 +298,7 @@ public class WeeklyTraceSetGenerator {
     }
 
     static FullTraceAction cutP(TIntSet pids) {
-        int partitionToRemove = TroveUtils.getRandomElement(pids);
+        int partitionToRemove = TroveUtils.getRandomElement(pids, random);
         pids.remove(partitionToRemove);
 
         return new FullTraceAction(REMOVE_PARTITION, partitionToRemove);
@@ -321,7 +323,7 @@ public class WeeklyTraceSetGenerator {
     }
 
     private static TIntObjectMap<TIntSet> getSoftStartPartitions(TIntSet pids, String metisCommand, String metisTempDir) {
-        TIntIntMap softStartUidToPidMap = MetisRepartitioner.partition(metisCommand, metisTempDir, bidirectionalFriendships, new TIntHashSet(pids));
+        TIntIntMap softStartUidToPidMap = MetisRepartitioner.partition(metisCommand, metisTempDir, bidirectionalFriendships, new TIntHashSet(pids), random);
         TIntObjectMap<TIntSet> softStartPartitions = new TIntObjectHashMap<>(pids.size()+1);
         for(TIntIterator iter = pids.iterator(); iter.hasNext(); ) {
             softStartPartitions.put(iter.next(), new TIntHashSet());
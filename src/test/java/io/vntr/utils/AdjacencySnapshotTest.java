@@ -0,0 +1,62 @@
+package io.vntr.utils;
+
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.set.TIntSet;
+import io.vntr.User;
+import io.vntr.manager.NoRepManager;
+import org.junit.Test;
+
+import static io.vntr.utils.TroveUtils.initSet;
+import static org.junit.Assert.*;
+
+public class AdjacencySnapshotTest {
+
+    @Test
+    public void testRoundTrip() {
+        TIntObjectMap<TIntSet> friendships = new TIntObjectHashMap<>();
+        friendships.put(7, initSet(3, 12));
+        friendships.put(3, initSet(12, 7));
+        friendships.put(12, initSet(7, 3, 40));
+        friendships.put(40, initSet(12));
+        friendships.put(5, initSet());
+
+        AdjacencySnapshot graph = AdjacencySnapshot.fromFriendships(friendships);
+
+        assertEquals(5, graph.getNumUsers());
+        assertEquals(4, graph.getNumEdges());
+        assertArrayEquals(new int[]{3, 5, 7, 12, 40}, graph.getUids());
+        assertArrayEquals(new int[]{0, 2, 2, 4, 7, 8}, graph.getOffsets());
+        assertArrayEquals(new int[]{7, 12, 3, 12, 3, 7, 40, 12}, graph.getNeighbors());
+        assertEquals(3, graph.getDegree(12));
+        assertEquals(0, graph.getDegree(5));
+        assertTrue(graph.areFriends(12, 40));
+        assertFalse(graph.areFriends(3, 40));
+        assertEquals(AdjacencySnapshot.NOT_PRESENT, graph.indexOf(6));
+        assertFalse(graph.containsUser(6));
+        assertEquals(friendships, graph.toFriendships());
+    }
+
+    @Test
+    public void testManagerRebuildsAfterChanges() {
+        NoRepManager manager = new NoRepManager(0);
+        manager.addPartition(1);
+        for(int uid = 1; uid <= 4; uid++) {
+            manager.addUser(new User(uid, 1));
+        }
+        manager.befriend(1, 2);
+
+        AdjacencySnapshot first = manager.getAdjacencySnapshot();
+        assertSame(first, manager.getAdjacencySnapshot());
+        assertEquals(manager.getFriendships(), first.toFriendships());
+
+        manager.befriend(2, 3);
+        AdjacencySnapshot second = manager.getAdjacencySnapshot();
+        assertNotSame(first, second);
+        assertFalse(first.areFriends(2, 3));
+        assertEquals(manager.getFriendships(), second.toFriendships());
+
+        manager.removeUser(2);
+        assertEquals(manager.getFriendships(), manager.getAdjacencySnapshot().toFriendships());
+    }
+}
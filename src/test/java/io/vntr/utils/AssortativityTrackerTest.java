@@ -0,0 +1,90 @@
+package io.vntr.utils;
+
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static io.vntr.utils.TroveUtils.initSet;
+import static org.junit.Assert.*;
+
+public class AssortativityTrackerTest {
+
+    @Test
+    public void testMatchesFullCalculation() {
+        TIntObjectMap<TIntSet> friendships = new TIntObjectHashMap<>();
+        friendships.put(0, initSet(1, 2, 3));
+        friendships.put(1, initSet(0, 2));
+        friendships.put(2, initSet(0, 1, 3));
+        friendships.put(3, initSet(0, 2, 4));
+        friendships.put(4, initSet(3, 5));
+        friendships.put(5, initSet(4, 6, 7));
+        friendships.put(6, initSet(5, 7));
+        friendships.put(7, initSet(5, 6));
+
+        AssortativityTracker tracker = new AssortativityTracker();
+        TIntObjectMap<TIntSet> built = new TIntObjectHashMap<>();
+        for(int uid = 0; uid < 8; uid++) {
+            built.put(uid, new TIntHashSet());
+        }
+        for(int uid1 : friendships.keys()) {
+            for(int uid2 : friendships.get(uid1).toArray()) {
+                if(uid1 < uid2) {
+                    tracker.befriend(uid1, built.get(uid1), uid2, built.get(uid2));
+                    built.get(uid1).add(uid2);
+                    built.get(uid2).add(uid1);
+                }
+            }
+        }
+
+        assertEquals(ProbabilityUtils.calculateAssortivityCoefficient(friendships), tracker.getAssortativityCoefficient(), 1e-12);
+        assertTrue(tracker.agreesWith(friendships));
+    }
+
+    @Test
+    public void testRandomBefriendUnfriendAndRemove() {
+        Random random = new Random(42);
+        int numUsers = 60;
+        TIntObjectMap<TIntSet> friendships = new TIntObjectHashMap<>();
+        for(int uid = 0; uid < numUsers; uid++) {
+            friendships.put(uid, new TIntHashSet());
+        }
+
+        AssortativityTracker tracker = new AssortativityTracker();
+        for(int i = 0; i < 2000; i++) {
+            int uid1 = random.nextInt(numUsers);
+            int uid2 = random.nextInt(numUsers);
+            if(uid1 == uid2 || !friendships.containsKey(uid1) || !friendships.containsKey(uid2)) {
+                continue;
+            }
+            if(friendships.get(uid1).contains(uid2)) {
+                //Friend sets still contain each other here; the tracker must cope with either order
+                tracker.unfriend(uid1, friendships.get(uid1), uid2, friendships.get(uid2));
+                friendships.get(uid1).remove(uid2);
+                friendships.get(uid2).remove(uid1);
+            } else {
+                tracker.befriend(uid1, friendships.get(uid1), uid2, friendships.get(uid2));
+                friendships.get(uid1).add(uid2);
+                friendships.get(uid2).add(uid1);
+            }
+
+            if(i % 500 == 499) {
+                int victim = uid1;
+                for(int friendId : friendships.get(victim).toArray()) {
+                    friendships.get(victim).remove(friendId);
+                    friendships.get(friendId).remove(victim);
+                    tracker.unfriend(victim, friendships.get(victim), friendId, friendships.get(friendId));
+                }
+                friendships.remove(victim);
+                tracker.removeUser(victim);
+            }
+
+            if(i % 100 == 99) {
+                assertTrue(tracker.agreesWith(friendships));
+            }
+        }
+    }
+}
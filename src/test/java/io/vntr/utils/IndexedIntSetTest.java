@@ -0,0 +1,93 @@
+package io.vntr.utils;
+
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static io.vntr.utils.TroveUtils.initSet;
+import static org.junit.Assert.*;
+
+public class IndexedIntSetTest {
+
+    @Test
+    public void testAddAndRemove() {
+        IndexedIntSet set = new IndexedIntSet(2);
+        assertTrue(set.isEmpty());
+        assertTrue(set.add(5));
+        assertTrue(set.add(9));
+        assertTrue(set.add(12));
+        assertFalse(set.add(9));
+        assertEquals(3, set.size());
+
+        assertTrue(set.remove(5));
+        assertFalse(set.remove(5));
+        assertFalse(set.contains(5));
+        assertTrue(set.contains(9));
+        assertTrue(set.contains(12));
+
+        //12 was moved into the hole that 5 left
+        assertEquals(12, set.get(0));
+        assertEquals(9, set.get(1));
+        assertEquals(initSet(9, 12), new TIntHashSet(set.toArray()));
+
+        assertTrue(set.remove(9));
+        assertTrue(set.remove(12));
+        assertTrue(set.isEmpty());
+        assertTrue(set.add(9));
+        assertArrayEquals(new int[]{9}, set.toArray());
+    }
+
+    @Test
+    public void testIndexesInIterationOrder() {
+        TIntSet set = initSet(3, 1000, 17, 42, 8, 256);
+        assertArrayEquals(set.toArray(), new IndexedIntSet(set).toArray());
+    }
+
+    @Test
+    public void testSample() {
+        IndexedIntSet set = new IndexedIntSet();
+        for(int i = 0; i < 100; i++) {
+            set.add(i);
+        }
+        for(int i = 0; i < 100; i += 2) {
+            set.remove(i);
+        }
+
+        Random random = new Random(7);
+        for(int i = 0; i < 100; i++) {
+            TIntSet sample = set.sample(5, random);
+            assertEquals(5, sample.size());
+            for(int element : sample.toArray()) {
+                assertTrue(element % 2 == 1);
+            }
+            assertTrue(set.getRandomElement(random) % 2 == 1);
+        }
+
+        assertEquals(new TIntHashSet(set.toArray()), set.sample(50, random));
+        assertEquals(new TIntHashSet(set.toArray()), set.sample(80, random));
+    }
+
+    @Test
+    public void testSampleIsUniform() {
+        IndexedIntSet set = new IndexedIntSet();
+        for(int i = 0; i < 10; i++) {
+            set.add(i);
+        }
+
+        int[] counts = new int[10];
+        Random random = new Random(11);
+        for(int i = 0; i < 20000; i++) {
+            for(int element : set.sample(3, random).toArray()) {
+                counts[element]++;
+            }
+        }
+
+        //each element should be picked about 20000 * 3 / 10 = 6000 times
+        for(int count : counts) {
+            assertTrue(Arrays.toString(counts), Math.abs(count - 6000) < 300);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package io.vntr.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PowerTableTest {
+
+    @Test
+    public void testMatchesMathPow() {
+        for(float alpha : new float[]{1f, 2f, 2.5f, 0.3f}) {
+            PowerTable powers = new PowerTable(alpha, 4);
+            for(int n = 0; n < 1000; n += 7) {
+                assertEquals(Math.pow(n, alpha), powers.pow(n), 0);
+            }
+            for(int n = 999; n >= 0; n--) {
+                assertEquals(Math.pow(n, alpha), powers.pow(n), 0);
+            }
+            assertEquals(Math.pow(-3, alpha), powers.pow(-3), 0);
+        }
+    }
+}
@@ -5,6 +5,11 @@ import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.set.TIntSet;
 import org.junit.Test;
 
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 /**
  * Created by robertlindquist on 1/18/17.
  */
@@ -29,7 +34,25 @@ public class ProbabilityUtilsTest {
     public void testLogNormalDistributionDraw() {
         double mean = 12.08441436510468D;
         double stdDeviation = 0.44631395858726847D;
-        System.out.println(ProbabilityUtils.drawFromLogNormalDistribution(mean, stdDeviation));
+        System.out.println(ProbabilityUtils.drawFromLogNormalDistribution(mean, stdDeviation, new Random()));
+    }
+
+    @Test
+    public void testChooseKeyFromMapSetInProportionToSetSize() {
+        TIntObjectMap<TIntSet> mapset = new TIntObjectHashMap<>();
+        mapset.put(1, TroveUtils.initSet(10, 11, 12));
+        mapset.put(2, TroveUtils.initSet());
+        mapset.put(3, TroveUtils.initSet(30));
+
+        int[] counts = new int[4];
+        Random random = new Random();
+        for(int i = 0; i < 40000; i++) {
+            counts[ProbabilityUtils.chooseKeyFromMapSetInProportionToSetSize(mapset, random)]++;
+        }
+
+        assertEquals(0, counts[2]);
+        assertTrue(Math.abs(counts[1] - 30000) < 600);
+        assertTrue(Math.abs(counts[3] - 10000) < 600);
     }
 
     private static final int MIN_LND_K = 1;
@@ -42,10 +65,11 @@ public class ProbabilityUtilsTest {
 //        double mean = 11.784808492653509D;
         double stdDeviation = 0.44631395858726847D;
 //        double stdDeviation = 1.7764520481053447D;
+        Random random = new Random();
         for(int k=MIN_LND_K; k<=MAX_LND_K; k++) {
             double sum = 0;
             for(int j=0; j<NUM_LND_SAMPLES; j++) {
-                sum += ProbabilityUtils.drawKFromLogNormalDistributionAndReturnMax(mean, stdDeviation, k);
+                sum += ProbabilityUtils.drawKFromLogNormalDistributionAndReturnMax(mean, stdDeviation, k, random);
             }
             double average = sum / NUM_LND_SAMPLES;
             System.out.println(k + ": " + average);
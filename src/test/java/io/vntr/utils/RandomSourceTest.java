@@ -0,0 +1,71 @@
+package io.vntr.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class RandomSourceTest {
+
+    @Test
+    public void testSameSeedSameSequence() {
+        RandomSource a = new RandomSource(42);
+        RandomSource b = new RandomSource(42);
+        for(int i = 0; i < 1000; i++) {
+            assertEquals(a.nextLong(), b.nextLong());
+            assertEquals(a.nextInt(17), b.nextInt(17));
+            assertEquals(a.nextDouble(), b.nextDouble(), 0);
+        }
+
+        int[] arr1 = new int[100];
+        int[] arr2 = new int[100];
+        for(int i = 0; i < 100; i++) {
+            arr1[i] = arr2[i] = i;
+        }
+        TroveUtils.shuffle(arr1, new RandomSource(7));
+        TroveUtils.shuffle(arr2, new RandomSource(7));
+        assertArrayEquals(arr1, arr2);
+    }
+
+    @Test
+    public void testDifferentSeedsDiffer() {
+        assertNotEquals(new RandomSource(1).nextLong(), new RandomSource(2).nextLong());
+        assertNotEquals(new RandomSource().nextLong(), new RandomSource().nextLong());
+    }
+
+    @Test
+    public void testSplitIsReproducibleAndIndependent() {
+        RandomSource parent1 = new RandomSource(99);
+        RandomSource parent2 = new RandomSource(99);
+        RandomSource child1 = parent1.split();
+        RandomSource child2 = parent2.split();
+
+        long[] childValues = new long[100];
+        long[] parentValues = new long[100];
+        for(int i = 0; i < 100; i++) {
+            childValues[i] = child1.nextLong();
+            assertEquals(childValues[i], child2.nextLong());
+            parentValues[i] = parent1.nextLong();
+            assertEquals(parentValues[i], parent2.nextLong());
+        }
+        assertFalse(Arrays.equals(childValues, parentValues));
+    }
+
+    @Test
+    public void testBoundsAndSpread() {
+        RandomSource random = new RandomSource(5);
+        int[] counts = new int[10];
+        for(int i = 0; i < 100000; i++) {
+            int next = random.nextInt(10);
+            assertTrue(next >= 0 && next < 10);
+            counts[next]++;
+
+            double d = random.nextDouble();
+            assertTrue(d >= 0 && d < 1);
+        }
+        for(int count : counts) {
+            assertTrue(Arrays.toString(counts), Math.abs(count - 10000) < 500);
+        }
+    }
+}
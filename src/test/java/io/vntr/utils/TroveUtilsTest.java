@@ -9,6 +9,8 @@ import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
 import org.junit.Test;
 
+import java.util.Random;
+
 import static io.vntr.utils.TroveUtils.*;
 import static io.vntr.utils.TroveUtils.removeUniqueElementFromNonEmptyArray;
 import static org.junit.Assert.assertArrayEquals;
@@ -329,7 +331,7 @@ public class TroveUtilsTest {
         TIntObjectMap<TIntSet> bidirectionalFriendships = generateBidirectionalFriendshipSet(friendships);
 
         int minNumReplicas = 1;
-        TIntObjectMap<TIntSet> result = getInitialReplicasObeyingKReplication(minNumReplicas, partitions, bidirectionalFriendships);
+        TIntObjectMap<TIntSet> result = getInitialReplicasObeyingKReplication(minNumReplicas, partitions, bidirectionalFriendships, new Random());
         for(int uid : friendships.keys()) {
             int numReplicas = 0;
             for(int pid : partitions.keys()) {
@@ -396,4 +398,30 @@ public class TroveUtilsTest {
         assertArrayEquals(expectedResult14, result14);
         assertArrayEquals(expectedResult146, result146);
     }
+
+    @Test
+    public void testGetRandomElement() {
+        TIntSet set = initSet(4, 8, 15, 16, 23, 42);
+        TIntSet seen = new TIntHashSet();
+        Random random = new Random();
+        for(int i = 0; i < 1000; i++) {
+            int element = getRandomElement(set, random);
+            assertTrue(set.contains(element));
+            seen.add(element);
+        }
+        assertEquals(set, seen);
+        assertEquals(null, getRandomElement(new TIntHashSet(), random));
+    }
+
+    @Test
+    public void testGetKDistinctValuesFromPrefix() {
+        int[] buffer = {3, 5, 7, 9, -1, -1};
+        Random random = new Random(3);
+        for(int i = 0; i < 100; i++) {
+            TIntSet sample = getKDistinctValuesFromArray(2, buffer, 4, random);
+            assertEquals(2, sample.size());
+            assertTrue(initSet(3, 5, 7, 9).containsAll(sample));
+        }
+        assertEquals(initSet(3, 5, 7, 9), getKDistinctValuesFromArray(4, buffer, 4, random));
+    }
 }